@@ -0,0 +1,104 @@
+package benchmark;
+
+import java.util.Arrays;
+
+/**
+ * The Latencies collects latencies in nanoseconds on one thread, in an
+ * array that grows as needed, and reads percentiles once they are sorted.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+final class Latencies {
+    private long[] values = new long[1024];
+    private int size;
+
+    /**
+     * This method adds a latency.
+     * @param nanos The latency in nanoseconds.
+     */
+    void add(long nanos) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = nanos;
+    }
+
+    /**
+     * This method adds every latency of another Latencies.
+     * @param other The latencies to be added.
+     */
+    void addAll(Latencies other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.values[i]);
+        }
+    }
+
+    /**
+     * Returns the number of latencies.
+     * @return The number of latencies added.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Sorts the latencies so percentiles can be read.
+     */
+    void sort() {
+        Arrays.sort(values, 0, size);
+    }
+
+    /**
+     * Returns a percentile by the nearest rank. The latencies must be
+     * sorted.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The latency in nanoseconds, or 0 if there are none.
+     */
+    long percentile(double percentile) {
+        if (size == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * size);
+        return values[Math.max(0, Math.min(size, rank) - 1)];
+    }
+
+    /**
+     * Returns the mean latency.
+     * @return The mean in nanoseconds, or 0 if there are none.
+     */
+    long mean() {
+        long sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += values[i];
+        }
+        return size == 0 ? 0 : sum / size;
+    }
+
+    /**
+     * Returns the largest latency. The latencies must be sorted.
+     * @return The maximum in nanoseconds, or 0 if there are none.
+     */
+    long max() {
+        return size == 0 ? 0 : values[size - 1];
+    }
+
+    /**
+     * Returns the label of a percentile, such as p99 or p99.9.
+     * @param percentile The percentile.
+     * @return The label.
+     */
+    static String label(double percentile) {
+        return "p" + (percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile));
+    }
+
+    /**
+     * Converts nanoseconds to milliseconds.
+     * @param nanos The duration in nanoseconds.
+     * @return The duration in milliseconds.
+     */
+    static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+}
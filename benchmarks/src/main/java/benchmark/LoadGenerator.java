@@ -0,0 +1,351 @@
+package benchmark;
+
+import models.SearchRequest;
+import service.SearchServiceImpl;
+import service.SearchServiceInterface;
+import util.DirectoryCorpusSource;
+import util.MappedFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The LoadGenerator replays a request log against a SearchServiceInterface
+ * or a SearchServer at a target rate with many concurrent clients, and
+ * reports the latency percentiles and the rate it reached.
+ *
+ * In the open loop (the default) the requests are scheduled at fixed
+ * intervals on one timeline and any free client sends the next one, so
+ * requests keep arriving at the target rate when the service slows down.
+ * In the closed loop each client has its own schedule and one request in
+ * flight, the next one waiting for the previous response; without a
+ * target rate the clients send back to back.
+ *
+ * Latency is measured from the time a request was scheduled to be sent,
+ * not from when a client got around to sending it. A client that waited
+ * on a slow response would otherwise send its next requests late and time
+ * them from then, leaving out exactly the waits a user would see
+ * (coordinated omission). The time from sending to the response is
+ * reported separately as the service time.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public final class LoadGenerator {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    // A request starting later than this after its scheduled time means
+    // there were not enough clients to keep the rate
+    private static final long LATE_START_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The Target sends one request and waits for its response.
+     */
+    interface Target {
+        void send(SearchRequest request) throws Exception;
+    }
+
+    private final Target target;
+    private final List<SearchRequest> requests;
+    private final int clients;
+
+    /**
+     * Creates a new LoadGenerator.
+     * @param target Where the requests are sent.
+     * @param requests The requests, replayed in order and from the start
+     *                 again when they run out.
+     * @param clients The number of concurrent clients.
+     */
+    LoadGenerator(Target target, List<SearchRequest> requests, int clients) {
+        if (requests.isEmpty()) {
+            throw new IllegalArgumentException("The request log is empty.");
+        }
+        this.target = target;
+        this.requests = requests;
+        this.clients = clients;
+    }
+
+    /**
+     * This method runs the load and reports the requests scheduled after
+     * the warmup.
+     * @param qps The target rate in requests per second, or 0 to send back
+     *            to back in the closed loop.
+     * @param openLoop Whether the requests share one schedule rather than
+     *                 one per client.
+     * @param warmupNanos The time at the start that is not reported.
+     * @param durationNanos The time that is reported.
+     * @return The Report.
+     * @throws InterruptedException
+     */
+    Report run(double qps, boolean openLoop, long warmupNanos, long durationNanos) throws InterruptedException {
+        if (openLoop && qps <= 0) {
+            throw new IllegalArgumentException("The open loop needs a target rate.");
+        }
+        long startTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureTime = startTime + warmupNanos;
+        long endTime = measureTime + durationNanos;
+        AtomicLong nextRequest = new AtomicLong();
+
+        List<Client> running = new ArrayList<>(clients);
+        List<Thread> threads = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            Client client = new Client(i, qps, openLoop, nextRequest, startTime, measureTime, endTime);
+            Thread thread = new Thread(client, "load-client-" + i);
+            running.add(client);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Report report = new Report(qps, openLoop, measureTime, durationNanos);
+        for (Client client : running) {
+            report.add(client);
+        }
+        report.latencies.sort();
+        report.serviceTimes.sort();
+        return report;
+    }
+
+    /**
+     * The Client sends requests at their scheduled times on its own thread
+     * and records their latencies.
+     */
+    private final class Client implements Runnable {
+        private final int index;
+        private final double qps;
+        private final boolean openLoop;
+        private final AtomicLong nextRequest;
+        private final long startTime;
+        private final long measureTime;
+        private final long endTime;
+        private final Latencies latencies = new Latencies();
+        private final Latencies serviceTimes = new Latencies();
+        private long errors;
+        private long lateStarts;
+        private long lastResponse = Long.MIN_VALUE;
+
+        Client(int index, double qps, boolean openLoop, AtomicLong nextRequest,
+               long startTime, long measureTime, long endTime) {
+            this.index = index;
+            this.qps = qps;
+            this.openLoop = openLoop;
+            this.nextRequest = nextRequest;
+            this.startTime = startTime;
+            this.measureTime = measureTime;
+            this.endTime = endTime;
+        }
+
+        @Override
+        public void run() {
+            for (long sent = 0; ; sent++) {
+                long number;
+                long scheduled;
+                if (openLoop) {
+                    number = nextRequest.getAndIncrement();
+                    scheduled = startTime + (long) (number * 1e9 / qps);
+                } else {
+                    number = sent * clients + index;
+                    // The clients are spread evenly over the interval
+                    scheduled = qps > 0 ? startTime + (long) (number * 1e9 / qps)
+                            : Math.max(startTime, System.nanoTime());
+                }
+                if (scheduled >= endTime) {
+                    return;
+                }
+                waitUntil(scheduled);
+
+                SearchRequest request = requests.get((int) (number % requests.size()));
+                long sendTime = System.nanoTime();
+                boolean failed = false;
+                try {
+                    target.send(request);
+                } catch (Exception e) {
+                    failed = true;
+                }
+                long responseTime = System.nanoTime();
+                if (scheduled < measureTime) {
+                    continue;
+                }
+                if (failed) {
+                    errors++;
+                }
+                if (sendTime - scheduled > LATE_START_NANOS) {
+                    lateStarts++;
+                }
+                latencies.add(responseTime - scheduled);
+                serviceTimes.add(responseTime - sendTime);
+                lastResponse = Math.max(lastResponse, responseTime);
+            }
+        }
+
+        private void waitUntil(long time) {
+            for (long wait = time - System.nanoTime(); wait > 0; wait = time - System.nanoTime()) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    /**
+     * The Report holds the latencies of every client.
+     */
+    static final class Report {
+        private final double qps;
+        private final boolean openLoop;
+        private final long measureTime;
+        private final long durationNanos;
+        private final Latencies latencies = new Latencies();
+        private final Latencies serviceTimes = new Latencies();
+        private long errors;
+        private long lateStarts;
+        private long lastResponse = Long.MIN_VALUE;
+
+        Report(double qps, boolean openLoop, long measureTime, long durationNanos) {
+            this.qps = qps;
+            this.openLoop = openLoop;
+            this.measureTime = measureTime;
+            this.durationNanos = durationNanos;
+        }
+
+        private void add(Client client) {
+            latencies.addAll(client.latencies);
+            serviceTimes.addAll(client.serviceTimes);
+            errors += client.errors;
+            lateStarts += client.lateStarts;
+            lastResponse = Math.max(lastResponse, client.lastResponse);
+        }
+
+        /**
+         * Returns the reached rate.
+         * @return The reported requests per second, over the measured time
+         *         or until the last of them was answered if that was later.
+         */
+        double getAchievedQps() {
+            return latencies.size() * 1e9 / Math.max(durationNanos, lastResponse - measureTime);
+        }
+
+        /**
+         * Prints the report.
+         */
+        void print() {
+            System.out.printf("%s loop, target %s, achieved %.1f requests/sec%n",
+                    openLoop ? "Open" : "Closed", qps > 0 ? String.format("%.1f requests/sec", qps) : "none",
+                    getAchievedQps());
+            System.out.printf("%d requests, %d errors, %d started more than 1 ms late%n",
+                    latencies.size(), errors, lateStarts);
+            System.out.printf("%-14s %10s", "", "mean ms");
+            for (double percentile : PERCENTILES) {
+                System.out.printf(" %10s", Latencies.label(percentile) + " ms");
+            }
+            System.out.printf(" %10s%n", "max ms");
+            printRow("latency", latencies);
+            printRow("service time", serviceTimes);
+        }
+
+        private static void printRow(String name, Latencies values) {
+            System.out.printf("%-14s %10.3f", name, Latencies.toMillis(values.mean()));
+            for (double percentile : PERCENTILES) {
+                System.out.printf(" %10.3f", Latencies.toMillis(values.percentile(percentile)));
+            }
+            System.out.printf(" %10.3f%n", Latencies.toMillis(values.max()));
+        }
+    }
+
+    /**
+     * The HttpTarget sends requests to the /search endpoint of a
+     * SearchServer, reusing its keep-alive connections.
+     */
+    static final class HttpTarget implements Target {
+        private final String baseUrl;
+
+        HttpTarget(String baseUrl) {
+            this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        }
+
+        @Override
+        public void send(SearchRequest request) throws IOException {
+            URL url = new URL(baseUrl + "/search?type=" + request.getSearchType().name().toLowerCase(Locale.ROOT)
+                    + "&term=" + URLEncoder.encode(request.getSearchTerm(), "UTF-8").replace("+", "%20"));
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            int status = connection.getResponseCode();
+            // The body is read to the end so the connection can be reused
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (in != null) {
+                    byte[] buffer = new byte[8192];
+                    while (in.read(buffer) >= 0) {
+                        // Discard the body
+                    }
+                }
+            }
+            if (status != 200) {
+                throw new IOException("HTTP " + status);
+            }
+        }
+    }
+
+    /**
+     * Replays a request log.
+     * @param args The request log, the target (an http:// URL of a
+     *             SearchServer, or comma separated directories to search
+     *             in this JVM) and the options --qps, --clients, --duration
+     *             and --warmup (in seconds) and --closed.
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: LoadGenerator <request log> <http://host:port | directory,...>"
+                    + " [--qps <n>] [--clients <n>] [--duration <s>] [--warmup <s>] [--closed]");
+            System.exit(1);
+        }
+        double qps = 1000;
+        int clients = 64;
+        double durationSeconds = 30;
+        double warmupSeconds = 5;
+        boolean openLoop = true;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--qps": qps = Double.parseDouble(args[++i]); break;
+                case "--clients": clients = Integer.parseInt(args[++i]); break;
+                case "--duration": durationSeconds = Double.parseDouble(args[++i]); break;
+                case "--warmup": warmupSeconds = Double.parseDouble(args[++i]); break;
+                case "--closed": openLoop = false; break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+            }
+        }
+
+        List<SearchRequest> requests = RequestLog.read(Paths.get(args[0]));
+        Target target;
+        if (args[1].startsWith("http://") || args[1].startsWith("https://")) {
+            // Keep a connection per client instead of the default 5
+            System.setProperty("http.maxConnections", String.valueOf(clients));
+            target = new HttpTarget(args[1]);
+        } else {
+            List<Path> directories = new ArrayList<>();
+            for (String directory : args[1].split(",")) {
+                directories.add(Paths.get(directory));
+            }
+            SearchServiceInterface searchService = new SearchServiceImpl(new DirectoryCorpusSource(directories),
+                    Runtime.getRuntime().availableProcessors(), MappedFile.DEFAULT_REGION_SIZE);
+            target = request -> searchService.performMatch(request.getSearchType(), request.getSearchTerm());
+        }
+
+        System.out.printf("Replaying %d requests with %d clients for %.0f s after a %.0f s warmup%n",
+                requests.size(), clients, durationSeconds, warmupSeconds);
+        LoadGenerator generator = new LoadGenerator(target, requests, clients);
+        generator.run(qps, openLoop, (long) (warmupSeconds * 1e9), (long) (durationSeconds * 1e9)).print();
+    }
+}
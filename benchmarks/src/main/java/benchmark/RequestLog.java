@@ -0,0 +1,201 @@
+package benchmark;
+
+import enums.SearchType;
+import models.SearchRequest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The RequestLog reads the SearchRequests of a request log: a JSONL file
+ * with one object per line, such as {"type": "string", "term": "warp drive"}.
+ * Other fields are ignored, so logs with timestamps or client ids can be
+ * replayed as they are.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+final class RequestLog {
+    private RequestLog() {
+    }
+
+    /**
+     * This method reads a request log, skipping blank lines.
+     * @param path The JSONL file.
+     * @return The requests, in the order of the file.
+     * @throws IOException
+     * @throws IllegalArgumentException If a line is not a request.
+     */
+    static List<SearchRequest> read(Path path) throws IOException {
+        List<SearchRequest> requests = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            int lineNumber = 0;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    requests.add(parse(line));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(path + ":" + lineNumber + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * This method parses one line of a request log. Only the top-level
+     * string fields are read.
+     * @param line The JSON object.
+     * @return The SearchRequest.
+     * @throws IllegalArgumentException If the line is not a request.
+     */
+    static SearchRequest parse(String line) {
+        String type = null;
+        String term = null;
+        JsonReader json = new JsonReader(line);
+        json.expect('{');
+        if (!json.consume('}')) {
+            do {
+                String key = json.readString();
+                json.expect(':');
+                if (json.peek() == '"') {
+                    String value = json.readString();
+                    if (key.equals("type")) {
+                        type = value;
+                    } else if (key.equals("term")) {
+                        term = value;
+                    }
+                } else {
+                    json.skipValue();
+                }
+            } while (json.consume(','));
+            json.expect('}');
+        }
+        if (type == null || term == null) {
+            throw new IllegalArgumentException("Expected a \"type\" and a \"term\".");
+        }
+        SearchRequest request = new SearchRequest();
+        try {
+            request.setSearchType(SearchType.valueOf(type.toUpperCase(Locale.ROOT)));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown search type: " + type);
+        }
+        request.setSearchTerm(term);
+        return request;
+    }
+
+    /**
+     * The JsonReader reads the tokens of one JSON value from a string.
+     */
+    private static final class JsonReader {
+        private final String text;
+        private int position;
+
+        JsonReader(String text) {
+            this.text = text;
+        }
+
+        char peek() {
+            skipWhitespace();
+            if (position >= text.length()) {
+                throw new IllegalArgumentException("Unexpected end of line.");
+            }
+            return text.charAt(position);
+        }
+
+        boolean consume(char c) {
+            if (peek() == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) {
+            if (!consume(c)) {
+                throw new IllegalArgumentException("Expected '" + c + "' at column " + (position + 1) + ".");
+            }
+        }
+
+        String readString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                if (position >= text.length()) {
+                    throw new IllegalArgumentException("Unterminated string.");
+                }
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (position >= text.length()) {
+                    throw new IllegalArgumentException("Unterminated string.");
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw new IllegalArgumentException("Invalid unicode escape.");
+                        }
+                        value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        position += 4;
+                        break;
+                    default: value.append(escaped);
+                }
+            }
+        }
+
+        /**
+         * Skips a number, literal, array or object that is not read.
+         */
+        void skipValue() {
+            char c = peek();
+            if (c == '"') {
+                readString();
+            } else if (c == '{' || c == '[') {
+                char close = c == '{' ? '}' : ']';
+                position++;
+                if (consume(close)) {
+                    return;
+                }
+                do {
+                    if (c == '{') {
+                        readString();
+                        expect(':');
+                    }
+                    skipValue();
+                } while (consume(','));
+                expect(close);
+            } else {
+                while (position < text.length() && ",}] \t".indexOf(text.charAt(position)) < 0) {
+                    position++;
+                }
+            }
+        }
+
+        private void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+    }
+}
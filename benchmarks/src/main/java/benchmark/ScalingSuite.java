@@ -0,0 +1,182 @@
+package benchmark;
+
+import enums.SearchType;
+import service.SearchServiceImpl;
+import util.CorpusGenerator;
+import util.DirectoryCorpusSource;
+import util.IndexingStats;
+import util.MappedFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The ScalingSuite shows how every SearchType scales with the size of the
+ * corpus. For each size it writes a Zipfian corpus to local disk, reports
+ * how long the service took to build and the Lucene indexing throughput,
+ * and then runs the same queries with every SearchType, reporting their
+ * latency percentiles. Comparing the rows of two runs shows which hot
+ * paths regressed and at which size.
+ *
+ * The queries mix single words from the most frequent to rare ones with
+ * phrases that are embedded in the corpus.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public final class ScalingSuite {
+    private static final long SEED = 42;
+    private static final String DEFAULT_SIZES = "1MB,16MB,256MB,1GB,4GB";
+    private static final int DEFAULT_QUERIES = 200;
+    private static final int WARMUP_QUERIES = 20;
+    private static final int DOCUMENT_BYTES = 256 * 1024;
+    private static final int WORDS = 12;
+    private static final int PHRASES = 4;
+    private static final double PHRASE_RATE = 0.02;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private ScalingSuite() {
+    }
+
+    /**
+     * Runs the suite.
+     * @param args The directory the corpora are written to, then optionally
+     *             a comma separated list of sizes such as 1MB,16MB,2GB and
+     *             the number of measured queries per SearchType.
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: ScalingSuite <directory> [sizes] [queries]");
+            System.exit(1);
+        }
+        Path directory = Paths.get(args[0]);
+        String sizes = args.length > 1 ? args[1] : DEFAULT_SIZES;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_QUERIES;
+
+        CorpusGenerator generator = new CorpusGenerator(SEED);
+        List<String> phrases = new ArrayList<>();
+        for (int i = 0; i < PHRASES; i++) {
+            phrases.add(generator.getWord(1 << (2 * i)) + " " + generator.getWord((1 << (2 * i)) + 1));
+        }
+        List<String> terms = new ArrayList<>(phrases);
+        for (int i = 0; i < WORDS; i++) {
+            // Ranks 0, 1, 3, 7, ... go from the most frequent words to rare ones
+            terms.add(generator.getWord(Math.min((1 << i) - 1, generator.getVocabularySize() - 1)));
+        }
+
+        for (String size : sizes.split(",")) {
+            runSize(generator, directory.resolve("corpus-" + size.trim()), parseBytes(size.trim()),
+                    phrases, terms, queries);
+        }
+    }
+
+    /**
+     * Helper Method
+     * Writes one corpus, builds the service over it with a fresh index
+     * and manifest, measures every SearchType, and deletes the corpus and
+     * the index.
+     */
+    private static void runSize(CorpusGenerator generator, Path corpusDirectory, long bytes, List<String> phrases,
+                                List<String> terms, int queries) throws IOException {
+        int documents = (int) Math.max(1, (bytes + DOCUMENT_BYTES - 1) / DOCUMENT_BYTES);
+        long startTime = System.nanoTime();
+        long written = generator.generate(corpusDirectory, documents, DOCUMENT_BYTES, phrases, PHRASE_RATE);
+        System.out.printf("%n=== %d documents, %.1f MB (written in %d ms) ===%n",
+                documents, written / (1024.0 * 1024.0), elapsedMillis(startTime));
+
+        // A fresh index per run, so no run reuses the documents of another
+        Path indexDirectory = Files.createTempDirectory(corpusDirectory.getParent(), "index-");
+        startTime = System.nanoTime();
+        try (SearchServiceImpl searchService = new SearchServiceImpl(
+                new DirectoryCorpusSource(Collections.singletonList(corpusDirectory)),
+                Runtime.getRuntime().availableProcessors(), MappedFile.DEFAULT_REGION_SIZE, 1,
+                indexDirectory.resolve("index"))) {
+            System.out.printf("Service built in %d ms%n", elapsedMillis(startTime));
+            IndexingStats stats = searchService.getIndexingStats();
+            System.out.println("Lucene indexing: " + (stats == null ? "not available" : stats));
+
+            System.out.printf("%-13s %8s %10s", "SearchType", "queries", "mean ms");
+            for (double percentile : PERCENTILES) {
+                System.out.printf(" %10s", Latencies.label(percentile) + " ms");
+            }
+            System.out.printf(" %10s%n", "max ms");
+            for (SearchType type : SearchType.values()) {
+                printLatencies(type, measure(searchService, type, terms, queries));
+            }
+        } finally {
+            deleteRecursively(corpusDirectory);
+            deleteRecursively(indexDirectory);
+        }
+    }
+
+    /**
+     * Helper Method
+     * Runs the queries after a warmup, cycling through the terms.
+     * @return The latency of every measured query, sorted.
+     */
+    private static Latencies measure(SearchServiceImpl searchService, SearchType type, List<String> terms, int queries) {
+        for (int i = 0; i < WARMUP_QUERIES; i++) {
+            searchService.performMatch(type, terms.get(i % terms.size()));
+        }
+        Latencies latencies = new Latencies();
+        for (int i = 0; i < queries; i++) {
+            long startTime = System.nanoTime();
+            searchService.performMatch(type, terms.get(i % terms.size()));
+            latencies.add(System.nanoTime() - startTime);
+        }
+        latencies.sort();
+        return latencies;
+    }
+
+    private static void printLatencies(SearchType type, Latencies latencies) {
+        System.out.printf("%-13s %8d %10.3f", type, latencies.size(), Latencies.toMillis(latencies.mean()));
+        for (double percentile : PERCENTILES) {
+            System.out.printf(" %10.3f", Latencies.toMillis(latencies.percentile(percentile)));
+        }
+        System.out.printf(" %10.3f%n", Latencies.toMillis(latencies.max()));
+    }
+
+    private static long elapsedMillis(long startTime) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+    /**
+     * Helper Method
+     * Parses a size such as 512KB, 16MB or 2GB into bytes.
+     */
+    static long parseBytes(String size) {
+        String upper = size.toUpperCase(Locale.ROOT);
+        long unit = 1;
+        if (upper.endsWith("KB")) {
+            unit = 1024L;
+        } else if (upper.endsWith("MB")) {
+            unit = 1024L * 1024;
+        } else if (upper.endsWith("GB")) {
+            unit = 1024L * 1024 * 1024;
+        }
+        String number = unit == 1 ? upper : upper.substring(0, upper.length() - 2);
+        return (long) (Double.parseDouble(number) * unit);
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package benchmark;
+
+import enums.SearchType;
+import models.SearchResult;
+import service.SearchServiceImpl;
+import util.CorpusGenerator;
+import util.DirectoryCorpusSource;
+import util.MappedFile;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * The SearchBenchmark measures every SearchType over Zipfian corpora of
+ * increasing size, written by a CorpusGenerator, for single words and
+ * two-word phrases of different lengths. The corpus is written and the
+ * service, with its mapped files and indexes, is built once per trial
+ * outside of the measurement, so the search types are compared on the
+ * searches alone.
+ *
+ * Each search cycles through the most frequent words of the term length,
+ * or phrases starting with them that are embedded in the corpus, so a
+ * single term does not decide the result.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class SearchBenchmark {
+    private static final long SEED = 42;
+    private static final int TERMS = 16;
+    private static final int DOCUMENT_BYTES = 64 * 1024;
+    private static final double PHRASE_RATE = 0.02;
+
+    @Param({"1", "16", "64"})
+    private int corpusMegabytes;
+
+    @Param({"STRING", "REGEX", "INDEXED", "MEMORY_INDEX"})
+    private SearchType searchType;
+
+    @Param({"4", "8"})
+    private int termLength;
+
+    @Param({"false", "true"})
+    private boolean phrase;
+
+    @Param({"1"})
+    private int scanThreads;
+
+    private Path corpusDirectory;
+    private Path indexDirectory;
+    private SearchServiceImpl searchService;
+    private String[] terms;
+    private int nextTerm;
+
+    /**
+     * This method writes the corpus and builds the service before the
+     * trial is measured.
+     * @throws IOException
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        CorpusGenerator generator = new CorpusGenerator(SEED);
+        List<String> words = generator.getWords(termLength, TERMS);
+        List<String> phrases = new ArrayList<>();
+        if (phrase) {
+            for (int i = 0; i < words.size(); i++) {
+                phrases.add(words.get(i) + " " + generator.getWord(i));
+            }
+        }
+        corpusDirectory = Files.createTempDirectory("corpus");
+        int documents = (int) (corpusMegabytes * 1024L * 1024L / DOCUMENT_BYTES);
+        generator.generate(corpusDirectory, documents, DOCUMENT_BYTES, phrases, PHRASE_RATE);
+        // A fresh index per trial, so no trial reuses the documents of another
+        indexDirectory = Files.createTempDirectory("index");
+        searchService = new SearchServiceImpl(new DirectoryCorpusSource(Collections.singletonList(corpusDirectory)),
+                scanThreads, MappedFile.DEFAULT_REGION_SIZE, 1, indexDirectory.resolve("index"));
+        terms = (phrase ? phrases : words).toArray(new String[0]);
+    }
+
+    /**
+     * This method closes the service and deletes the corpus and the index
+     * after the trial.
+     * @throws IOException
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try {
+            if (searchService != null) {
+                searchService.close();
+            }
+        } finally {
+            deleteRecursively(corpusDirectory);
+            deleteRecursively(indexDirectory);
+        }
+    }
+
+    /**
+     * Measures the number of searches per second.
+     * @return The SearchResult, so the search is not eliminated.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public SearchResult throughput() {
+        return search();
+    }
+
+    /**
+     * Samples the latency of single searches, which reports percentiles.
+     * @return The SearchResult, so the search is not eliminated.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public SearchResult latency() {
+        return search();
+    }
+
+    private SearchResult search() {
+        String term = terms[nextTerm];
+        nextTerm = (nextTerm + 1) % terms.length;
+        return searchService.performMatch(searchType, term);
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package benchmark;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import enums.SearchType;
+import models.SearchRequest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+class RequestLogTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testParsesTypeAndTerm() {
+        SearchRequest request = RequestLog.parse("{\"type\": \"memory_index\", \"term\": \"warp drive\"}");
+        assertEquals(SearchType.MEMORY_INDEX, request.getSearchType());
+        assertEquals("warp drive", request.getSearchTerm());
+    }
+
+    @Test
+    void testSkipsOtherFields() {
+        SearchRequest request = RequestLog.parse("{\"at\": 1593043200.5, \"client\": {\"id\": \"a\", \"tags\": [1, [], {}]},"
+                + " \"term\": \"the\", \"ok\": true, \"none\": null, \"type\": \"INDEXED\", \"list\": [\"x\", \"y\"]}");
+        assertEquals(SearchType.INDEXED, request.getSearchType());
+        assertEquals("the", request.getSearchTerm());
+    }
+
+    @Test
+    void testUnescapesStrings() {
+        SearchRequest request = RequestLog.parse("{\"type\":\"string\",\"term\":\"say \\\"hi\\\"\\t\\u00e9\\\\\"}");
+        assertEquals("say \"hi\"\t\u00e9\\", request.getSearchTerm());
+    }
+
+    @Test
+    void testParsesTypesInAnyDefaultLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        // Turkish upper-cases the i of "string" to a dotted capital I
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            assertEquals(SearchType.STRING, RequestLog.parse("{\"type\": \"string\", \"term\": \"a\"}").getSearchType());
+            assertEquals(SearchType.INDEXED, RequestLog.parse("{\"type\": \"indexed\", \"term\": \"a\"}").getSearchType());
+        } finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    void testRejectsInvalidLines() {
+        for (String line : Arrays.asList("", "[]", "{\"type\": \"string\"}", "{\"type\": \"fuzzy\", \"term\": \"a\"}",
+                "{\"type\": \"string\", \"term\": \"a\"", "{\"type\": \"string\" \"term\": \"a\"}",
+                "{\"type\": \"string\", \"term\": \"a}", "{\"type\": \"string\", \"term\": \"\\u00\"}")) {
+            assertThrows(IllegalArgumentException.class, () -> RequestLog.parse(line), line);
+        }
+    }
+
+    @Test
+    void testReadsLogSkippingBlankLines() throws IOException {
+        Path log = Files.write(tempDir.resolve("requests.jsonl"), Arrays.asList(
+                "{\"type\": \"string\", \"term\": \"a\"}", "", "  ", "{\"type\": \"regex\", \"term\": \"b\"}"),
+                StandardCharsets.UTF_8);
+        List<SearchRequest> requests = RequestLog.read(log);
+        assertEquals(2, requests.size());
+        assertEquals(SearchType.REGEX, requests.get(1).getSearchType());
+        assertEquals("b", requests.get(1).getSearchTerm());
+
+        Files.write(log, Arrays.asList("{\"type\": \"string\", \"term\": \"a\"}", "", "{\"term\": \"b\"}"),
+                StandardCharsets.UTF_8);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> RequestLog.read(log));
+        assertTrue(e.getMessage().startsWith(log + ":3: "), e.getMessage());
+    }
+}
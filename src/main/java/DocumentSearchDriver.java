@@ -1,12 +1,14 @@
 import models.SearchRequest;
 import models.SearchResult;
+import service.SearchCoordinator;
 import service.SearchServiceImpl;
 import service.SearchServiceInterface;
 
 /**
  * The DocumentSearchDriver launches the search application
  * that performs String, Regex, or Indexed search on files
- * based on user input.
+ * based on user input. Pass "--shards <layout>" to search shard
+ * worker processes through a SearchCoordinator instead.
  *
  * @author Tanya Wanwatanakool
  * @since 2020-06-25
@@ -14,9 +16,17 @@ import service.SearchServiceInterface;
 
 public class DocumentSearchDriver {
     public static SearchServiceUI searchServiceUI = new SearchServiceUI();
-    public static SearchServiceInterface searchService = new SearchServiceImpl();
+    public static SearchServiceInterface searchService;
 
     public static void main(String[] args) {
+        // Only build the local indexes when the searches are not sent to shard workers
+        if (args.length == 2 && args[0].equals("--shards")) {
+            searchService = new SearchCoordinator(SearchCoordinator.parseShards(args[1]),
+                    SearchCoordinator.DEFAULT_TIMEOUT_MILLIS);
+        } else {
+            searchService = new SearchServiceImpl();
+        }
+
         // Initial prompt displayed to user
         SearchRequest search = searchServiceUI.printSearchServiceMenu();
 
@@ -32,7 +42,12 @@ public class DocumentSearchDriver {
                 searchServiceUI.printSearchResults(result);
                 break;
             case INDEXED:
-                searchService.performIndexedMatch(search.getSearchTerm());
+                result = searchService.performIndexedMatch(search.getSearchTerm());
+                searchServiceUI.printSearchResults(result);
+                break;
+            case MEMORY_INDEX:
+                result = searchService.performMemoryIndexMatch(search.getSearchTerm());
+                searchServiceUI.printSearchResults(result);
                 break;
         }
     }
@@ -50,17 +50,19 @@ public class SearchServiceUI {
     private void retrieveSearchType() {
         int input = -1;
         do {
-            System.out.println("\nSearch Method: 1) String Match 2) Regular Expression 3) Indexed");
-            System.out.print("Please input one of the search methods by entering a number (1-3): ");
+            System.out.println("\nSearch Method: 1) String Match 2) Regular Expression 3) Indexed 4) In-Memory Index");
+            System.out.print("Please input one of the search methods by entering a number (1-4): ");
 
             if (scanner.hasNextInt()) {
                 input = scanner.nextInt();
-                request.setSearchType(SearchType.values()[input - 1]);
+                if (input >= 1 && input <= SearchType.values().length) {
+                    request.setSearchType(SearchType.values()[input - 1]);
+                }
             } else {
                 scanner.nextLine();
             }
         }
-        while (input > 3 || input < 1);
+        while (input > SearchType.values().length || input < 1);
     }
 
     /**
@@ -9,5 +9,5 @@ package enums;
  */
 
 public enum SearchType {
-    STRING, REGEX, INDEXED
+    STRING, REGEX, INDEXED, MEMORY_INDEX
 }
@@ -8,9 +8,9 @@ package models;
  */
 
 public class FileResult {
-    private String file;
-    private int count;
-    private float score;
+    private final String file;
+    private final int count;
+    private final float score;
 
     /**
      * Creates a new FileResult to associate a file with its count.
@@ -20,6 +20,20 @@ public class FileResult {
     public FileResult(String file, int count) {
         this.file = file;
         this.count = count;
+        this.score = 0;
+    }
+
+    /**
+     * Creates a new FileResult to associate a file with its count and the
+     * relevancy score the index gave it.
+     * @param file The document that is searched.
+     * @param count The number of matches found in the document.
+     * @param score The relevancy score of the document.
+     */
+    public FileResult(String file, int count, float score) {
+        this.file = file;
+        this.count = count;
+        this.score = score;
     }
 
     /**
@@ -38,6 +52,37 @@ public class FileResult {
         return count;
     }
 
+    /**
+     * Returns the score.
+     * @return The relevancy score of the document, or 0 if it was not scored.
+     */
+    public float getScore() {
+        return score;
+    }
+
+    /**
+     * Compares the file, count and score, so results read from a
+     * SearchResult at different times are equal.
+     * @param other The object to compare with.
+     * @return True if other is a FileResult with the same values.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof FileResult)) {
+            return false;
+        }
+        FileResult that = (FileResult) other;
+        return count == that.count && Float.compare(score, that.score) == 0 && file.equals(that.file);
+    }
+
+    @Override
+    public int hashCode() {
+        return (file.hashCode() * 31 + count) * 31 + Float.floatToIntBits(score);
+    }
+
     /**
      * Prints the file and count.
      * @return Text to display the filepath and number of matches.
@@ -0,0 +1,74 @@
+package models;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The FileTable interns file paths as int ids, so a SearchResult can hold
+ * the id of each file instead of its path and a search does not have to
+ * carry a String per file. Ids are handed out in the order paths are first
+ * seen and are never reused, so an id stays valid for as long as the table
+ * is alive, even after its file is removed from the corpus.
+ *
+ * Looking up a known path takes no lock; adding a new one does.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public final class FileTable {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] paths = new String[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * This method returns the id of a path, adding the path to the table if
+     * it was not seen before.
+     * @param path The file path.
+     * @return The id of the path.
+     */
+    public int intern(String path) {
+        Integer id = ids.get(path);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(path);
+            if (id != null) {
+                return id;
+            }
+            if (size == paths.length) {
+                paths = Arrays.copyOf(paths, size * 2);
+            }
+            paths[size] = path;
+            // The path is stored before its id is published through the map
+            ids.put(path, size);
+            return size++;
+        }
+    }
+
+    /**
+     * Returns the path of an id.
+     * @param id An id returned by intern().
+     * @return The file path.
+     */
+    public String getPath(int id) {
+        String[] paths = this.paths;
+        if (id < paths.length && paths[id] != null) {
+            return paths[id];
+        }
+        synchronized (this) {
+            return this.paths[id];
+        }
+    }
+
+    /**
+     * Returns the number of paths in the table.
+     * @return The number of paths.
+     */
+    public synchronized int size() {
+        return size;
+    }
+}
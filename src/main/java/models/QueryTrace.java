@@ -0,0 +1,209 @@
+package models;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The QueryTrace records where the time of one search went, as a list of
+ * named stages and their durations in nanoseconds, in the order they
+ * first ran.
+ *
+ * The searching thread calls mark() at the end of each stage, which
+ * records the time since the previous mark. Work that runs on several
+ * threads at once, such as the shards of an indexed search, is added with
+ * add(), and the durations of a stage added more than once are summed.
+ *
+ * Tracing is opt-in: a search that is not traced is given DISABLED, whose
+ * methods record nothing and return before taking the lock, so the
+ * stages cost a branch each and concurrent untraced searches never
+ * contend on the shared instance.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public final class QueryTrace {
+    public static final QueryTrace DISABLED = new QueryTrace(false, 0);
+    private static final int INITIAL_STAGES = 8;
+
+    private final boolean enabled;
+    private final long startTime;
+    private long lastMark;
+    private String[] stages;
+    private long[] nanos;
+    private int size;
+
+    /**
+     * Creates a new QueryTrace whose first stage starts now.
+     */
+    public QueryTrace() {
+        this(true, System.nanoTime());
+    }
+
+    /**
+     * Creates a new QueryTrace whose first stage started at the given time.
+     * @param startTime The System.nanoTime() when the search started.
+     */
+    public QueryTrace(long startTime) {
+        this(true, startTime);
+    }
+
+    private QueryTrace(boolean enabled, long startTime) {
+        this.enabled = enabled;
+        this.startTime = startTime;
+        this.lastMark = startTime;
+        this.stages = enabled ? new String[INITIAL_STAGES] : null;
+        this.nanos = enabled ? new long[INITIAL_STAGES] : null;
+    }
+
+    /**
+     * Returns whether the trace records anything.
+     * @return False for DISABLED.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * This method ends a stage, recording the time since the previous mark
+     * or since the trace started.
+     * @param stage The name of the stage.
+     */
+    public void mark(String stage) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        synchronized (this) {
+            addStage(stage, now - lastMark);
+            lastMark = now;
+        }
+    }
+
+    /**
+     * This method adds time to a stage without moving the mark, for work
+     * timed on other threads.
+     * @param stage The name of the stage.
+     * @param stageNanos The duration in nanoseconds.
+     */
+    public void add(String stage, long stageNanos) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            addStage(stage, stageNanos);
+        }
+    }
+
+    /**
+     * Helper Method
+     * Adds time to a stage of an enabled trace, holding its lock.
+     */
+    private void addStage(String stage, long stageNanos) {
+        for (int i = 0; i < size; i++) {
+            if (stages[i].equals(stage)) {
+                nanos[i] += stageNanos;
+                return;
+            }
+        }
+        if (size == stages.length) {
+            stages = Arrays.copyOf(stages, size * 2);
+            nanos = Arrays.copyOf(nanos, size * 2);
+        }
+        stages[size] = stage;
+        nanos[size] = stageNanos;
+        size++;
+    }
+
+    /**
+     * This method adds every stage of another trace, with its name prefixed.
+     * @param prefix The prefix of the stage names, such as "shards.".
+     * @param other The trace whose stages are added.
+     */
+    public void addAll(String prefix, QueryTrace other) {
+        if (!enabled || other == this) {
+            return;
+        }
+        String[] otherStages;
+        long[] otherNanos;
+        int otherSize;
+        synchronized (other) {
+            otherSize = other.size;
+            otherStages = other.enabled ? Arrays.copyOf(other.stages, otherSize) : new String[0];
+            otherNanos = other.enabled ? Arrays.copyOf(other.nanos, otherSize) : new long[0];
+        }
+        for (int i = 0; i < otherSize; i++) {
+            add(prefix + otherStages[i], otherNanos[i]);
+        }
+    }
+
+    /**
+     * Returns the number of stages.
+     * @return The number of stages recorded.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the name of a stage.
+     * @param index The position of the stage, 0 for the first.
+     * @return The name of the stage.
+     */
+    public synchronized String getStage(int index) {
+        checkIndex(index);
+        return stages[index];
+    }
+
+    /**
+     * Returns the duration of a stage.
+     * @param index The position of the stage, 0 for the first.
+     * @return The duration in nanoseconds.
+     */
+    public synchronized long getNanos(int index) {
+        checkIndex(index);
+        return nanos[index];
+    }
+
+    /**
+     * Returns the duration of a stage by its name.
+     * @param stage The name of the stage.
+     * @return The duration in nanoseconds, or -1 if the stage did not run.
+     */
+    public synchronized long getNanos(String stage) {
+        for (int i = 0; i < size; i++) {
+            if (stages[i].equals(stage)) {
+                return nanos[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the time from the start of the trace to its last mark.
+     * @return The duration in nanoseconds.
+     */
+    public synchronized long getTotalNanos() {
+        return lastMark - startTime;
+    }
+
+    /**
+     * Returns the stages and their durations in milliseconds, for example
+     * "total=1.204ms plan=0.010ms scan=1.150ms rank=0.044ms".
+     * @return The trace as one line.
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder text = new StringBuilder(String.format(Locale.ROOT, "total=%.3fms", getTotalNanos() / 1e6));
+        for (int i = 0; i < size; i++) {
+            text.append(String.format(Locale.ROOT, " %s=%.3fms", stages[i], nanos[i] / 1e6));
+        }
+        return text.toString();
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Stage " + index + " of " + size);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package models;
+
+import java.util.Comparator;
+
+/**
+ * The RelevancyComparator orders FileResults from the most to the least
+ * relevant: the higher count first, then the higher score, then the file
+ * path in ascending order. It is a total order that returns 0 only for
+ * results with the same count, score and path, so sorting with it never
+ * violates the Comparator contract and equal results always come back in
+ * the same order. A ResultBuffer ranks its results in the same order.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public final class RelevancyComparator implements Comparator<FileResult> {
+    public static final RelevancyComparator INSTANCE = new RelevancyComparator();
+
+    private RelevancyComparator() {
+    }
+
+    /**
+     * Compares two results by relevancy.
+     * @param a The first result.
+     * @param b The second result.
+     * @return A negative number if a is more relevant than b, a positive
+     *         number if it is less relevant, and 0 if they are equal.
+     */
+    @Override
+    public int compare(FileResult a, FileResult b) {
+        return compare(a.getCount(), a.getScore(), a.getFile(), b.getCount(), b.getScore(), b.getFile());
+    }
+
+    /**
+     * Helper Method
+     * Compares the values of two results by relevancy, so the results held
+     * in primitive arrays are ranked the same way as FileResults.
+     */
+    static int compare(int countA, float scoreA, String fileA, int countB, float scoreB, String fileB) {
+        if (countA != countB) {
+            return countA > countB ? -1 : 1;
+        }
+        int byScore = Float.compare(scoreB, scoreA);
+        if (byScore != 0) {
+            return byScore;
+        }
+        return fileA.compareTo(fileB);
+    }
+}
@@ -0,0 +1,488 @@
+package models;
+
+import java.util.Arrays;
+
+/**
+ * The ResultBuffer collects the results of a search as parallel arrays of
+ * file ids, counts and scores, and turns them into a SearchResult that
+ * keeps only the most relevant ones. Each thread has its own buffer, and a
+ * scratch array for per-file counts, that are reused from one search to the
+ * next, so once they have grown to the size of the corpus a search only
+ * allocates the SearchResult it returns.
+ *
+ * Results are ranked in the order of the RelevancyComparator. A limit that
+ * keeps a small part of the results selects them with a heap; otherwise
+ * every result is ranked with a radix sort on its count and score, so the
+ * cost stays linear in the number of results, and only results with the
+ * same count and score are compared by path.
+ *
+ * A buffer taken with a result limit stays sized to the limit rather than
+ * to the number of results: whenever it holds twice the limit, only the
+ * most relevant limit results are kept, in the order they were added, so
+ * the ranking is the same as if every result had been kept.
+ *
+ * A thread's buffer and scratch counts may only be used by one search at a
+ * time. A search that collects results on other threads, like the shards
+ * of an indexed search, takes the shard buffers of the calling thread,
+ * gives one to each shard and adds them to the calling thread's buffer at
+ * the end.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public final class ResultBuffer {
+    private static final int INITIAL_CAPACITY = 16;
+    // Below this many results, or when the limit keeps fewer than one in
+    // HEAP_FRACTION of them, the heap is cheaper than the radix sort
+    private static final int RADIX_MIN_RESULTS = 256;
+    private static final int HEAP_FRACTION = 16;
+    private static final int RADIX_BITS = 8;
+    private static final int INSERTION_SORT_MAX = 16;
+    private static final ThreadLocal<ResultBuffer> BUFFERS = ThreadLocal.withInitial(ResultBuffer::new);
+    private static final ThreadLocal<ResultBuffer[][]> SHARD_BUFFERS =
+            ThreadLocal.withInitial(() -> new ResultBuffer[][] {new ResultBuffer[0]});
+    private static final ThreadLocal<int[][]> SCRATCH_COUNTS = ThreadLocal.withInitial(() -> new int[][] {new int[0]});
+
+    private int[] fileIds = new int[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private float[] scores = new float[INITIAL_CAPACITY];
+    private int size;
+    // The results dropped to stay within the limit, counted in the total
+    private int dropped;
+    private int limit = SearchResult.UNLIMITED;
+    private boolean includeZeroCounts = true;
+    private FileTable limitTable;
+    // The table of the results being ranked, to break ties by path
+    private FileTable table;
+    // Reused by the heap selection, grown to the largest number kept
+    private int[] heap = new int[0];
+    // Reused by the radix sort, grown to the largest number of results ranked
+    private long[] keys = new long[0];
+    private long[] keyScratch = new long[0];
+    private int[] order = new int[0];
+    private int[] orderScratch = new int[0];
+    private final int[] histogram = new int[1 << RADIX_BITS];
+
+    /**
+     * Returns the calling thread's buffer, emptied.
+     * @return The ResultBuffer of the calling thread.
+     */
+    public static ResultBuffer forCurrentThread() {
+        return forCurrentThread(null, SearchResult.UNLIMITED, true);
+    }
+
+    /**
+     * Returns the calling thread's buffer, emptied, that keeps only the
+     * results that can still be among the most relevant limit.
+     * @param table The FileTable the file ids belong to.
+     * @param limit The largest number of results the search returns.
+     * @param includeZeroCounts Whether files without a match are kept; it
+     *                          must match the one given to toSearchResult().
+     * @return The ResultBuffer of the calling thread.
+     */
+    public static ResultBuffer forCurrentThread(FileTable table, int limit, boolean includeZeroCounts) {
+        return BUFFERS.get().reset(table, limit, includeZeroCounts);
+    }
+
+    /**
+     * Returns the calling thread's shard buffers, emptied, each kept within
+     * the limit like forCurrentThread(). They are valid until the next call
+     * on the same thread, and each one may be filled by another thread.
+     * @param shards The number of buffers.
+     * @param table The FileTable the file ids belong to.
+     * @param limit The largest number of results the search returns.
+     * @param includeZeroCounts Whether files without a match are kept.
+     * @return The shard buffers of the calling thread.
+     */
+    public static ResultBuffer[] forShards(int shards, FileTable table, int limit, boolean includeZeroCounts) {
+        ResultBuffer[][] holder = SHARD_BUFFERS.get();
+        if (holder[0].length < shards) {
+            ResultBuffer[] buffers = Arrays.copyOf(holder[0], shards);
+            for (int i = holder[0].length; i < shards; i++) {
+                buffers[i] = new ResultBuffer();
+            }
+            holder[0] = buffers;
+        }
+        ResultBuffer[] buffers = Arrays.copyOf(holder[0], shards);
+        for (ResultBuffer buffer : buffers) {
+            buffer.reset(table, limit, includeZeroCounts);
+        }
+        return buffers;
+    }
+
+    /**
+     * Returns the calling thread's scratch array for per-file counts, grown
+     * to at least the given length and filled with zeros. It is valid until
+     * the next call on the same thread.
+     * @param length The number of files to be counted.
+     * @return The zeroed scratch counts.
+     */
+    public static int[] scratchCounts(int length) {
+        int[][] holder = SCRATCH_COUNTS.get();
+        if (holder[0].length < length) {
+            holder[0] = new int[length];
+        } else {
+            Arrays.fill(holder[0], 0, length, 0);
+        }
+        return holder[0];
+    }
+
+    /**
+     * This method adds the result of one file.
+     * @param fileId The id of the file in the FileTable.
+     * @param count The number of matches found in the file.
+     * @param score The relevancy score of the file.
+     */
+    public void add(int fileId, int count, float score) {
+        if (size == fileIds.length && size / 2 >= limit) {
+            dropLeastRelevant();
+        }
+        if (size == fileIds.length) {
+            int capacity = size * 2;
+            fileIds = Arrays.copyOf(fileIds, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            scores = Arrays.copyOf(scores, capacity);
+        }
+        fileIds[size] = fileId;
+        counts[size] = count;
+        scores[size] = score;
+        size++;
+    }
+
+    /**
+     * This method adds every result of another buffer.
+     * @param other The buffer to be added.
+     */
+    public void addAll(ResultBuffer other) {
+        for (int i = 0; i < other.size; i++) {
+            add(other.fileIds[i], other.counts[i], other.scores[i]);
+        }
+        dropped += other.dropped;
+    }
+
+    /**
+     * Returns the number of results in the buffer.
+     * @return The number of results held, without the ones dropped to stay
+     *         within the limit.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Empties the buffer, keeping its arrays and limit for the next search.
+     */
+    public void clear() {
+        size = 0;
+        dropped = 0;
+    }
+
+    /**
+     * Helper Method
+     * Empties the buffer and sets the limit it is kept within.
+     */
+    private ResultBuffer reset(FileTable table, int limit, boolean includeZeroCounts) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Result limit must not be negative: " + limit);
+        }
+        clear();
+        this.limitTable = table;
+        this.limit = limit;
+        this.includeZeroCounts = includeZeroCounts;
+        return this;
+    }
+
+    /**
+     * Helper Method
+     * Keeps only the most relevant limit results, in the order they were
+     * added, and counts the others as dropped.
+     */
+    private void dropLeastRelevant() {
+        int total = compact(includeZeroCounts);
+        int kept = Math.min(limit, total);
+        int[] selected;
+        this.table = limitTable;
+        try {
+            selected = selectTop(total, kept);
+        } finally {
+            this.table = null;
+        }
+        // Moving the kept results in position order keeps ties in the order
+        // they were added
+        Arrays.sort(selected, 0, kept);
+        for (int i = 0; i < kept; i++) {
+            move(selected[i], i);
+        }
+        dropped += total - kept;
+        size = kept;
+    }
+
+    /**
+     * Helper Method
+     * Moves the results with a match to the front, keeping their order,
+     * unless files without a match are kept too.
+     * @return The number of results left at the front.
+     */
+    private int compact(boolean includeZeroCounts) {
+        if (includeZeroCounts) {
+            return size;
+        }
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            if (counts[i] != 0) {
+                move(i, total++);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * This method creates a SearchResult from the buffered results, ranked
+     * in the order of the RelevancyComparator. When the limit keeps only a
+     * small part of the results, the most relevant are selected with a heap
+     * of limit entries and then heap-sorted; otherwise every result is
+     * ranked with rankAll().
+     * @param table The FileTable the file ids belong to.
+     * @param elapsedTime The duration of the search operation to complete.
+     * @param limit The largest number of results kept.
+     * @param includeZeroCounts Whether files without a match are kept.
+     * @return The SearchResult.
+     */
+    public SearchResult toSearchResult(FileTable table, long elapsedTime, int limit, boolean includeZeroCounts) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Result limit must not be negative: " + limit);
+        }
+        int total = compact(includeZeroCounts);
+        int kept = Math.min(limit, total);
+        this.table = table;
+        int[] ranked;
+        try {
+            if (total >= RADIX_MIN_RESULTS && kept > total / HEAP_FRACTION) {
+                ranked = rankAll(total);
+            } else {
+                ranked = selectTop(total, kept);
+            }
+        } finally {
+            this.table = null;
+        }
+
+        int[] resultIds = new int[kept];
+        int[] resultCounts = new int[kept];
+        float[] resultScores = new float[kept];
+        for (int rank = 0; rank < kept; rank++) {
+            int index = ranked[rank];
+            resultIds[rank] = fileIds[index];
+            resultCounts[rank] = counts[index];
+            resultScores[rank] = scores[index];
+        }
+        return new SearchResult(table, resultIds, resultCounts, resultScores, total + dropped, elapsedTime);
+    }
+
+    /**
+     * Helper Method
+     * Selects the most relevant results with a min-heap of kept entries,
+     * whose root is the least relevant result kept so far, and heap-sorts
+     * them.
+     * @param total The number of results to select from.
+     * @param kept The number of results to keep.
+     * @return The positions of the kept results, most relevant first, at
+     *         the start of a reused array.
+     */
+    private int[] selectTop(int total, int kept) {
+        if (heap.length < kept) {
+            heap = new int[kept];
+        }
+        int[] heap = this.heap;
+        for (int i = 0; i < kept; i++) {
+            heap[i] = i;
+            siftUp(heap, i);
+        }
+        for (int i = kept; i < total && kept > 0; i++) {
+            if (moreRelevant(i, heap[0])) {
+                heap[0] = i;
+                siftDown(heap, 0, kept);
+            }
+        }
+
+        // Pop the least relevant first, filling the ranking from the back
+        for (int end = kept - 1; end > 0; end--) {
+            swap(heap, 0, end);
+            siftDown(heap, 0, end);
+        }
+        return heap;
+    }
+
+    /**
+     * Helper Method
+     * Ranks every result with a least significant digit radix sort on a key
+     * that packs the count and score, skipping the digits every key shares,
+     * like the low half of the key when no result was scored. The sort is
+     * stable, so only the runs of results with equal keys are then sorted
+     * by path.
+     * @param total The number of results to rank.
+     * @return The positions of the results, most relevant first.
+     */
+    private int[] rankAll(int total) {
+        if (keys.length < total) {
+            keys = new long[total];
+            keyScratch = new long[total];
+            order = new int[total];
+            orderScratch = new int[total];
+        }
+        long[] keys = this.keys;
+        long[] keyScratch = this.keyScratch;
+        int[] order = this.order;
+        int[] orderScratch = this.orderScratch;
+        for (int i = 0; i < total; i++) {
+            keys[i] = sortKey(counts[i], scores[i]);
+            order[i] = i;
+        }
+
+        int mask = (1 << RADIX_BITS) - 1;
+        for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+            Arrays.fill(histogram, 0);
+            for (int i = 0; i < total; i++) {
+                histogram[(int) (keys[i] >>> shift) & mask]++;
+            }
+            if (histogram[(int) (keys[0] >>> shift) & mask] == total) {
+                continue;
+            }
+            int position = 0;
+            for (int digit = 0; digit < histogram.length; digit++) {
+                int count = histogram[digit];
+                histogram[digit] = position;
+                position += count;
+            }
+            for (int i = 0; i < total; i++) {
+                int to = histogram[(int) (keys[i] >>> shift) & mask]++;
+                keyScratch[to] = keys[i];
+                orderScratch[to] = order[i];
+            }
+            long[] swapKeys = keys;
+            keys = keyScratch;
+            keyScratch = swapKeys;
+            int[] swapOrder = order;
+            order = orderScratch;
+            orderScratch = swapOrder;
+        }
+
+        for (int start = 0, end; start < total; start = end) {
+            end = start + 1;
+            while (end < total && keys[end] == keys[start]) {
+                end++;
+            }
+            sortByPath(order, start, end, orderScratch);
+        }
+        return order;
+    }
+
+    /**
+     * Helper Method
+     * Packs a count and score into a key whose unsigned order is their
+     * order of relevancy: the inverted count in the high half, and the
+     * inverted score, with its bits flipped so floats order as integers,
+     * in the low half.
+     */
+    private static long sortKey(int count, float score) {
+        int bits = Float.floatToIntBits(score);
+        int ascendingScore = bits ^ ((bits >> 31) | Integer.MIN_VALUE);
+        return ((long) (count ^ Integer.MAX_VALUE) << 32) | (~ascendingScore & 0xffffffffL);
+    }
+
+    /**
+     * Helper Method
+     * Sorts a run of positions by path with a stable merge sort, so
+     * results with the same path keep the order they were added in.
+     */
+    private void sortByPath(int[] order, int from, int to, int[] scratch) {
+        if (to - from <= INSERTION_SORT_MAX) {
+            for (int i = from + 1; i < to; i++) {
+                int index = order[i];
+                int j = i - 1;
+                while (j >= from && comparePaths(order[j], index) > 0) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = index;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        sortByPath(order, from, mid, scratch);
+        sortByPath(order, mid, to, scratch);
+        if (comparePaths(order[mid - 1], order[mid]) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, scratch, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < mid && comparePaths(scratch[left], scratch[right]) <= 0)) {
+                order[i] = scratch[left++];
+            } else {
+                order[i] = scratch[right++];
+            }
+        }
+    }
+
+    private int comparePaths(int a, int b) {
+        return table.getPath(fileIds[a]).compareTo(table.getPath(fileIds[b]));
+    }
+
+    /**
+     * Helper Method
+     * Orders two buffered results by relevancy with the RelevancyComparator,
+     * and the result added first when they are equal.
+     */
+    private boolean moreRelevant(int a, int b) {
+        int byRelevancy = RelevancyComparator.compare(counts[a], scores[a], table.getPath(fileIds[a]),
+                counts[b], scores[b], table.getPath(fileIds[b]));
+        if (byRelevancy != 0) {
+            return byRelevancy < 0;
+        }
+        return a < b;
+    }
+
+    private void siftUp(int[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!moreRelevant(heap[parent], heap[i])) {
+                return;
+            }
+            swap(heap, parent, i);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int i, int length) {
+        while (true) {
+            int least = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < length && moreRelevant(heap[least], heap[left])) {
+                least = left;
+            }
+            if (right < length && moreRelevant(heap[least], heap[right])) {
+                least = right;
+            }
+            if (least == i) {
+                return;
+            }
+            swap(heap, i, least);
+            i = least;
+        }
+    }
+
+    private static void swap(int[] heap, int a, int b) {
+        int t = heap[a];
+        heap[a] = heap[b];
+        heap[b] = t;
+    }
+
+    private void move(int from, int to) {
+        fileIds[to] = fileIds[from];
+        counts[to] = counts[from];
+        scores[to] = scores[from];
+    }
+}
@@ -32,7 +32,8 @@ public class SearchRequest {
 
     /**
      * Returns the searchType to be performed.
-     * @return The searchTypeType is an enum value of STRING, REGEX, or INDEXED.
+     * @return The searchTypeType is an enum value of STRING, REGEX, INDEXED,
+     *         or MEMORY_INDEX.
      */
     public SearchType getSearchType() {
         return this.searchType;
@@ -3,45 +3,204 @@ package models;
 import java.util.*;
 
 /**
- * The SearchResults data model holds a List of search result data,
- * a RelevancyComparator, and the total time for a search operation to
- * complete.
+ * The SearchResults data model holds the results of a search, ordered by
+ * the RelevancyComparator, and the total time for a search operation to complete.
+ *
+ * A SearchResult is immutable: the results are ranked once when it is
+ * created, so it can be shared between threads and read any number of
+ * times without being sorted again. It can be limited to the most relevant
+ * results when it is created, which selects them with a bounded heap rather
+ * than sorting every result, and read a page at a time or through its
+ * iterator.
+ *
+ * The results are stored as parallel arrays of file ids, counts and scores,
+ * with the paths kept once in a shared FileTable. The FileResult objects of
+ * getSearchResultsList() are only created as they are read, so a caller
+ * that reads the first page does not pay for the rest.
+ *
+ * A traced search returns its SearchResult with the QueryTrace of the
+ * search attached, which is null for every other search.
  *
  * @author Tanya Wanwatanakool
  * @version 1.0
  * @since 2020-06-25
  */
 
-public class SearchResult {
-    private long elapsedTime;
-    private List<FileResult> searchResultsList ;
+public final class SearchResult implements Iterable<FileResult> {
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private final long elapsedTime;
+    private final FileTable fileTable;
+    private final int[] fileIds;
+    private final int[] counts;
+    private final float[] scores;
+    private final int totalCount;
+    private final QueryTrace trace;
+    private final List<FileResult> searchResultsList = new ResultList();
+
+    /**
+     * Creates a new SearchResult and ranks the results in the order of the
+     * RelevancyComparator.
+     * @param results The result of every document searched.
+     * @param elapsedTime The duration of the search operation to complete.
+     */
+    public SearchResult(List<FileResult> results, long elapsedTime) {
+        this(results, elapsedTime, UNLIMITED, true);
+    }
+
+    /**
+     * Creates a new SearchResult that keeps only the most relevant results,
+     * ranked in the order of the RelevancyComparator. When the limit keeps
+     * a small part of the results, they are selected with a heap of limit
+     * entries, so the cost is O(n log limit); otherwise a radix sort ranks
+     * every result in linear time.
+     * @param results The result of every document searched.
+     * @param elapsedTime The duration of the search operation to complete.
+     * @param limit The largest number of results kept.
+     * @param includeZeroCounts Whether documents without a match are kept.
+     */
+    public SearchResult(List<FileResult> results, long elapsedTime, int limit, boolean includeZeroCounts) {
+        this(rank(results, elapsedTime, limit, includeZeroCounts));
+    }
 
     /**
-     * Creates a new SearchResult with initial values.
+     * Creates a new SearchResult from results that are already ranked.
+     * @param fileTable The FileTable the file ids belong to.
+     * @param fileIds The file id of every result, most relevant first.
+     * @param counts The number of matches of every result.
+     * @param scores The relevancy score of every result.
+     * @param totalCount The number of results before the limit was applied.
+     * @param elapsedTime The duration of the search operation to complete.
      */
-    public SearchResult() {
-        elapsedTime = -1;
-        searchResultsList = new ArrayList<>();
+    SearchResult(FileTable fileTable, int[] fileIds, int[] counts, float[] scores, int totalCount, long elapsedTime) {
+        this(fileTable, fileIds, counts, scores, totalCount, elapsedTime, null);
+    }
+
+    private SearchResult(FileTable fileTable, int[] fileIds, int[] counts, float[] scores, int totalCount,
+                         long elapsedTime, QueryTrace trace) {
+        this.fileTable = fileTable;
+        this.fileIds = fileIds;
+        this.counts = counts;
+        this.scores = scores;
+        this.totalCount = totalCount;
+        this.elapsedTime = elapsedTime;
+        this.trace = trace;
+    }
+
+    private SearchResult(SearchResult ranked) {
+        this(ranked.fileTable, ranked.fileIds, ranked.counts, ranked.scores, ranked.totalCount, ranked.elapsedTime);
+    }
+
+    /**
+     * Helper Method
+     * Ranks a list of FileResults through a ResultBuffer with a FileTable
+     * of its own.
+     */
+    private static SearchResult rank(List<FileResult> results, long elapsedTime, int limit, boolean includeZeroCounts) {
+        FileTable table = new FileTable();
+        ResultBuffer buffer = new ResultBuffer();
+        for (FileResult result : results) {
+            buffer.add(table.intern(result.getFile()), result.getCount(), result.getScore());
+        }
+        return buffer.toSearchResult(table, elapsedTime, limit, includeZeroCounts);
     }
 
     /**
      * Returns searchResultsList that is sorted in descending order
-     * using the RelevancyComparator.
-     * @return The List of all and associated matches.
+     * of relevancy.
+     * @return The unmodifiable List of all and associated matches.
      */
     public List<FileResult> getSearchResultsList() {
-        // Sort by descending
-        Collections.sort(searchResultsList, new RelevancyComp());
         return searchResultsList;
     }
 
     /**
-     * Add a result for the document searched.
-     * @param file The file that was searched.
-     * @param count The number of matches found in the file.
+     * Returns the number of results kept.
+     * @return The number of results.
+     */
+    public int size() {
+        return fileIds.length;
+    }
+
+    /**
+     * Returns the path of a result without creating its FileResult.
+     * @param rank The position of the result, 0 for the most relevant.
+     * @return The file path.
+     */
+    public String getFile(int rank) {
+        return fileTable.getPath(fileIds[rank]);
+    }
+
+    /**
+     * Returns the count of a result without creating its FileResult.
+     * @param rank The position of the result, 0 for the most relevant.
+     * @return The number of matches found in the file.
+     */
+    public int getCount(int rank) {
+        return counts[rank];
+    }
+
+    /**
+     * Returns the score of a result without creating its FileResult.
+     * @param rank The position of the result, 0 for the most relevant.
+     * @return The relevancy score of the file.
+     */
+    public float getScore(int rank) {
+        return scores[rank];
+    }
+
+    /**
+     * Returns a page of the results.
+     * @param offset The number of results to skip.
+     * @param size The largest number of results on the page.
+     * @return The unmodifiable List of the results on the page, empty past
+     *         the last result.
+     */
+    public List<FileResult> getPage(int offset, int size) {
+        if (offset < 0 || size < 0) {
+            throw new IllegalArgumentException("Page offset and size must not be negative.");
+        }
+        int from = Math.min(offset, fileIds.length);
+        int to = (int) Math.min((long) from + size, fileIds.length);
+        return searchResultsList.subList(from, to);
+    }
+
+    /**
+     * Returns an iterator over the results in descending order.
+     * @return The iterator, which does not support remove().
+     */
+    @Override
+    public Iterator<FileResult> iterator() {
+        return searchResultsList.iterator();
+    }
+
+    /**
+     * Returns totalCount.
+     * @return The number of results before the limit was applied, which is
+     *         larger than the number of results kept when some were cut off.
      */
-    public void addSearchResult(String file, int count) {
-        searchResultsList.add(new FileResult(file, count));
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns a SearchResult with the same results and the given trace. The
+     * results are shared rather than copied.
+     * @param trace The QueryTrace of the search, which must not change
+     *              afterwards.
+     * @return The traced SearchResult.
+     */
+    public SearchResult withTrace(QueryTrace trace) {
+        return new SearchResult(fileTable, fileIds, counts, scores, totalCount, elapsedTime, trace);
+    }
+
+    /**
+     * Returns trace.
+     * @return The QueryTrace of a traced search, or null if the search was
+     *         not traced.
+     */
+    public QueryTrace getTrace() {
+        return trace;
     }
 
     /**
@@ -53,27 +212,18 @@ public class SearchResult {
     }
 
     /**
-     * Set the elapsedTime of the search.
-     * @param duration The total time for search operation to complete.
+     * The ResultList is the read-only List view of the results, creating
+     * each FileResult when it is read.
      */
-    public void setElapsedTime(long duration) {
-        elapsedTime = duration;
-    }
-
-}
+    private final class ResultList extends AbstractList<FileResult> implements RandomAccess {
+        @Override
+        public FileResult get(int rank) {
+            return new FileResult(getFile(rank), counts[rank], scores[rank]);
+        }
 
-/**
- * The RelevancyComparator contains the sorting logic to order
- * incoming FileResult to the List to be added in descending
- * order based on the matches found in a document.
- */
-class RelevancyComp implements Comparator<FileResult> {
-    @Override
-    public int compare(FileResult f1, FileResult f2) {
-        if(f1.getCount() < f2.getCount()) {
-            return 1;
-        } else {
-            return -1;
+        @Override
+        public int size() {
+            return fileIds.length;
         }
     }
 }
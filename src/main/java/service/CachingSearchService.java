@@ -0,0 +1,335 @@
+package service;
+
+import enums.SearchType;
+import models.SearchResult;
+import util.SearchMetrics;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * The CachingSearchService is an optional result cache in front of another
+ * SearchServiceInterface. It keeps the SearchResult of recent searches per
+ * search type and term, evicting the least recently used results once the
+ * cache holds too many results or too many (estimated) bytes. The whole
+ * cache is dropped as soon as the generation of the wrapped service moves
+ * on, so a cached result is never served for files or an index that have
+ * since changed.
+ *
+ * A cached SearchResult keeps the elapsed time measured when it was first
+ * computed. The hits and misses are also recorded in the SearchMetrics of
+ * the wrapped service, whose latency histograms only see the misses.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class CachingSearchService implements SearchServiceInterface {
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    // Rough heap cost of a SearchResult, its arrays and each result in them;
+    // the paths are shared through the FileTable of the searched service
+    private static final int RESULT_OVERHEAD_BYTES = 96;
+    private static final int FILE_RESULT_BYTES = 12;
+
+    private final SearchServiceInterface delegate;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<Key, SearchResult> results = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+    private long cachedGeneration;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * Creates a new CachingSearchService with the default bounds.
+     * @param delegate The service that runs the searches on a cache miss.
+     */
+    public CachingSearchService(SearchServiceInterface delegate) {
+        this(delegate, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a new CachingSearchService.
+     * @param delegate The service that runs the searches on a cache miss.
+     * @param maxEntries The largest number of results kept.
+     * @param maxBytes The largest estimated size of all kept results.
+     */
+    public CachingSearchService(SearchServiceInterface delegate, int maxEntries, long maxBytes) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Result cache bounds must be positive.");
+        }
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.cachedGeneration = delegate.getGeneration();
+    }
+
+    public SearchResult performStringMatch(String searchTerm) {
+        return search(SearchType.STRING, searchTerm, delegate::performStringMatch);
+    }
+
+    public SearchResult performRegexMatch(String searchTerm) {
+        return search(SearchType.REGEX, searchTerm, delegate::performRegexMatch);
+    }
+
+    public SearchResult performIndexedMatch(String searchTerm) {
+        return search(SearchType.INDEXED, searchTerm, delegate::performIndexedMatch);
+    }
+
+    public SearchResult performMemoryIndexMatch(String searchTerm) {
+        return search(SearchType.MEMORY_INDEX, searchTerm, delegate::performMemoryIndexMatch);
+    }
+
+    public long getGeneration() {
+        return delegate.getGeneration();
+    }
+
+    /**
+     * This method passes a traced search straight to the wrapped service,
+     * so its trace shows the stages of a search rather than a cache lookup.
+     * The result is not cached.
+     * @param type The search type.
+     * @param searchTerm The word to be searched for.
+     * @return The SearchResult with its trace.
+     */
+    @Override
+    public SearchResult performTracedMatch(SearchType type, String searchTerm) {
+        return delegate.performTracedMatch(type, searchTerm);
+    }
+
+    public SearchMetrics getMetrics() {
+        return delegate.getMetrics();
+    }
+
+    /**
+     * This method answers the terms it holds results for from the cache and
+     * passes the rest on to the wrapped service as one batch.
+     * @param type The search type.
+     * @param searchTerms The words to be searched for.
+     * @return The SearchResult of every term, in the same order as the terms.
+     */
+    @Override
+    public List<SearchResult> performBatchMatch(SearchType type, List<String> searchTerms) {
+        long generation = delegate.getGeneration();
+        List<SearchResult> batch = new ArrayList<>(searchTerms.size());
+        List<Integer> missing = new ArrayList<>();
+        List<String> missingTerms = new ArrayList<>();
+        synchronized (this) {
+            invalidateIfStale(generation);
+            for (int i = 0; i < searchTerms.size(); i++) {
+                SearchResult result = generation == cachedGeneration
+                        ? results.get(new Key(type, searchTerms.get(i))) : null;
+                batch.add(result);
+                if (result == null) {
+                    missing.add(i);
+                    missingTerms.add(searchTerms.get(i));
+                }
+            }
+        }
+        hitCount.addAndGet(searchTerms.size() - missing.size());
+        recordLookups(searchTerms.size() - missing.size(), missing.size());
+        if (missing.isEmpty()) {
+            return batch;
+        }
+
+        missCount.addAndGet(missing.size());
+        List<SearchResult> computed = delegate.performBatchMatch(type, missingTerms);
+        for (int i = 0; i < missing.size(); i++) {
+            batch.set(missing.get(i), computed.get(i));
+            store(generation, new Key(type, missingTerms.get(i)), computed.get(i));
+        }
+        return batch;
+    }
+
+    /**
+     * Returns hitCount.
+     * @return The number of searches answered from the cache.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns missCount.
+     * @return The number of searches passed on to the wrapped service.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns evictionCount.
+     * @return The number of results evicted to stay within the bounds.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Returns invalidationCount.
+     * @return The number of times the cache was dropped for a new generation.
+     */
+    public long getInvalidationCount() {
+        return invalidationCount.get();
+    }
+
+    /**
+     * Returns the number of cached results.
+     * @return The number of results.
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * Returns the estimated size of the cached results.
+     * @return The estimated number of bytes.
+     */
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * Helper Method
+     * Returns the cached result for a search, or runs the search on the
+     * wrapped service and caches its result.
+     * @param type The search type.
+     * @param searchTerm The search term.
+     * @param search The search operation of the wrapped service.
+     * @return The SearchResult with files, count, and elapsed time.
+     */
+    private SearchResult search(SearchType type, String searchTerm, Function<String, SearchResult> search) {
+        long generation = delegate.getGeneration();
+        Key key = new Key(type, searchTerm);
+        SearchResult result;
+        synchronized (this) {
+            invalidateIfStale(generation);
+            result = generation == cachedGeneration ? results.get(key) : null;
+        }
+        if (result != null) {
+            hitCount.incrementAndGet();
+            recordLookups(1, 0);
+            return result;
+        }
+
+        missCount.incrementAndGet();
+        recordLookups(0, 1);
+        result = search.apply(searchTerm);
+        store(generation, key, result);
+        return result;
+    }
+
+    /**
+     * Helper Method
+     * Adds a freshly computed result to the cache and evicts the least
+     * recently used results until the cache is within its bounds. A result
+     * is not cached if the generation changed while it was computed.
+     * @param generation The generation read before the search started.
+     * @param key The search type and term.
+     * @param result The result returned by the wrapped service.
+     */
+    private void store(long generation, Key key, SearchResult result) {
+        long currentGeneration = delegate.getGeneration();
+        long size = estimateBytes(key.term, result);
+        synchronized (this) {
+            invalidateIfStale(currentGeneration);
+            if (generation != currentGeneration || generation != cachedGeneration || size > maxBytes) {
+                return;
+            }
+            SearchResult previous = results.put(key, result);
+            if (previous != null) {
+                cachedBytes -= estimateBytes(key.term, previous);
+            }
+            cachedBytes += size;
+
+            Iterator<Map.Entry<Key, SearchResult>> eldest = results.entrySet().iterator();
+            while ((results.size() > maxEntries || cachedBytes > maxBytes) && eldest.hasNext()) {
+                Map.Entry<Key, SearchResult> entry = eldest.next();
+                cachedBytes -= estimateBytes(entry.getKey().term, entry.getValue());
+                eldest.remove();
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Helper Method
+     * Adds cache hits and misses to the metrics of the wrapped service, if
+     * it keeps any.
+     * @param hits The number of results answered from the cache.
+     * @param misses The number of results passed on to the wrapped service.
+     */
+    private void recordLookups(long hits, long misses) {
+        SearchMetrics metrics = delegate.getMetrics();
+        if (metrics != null) {
+            metrics.recordCacheHits(hits);
+            metrics.recordCacheMisses(misses);
+        }
+    }
+
+    /**
+     * Helper Method
+     * Drops every cached result when the generation has moved on. An older
+     * generation read by a slow thread leaves the cache alone. Must be
+     * called while holding the lock.
+     * @param generation The generation of the wrapped service.
+     */
+    private void invalidateIfStale(long generation) {
+        if (generation > cachedGeneration) {
+            if (!results.isEmpty()) {
+                invalidationCount.incrementAndGet();
+            }
+            results.clear();
+            cachedBytes = 0;
+            cachedGeneration = generation;
+        }
+    }
+
+    /**
+     * Helper Method
+     * Estimates the heap used by a cached result.
+     * @param searchTerm The search term the result is cached under.
+     * @param result The cached result.
+     * @return The estimated number of bytes.
+     */
+    private static long estimateBytes(String searchTerm, SearchResult result) {
+        return RESULT_OVERHEAD_BYTES + 2L * searchTerm.length() + (long) FILE_RESULT_BYTES * result.size();
+    }
+
+    /**
+     * The Key pairs the search type with the exact search term.
+     */
+    private static final class Key {
+        private final SearchType type;
+        private final String term;
+
+        Key(SearchType type, String term) {
+            this.type = type;
+            this.term = term;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return type == other.type && term.equals(other.term);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + term.hashCode();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package service;
+
+import org.apache.lucene.search.Query;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The QueryPlan holds the parts of a search that only depend on the search
+ * term, compiled once so they can be cached and reused by later searches
+ * for the same term. Only the parts used by the plan's search type are set.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+final class QueryPlan {
+    private final byte[][] foldedTokens;
+    private final Pattern pattern;
+    private final Query query;
+    private final List<String> indexTokens;
+
+    private QueryPlan(byte[][] foldedTokens, Pattern pattern, Query query, List<String> indexTokens) {
+        this.foldedTokens = foldedTokens;
+        this.pattern = pattern;
+        this.query = query;
+        this.indexTokens = indexTokens;
+    }
+
+    /**
+     * Creates the plan for a string match.
+     * @param foldedTokens The case-folded bytes of every search token.
+     * @return The QueryPlan.
+     */
+    static QueryPlan forString(byte[][] foldedTokens) {
+        return new QueryPlan(foldedTokens, null, null, null);
+    }
+
+    /**
+     * Creates the plan for a regex match.
+     * @param pattern The compiled regular expression.
+     * @return The QueryPlan.
+     */
+    static QueryPlan forRegex(Pattern pattern) {
+        return new QueryPlan(null, pattern, null, null);
+    }
+
+    /**
+     * Creates the plan for an indexed match.
+     * @param query The parsed Lucene query used to score documents.
+     * @param indexTokens The analyzed tokens used to count matches.
+     * @return The QueryPlan.
+     */
+    static QueryPlan forIndexed(Query query, List<String> indexTokens) {
+        return new QueryPlan(null, null, query, indexTokens);
+    }
+
+    /**
+     * Returns foldedTokens.
+     * @return The case-folded bytes of every search token.
+     */
+    byte[][] getFoldedTokens() {
+        return foldedTokens;
+    }
+
+    /**
+     * Returns pattern.
+     * @return The compiled regular expression.
+     */
+    Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Returns query.
+     * @return The parsed Lucene query.
+     */
+    Query getQuery() {
+        return query;
+    }
+
+    /**
+     * Returns indexTokens.
+     * @return The analyzed tokens used to count matches.
+     */
+    List<String> getIndexTokens() {
+        return indexTokens;
+    }
+}
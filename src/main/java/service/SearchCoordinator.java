@@ -0,0 +1,474 @@
+package service;
+
+import enums.SearchType;
+import models.FileResult;
+import models.SearchRequest;
+import models.SearchResult;
+import util.SearchMetrics;
+import util.SearchProtocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The SearchCoordinator spreads every search over shard worker processes.
+ * Each shard of the corpus is served by one or more ShardWorker replicas;
+ * a search is sent to one replica of every shard in parallel over the
+ * SearchProtocol, and the per-document results of the shards are merged
+ * into one SearchResult.
+ *
+ * Replicas of a shard take turns, and a replica that cannot be reached,
+ * fails or does not answer within the per-shard timeout is skipped for the
+ * next one. A shard whose replicas all fail is left out of the result and
+ * logged. Connections to the workers are kept open and reused.
+ *
+ * The shards return every result they have; the result limit and whether
+ * files without a match are kept are applied once the results are merged,
+ * so the most relevant results of all shards are kept. An indexed search
+ * scores with the document frequencies of each worker's own index, so the
+ * scores of different shards cannot be compared; with more than one shard,
+ * indexed results are merged by count alone and their scores are reported
+ * as 0.
+ *
+ * Every replica is also asked for its generation on a timer of its own,
+ * so a change on a shard moves the coordinator's generation on even while
+ * no search reaches that replica (for example because the results are
+ * cached).
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class SearchCoordinator implements SearchServiceInterface, Closeable {
+    private static final Logger LOGGER = Logger.getLogger(SearchCoordinator.class.getName());
+    public static final int DEFAULT_TIMEOUT_MILLIS = 2000;
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = 1000;
+    private static final long UNKNOWN_GENERATION = -1;
+
+    private final List<List<Replica>> shards;
+    private final int timeoutMillis;
+    private final AtomicInteger[] nextReplica;
+    private final ExecutorService fanOut;
+    private final ScheduledExecutorService poller;
+
+    // Moves on whenever the generation a replica reports changes
+    private final AtomicLong generation = new AtomicLong();
+    private final SearchMetrics metrics = new SearchMetrics();
+    private volatile int resultLimit = SearchResult.UNLIMITED;
+    private volatile boolean includeZeroCounts;
+
+    /**
+     * Creates a new SearchCoordinator that asks the replicas for their
+     * generation every DEFAULT_POLL_INTERVAL_MILLIS.
+     * @param shardReplicas The addresses of the replicas of every shard.
+     * @param timeoutMillis How long a replica may take to connect or to
+     *                      answer before the next replica is tried.
+     */
+    public SearchCoordinator(List<List<InetSocketAddress>> shardReplicas, int timeoutMillis) {
+        this(shardReplicas, timeoutMillis, DEFAULT_POLL_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Creates a new SearchCoordinator.
+     * @param shardReplicas The addresses of the replicas of every shard.
+     * @param timeoutMillis How long a replica may take to connect or to
+     *                      answer before the next replica is tried.
+     * @param pollIntervalMillis How often every replica is asked for its
+     *                           generation.
+     */
+    public SearchCoordinator(List<List<InetSocketAddress>> shardReplicas, int timeoutMillis, long pollIntervalMillis) {
+        if (shardReplicas.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required.");
+        }
+        List<List<Replica>> shards = new ArrayList<>(shardReplicas.size());
+        for (List<InetSocketAddress> replicas : shardReplicas) {
+            if (replicas.isEmpty()) {
+                throw new IllegalArgumentException("Every shard needs at least one replica.");
+            }
+            List<Replica> shard = new ArrayList<>(replicas.size());
+            for (InetSocketAddress address : replicas) {
+                shard.add(new Replica(address));
+            }
+            shards.add(Collections.unmodifiableList(shard));
+        }
+        this.shards = Collections.unmodifiableList(shards);
+        this.timeoutMillis = timeoutMillis;
+        this.nextReplica = new AtomicInteger[shards.size()];
+        for (int i = 0; i < nextReplica.length; i++) {
+            nextReplica[i] = new AtomicInteger();
+        }
+        this.fanOut = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "search-coordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "search-coordinator-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (List<Replica> shard : shards) {
+            for (Replica replica : shard) {
+                // The poll itself runs on a fan-out thread so a replica that
+                // hangs never delays the polls of the others
+                poller.scheduleWithFixedDelay(() -> fanOut.execute(() -> pollGeneration(replica)),
+                        0, pollIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * This method parses the shard layout given on the command line, with
+     * shards separated by ',' and the replicas of a shard by '|', for
+     * example "localhost:9001|localhost:9002,localhost:9003".
+     * @param spec The shard layout.
+     * @return The addresses of the replicas of every shard.
+     */
+    public static List<List<InetSocketAddress>> parseShards(String spec) {
+        List<List<InetSocketAddress>> shards = new ArrayList<>();
+        for (String shard : spec.split(",")) {
+            List<InetSocketAddress> replicas = new ArrayList<>();
+            for (String replica : shard.split("\\|")) {
+                int colon = replica.lastIndexOf(':');
+                if (colon < 0) {
+                    throw new IllegalArgumentException("Replica must be host:port: " + replica);
+                }
+                replicas.add(new InetSocketAddress(replica.substring(0, colon).trim(),
+                        Integer.parseInt(replica.substring(colon + 1).trim())));
+            }
+            shards.add(replicas);
+        }
+        return shards;
+    }
+
+    public SearchResult performStringMatch(String searchTerm) {
+        return search(SearchType.STRING, searchTerm);
+    }
+
+    public SearchResult performRegexMatch(String searchTerm) {
+        return search(SearchType.REGEX, searchTerm);
+    }
+
+    public SearchResult performIndexedMatch(String searchTerm) {
+        return search(SearchType.INDEXED, searchTerm);
+    }
+
+    public SearchResult performMemoryIndexMatch(String searchTerm) {
+        return search(SearchType.MEMORY_INDEX, searchTerm);
+    }
+
+    /**
+     * Returns the generation, which moves on whenever a shard reports that
+     * its content changed.
+     * @return The current generation of the searchable content.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Sets the largest number of results a search returns, applied to the
+     * merged results of the shards. Changing it moves the generation on so
+     * cached results are dropped.
+     * @param resultLimit The largest number of results, or
+     *                    SearchResult.UNLIMITED to return every result.
+     */
+    public void setResultLimit(int resultLimit) {
+        if (resultLimit < 0) {
+            throw new IllegalArgumentException("Result limit must not be negative: " + resultLimit);
+        }
+        this.resultLimit = resultLimit;
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Sets whether files without a match are included in the merged
+     * results, if the shards return them. They are left out by default.
+     * Changing it moves the generation on so cached results are dropped.
+     * @param includeZeroCounts Whether files without a match are included.
+     */
+    public void setIncludeZeroCounts(boolean includeZeroCounts) {
+        this.includeZeroCounts = includeZeroCounts;
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Returns the metrics, with the latency of every search across the
+     * shards; the scans and indexing are recorded by each worker.
+     * @return The SearchMetrics of this coordinator.
+     */
+    @Override
+    public SearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Stops the fan-out threads and closes the connections to the workers.
+     */
+    @Override
+    public void close() {
+        poller.shutdownNow();
+        fanOut.shutdownNow();
+        for (List<Replica> shard : shards) {
+            for (Replica replica : shard) {
+                replica.close();
+            }
+        }
+    }
+
+    /**
+     * Helper Method
+     * Sends a search to every shard in parallel, the calling thread taking
+     * the first shard itself, and merges the results of the shards.
+     * @param type The search type.
+     * @param searchTerm The search term.
+     * @return The merged SearchResult of every shard that answered.
+     */
+    private SearchResult search(SearchType type, String searchTerm) {
+        long startTime = System.nanoTime();
+        SearchRequest request = new SearchRequest();
+        request.setSearchType(type);
+        request.setSearchTerm(searchTerm);
+
+        List<Future<SearchProtocol.Response>> futures = new ArrayList<>(shards.size() - 1);
+        for (int i = 1; i < shards.size(); i++) {
+            final int shard = i;
+            futures.add(fanOut.submit(() -> searchShard(shard, request)));
+        }
+
+        List<FileResult> results = new ArrayList<>();
+        boolean keepScores = type != SearchType.INDEXED || shards.size() == 1;
+        addShardResults(searchShardQuietly(0, request), results, keepScores);
+        for (int i = 1; i < shards.size(); i++) {
+            addShardResults(getResponse(i, futures.get(i - 1)), results, keepScores);
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+        metrics.recordSearch(type, elapsedNanos);
+        return new SearchResult(results, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), resultLimit, includeZeroCounts);
+    }
+
+    /**
+     * Helper Method
+     * Adds the results of one shard.
+     * @param response The response of the shard, or null if it failed.
+     * @param results The merged results.
+     * @param keepScores Whether the scores can be compared with those of
+     *                   the other shards. If not they are dropped, so the
+     *                   results are ranked by count and then path.
+     */
+    private static void addShardResults(SearchProtocol.Response response, List<FileResult> results,
+                                        boolean keepScores) {
+        if (response == null) {
+            return;
+        }
+        if (keepScores) {
+            results.addAll(response.getResults());
+        } else {
+            for (FileResult result : response.getResults()) {
+                results.add(new FileResult(result.getFile(), result.getCount(), 0));
+            }
+        }
+    }
+
+    /**
+     * Helper Method
+     * Records the generation a replica reported, and moves the
+     * coordinator's generation on if it changed since the last report.
+     * The first report of a replica only sets its starting point.
+     * @param replica The replica.
+     * @param replicaGeneration The generation the replica reported.
+     */
+    private void recordGeneration(Replica replica, long replicaGeneration) {
+        long previous = replica.generation.getAndSet(replicaGeneration);
+        if (previous != UNKNOWN_GENERATION && previous != replicaGeneration) {
+            generation.incrementAndGet();
+        }
+    }
+
+    /**
+     * Helper Method
+     * Asks a replica for its generation, unless the previous poll of the
+     * replica is still waiting for its answer. A replica that cannot be
+     * reached is polled again on the next tick.
+     * @param replica The replica.
+     */
+    private void pollGeneration(Replica replica) {
+        if (!replica.polling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            recordGeneration(replica, replica.send(null, timeoutMillis).getGeneration());
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Replica " + replica.address + " did not report its generation: ", e);
+        } finally {
+            replica.polling.set(false);
+        }
+    }
+
+    /**
+     * Helper Method
+     * Waits for a shard that was searched on a fan-out thread.
+     * @param shard The shard.
+     * @param future The search of the shard.
+     * @return The response of the shard, or null if it failed.
+     */
+    private SearchProtocol.Response getResponse(int shard, Future<SearchProtocol.Response> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.WARNING, "Every replica of shard " + shard + " failed: ", e.getCause());
+        }
+        return null;
+    }
+
+    /**
+     * Helper Method
+     * Searches a shard on the calling thread.
+     * @param shard The shard.
+     * @param request The search type and term.
+     * @return The response of the shard, or null if it failed.
+     */
+    private SearchProtocol.Response searchShardQuietly(int shard, SearchRequest request) {
+        try {
+            return searchShard(shard, request);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Every replica of shard " + shard + " failed: ", e);
+            return null;
+        }
+    }
+
+    /**
+     * Helper Method
+     * Sends a search to the replicas of a shard in turn, starting with the
+     * replica after the one the previous search started with, until one
+     * of them answers.
+     * @param shard The shard.
+     * @param request The search type and term.
+     * @return The response of the shard.
+     * @throws IOException If every replica failed.
+     */
+    private SearchProtocol.Response searchShard(int shard, SearchRequest request) throws IOException {
+        List<Replica> replicas = shards.get(shard);
+        int first = Math.floorMod(nextReplica[shard].getAndIncrement(), replicas.size());
+        IOException failure = null;
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((first + i) % replicas.size());
+            try {
+                SearchProtocol.Response response = replica.send(request, timeoutMillis);
+                recordGeneration(replica, response.getGeneration());
+                return response;
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Replica " + replica.address + " of shard " + shard + " failed: ", e);
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * The Replica is one ShardWorker of a shard, with a pool of open
+     * connections to it and the generation it last reported.
+     */
+    private static final class Replica {
+        private final InetSocketAddress address;
+        private final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+        private final AtomicLong generation = new AtomicLong(UNKNOWN_GENERATION);
+        private final AtomicBoolean polling = new AtomicBoolean();
+
+        Replica(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        /**
+         * Sends a search, or a generation request when the request is
+         * null, over an idle connection or a new one, and hands the
+         * connection back once the response is read. A connection that
+         * failed is closed instead.
+         */
+        SearchProtocol.Response send(SearchRequest request, int timeoutMillis) throws IOException {
+            Connection connection = idle.pollFirst();
+            if (connection == null) {
+                connection = new Connection(address, timeoutMillis);
+            }
+            try {
+                if (request == null) {
+                    SearchProtocol.writeGenerationRequest(connection.out);
+                } else {
+                    SearchProtocol.writeRequest(connection.out, request);
+                }
+                SearchProtocol.Response response = SearchProtocol.readResponse(connection.in);
+                idle.offerFirst(connection);
+                return response;
+            } catch (IOException e) {
+                connection.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            for (Connection connection = idle.pollFirst(); connection != null; connection = idle.pollFirst()) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * The Connection is an open socket to a ShardWorker. Reads time out
+     * after the per-shard timeout.
+     */
+    private static final class Connection {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Connection(InetSocketAddress address, int timeoutMillis) throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(address, timeoutMillis);
+                socket.setSoTimeout(timeoutMillis);
+                socket.setTcpNoDelay(true);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to clean up
+            }
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import enums.SearchType;
+import models.QueryTrace;
+import models.SearchResult;
+import util.DirectoryCorpusSource;
+import util.MappedFile;
+import util.SearchMetrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+
+/**
+ * The SearchServer serves searches over HTTP. A GET on
+ * /search?type=string&amp;term=the runs the search and returns the
+ * SearchResult as JSON:
+ *
+ *      {"elapsedTime":3,"total":1,"results":[{"file":"a.txt","count":2,"score":0.5}]}
+ *
+ * The type is one of string, regex, indexed or memory_index. The optional
+ * offset and limit parameters return one page of the results, and total
+ * is the number of results across every page. With trace=true the search
+ * is traced and the response adds the nanoseconds of each stage, ending
+ * with the time taken to format the response:
+ *
+ *      "trace":{"plan":4100,"scan":2810400,"rank":40200,"format":9100}
+ *
+ * A GET on /metrics returns the SearchMetrics of the service in the
+ * Prometheus text format, or 404 if the service keeps none.
+ *
+ * Requests are read by the HTTP server's dispatcher thread and handed to a
+ * bounded pool of search threads, which write the response and complete
+ * the exchange, so the dispatcher never waits for a search. When every
+ * search thread is busy and the queue in front of them is full, the
+ * request is answered right away with 429 Too Many Requests. Connections
+ * are kept alive between requests.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class SearchServer implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(SearchServer.class.getName());
+    public static final int DEFAULT_WORKER_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+    private static final String TEXT_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final int STOP_DELAY_SECONDS = 1;
+
+    static {
+        // The JDK server leaves Nagle's algorithm on, so on a kept-alive
+        // connection every response waits for the client's delayed ACK
+        // (about 40 ms). The property is JVM-wide and read when the first
+        // server is created, so it is only set if the user has not set it
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final SearchServiceInterface searchService;
+    private final HttpServer server;
+    private final ThreadPoolExecutor workers;
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Creates a new SearchServer that listens on the loopback address.
+     * Call start() to begin serving.
+     * @param searchService The service that runs the searches.
+     * @param port The port to listen on, 0 to pick a free port.
+     * @param workerThreads The number of searches run at once.
+     * @param queueCapacity The number of searches that may wait for a
+     *                      search thread before requests are turned away.
+     * @throws IOException
+     */
+    public SearchServer(SearchServiceInterface searchService, int port,
+                        int workerThreads, int queueCapacity) throws IOException {
+        this(searchService, InetAddress.getLoopbackAddress(), port, workerThreads, queueCapacity);
+    }
+
+    /**
+     * Creates a new SearchServer. Call start() to begin serving.
+     * @param searchService The service that runs the searches.
+     * @param bindAddress The address to listen on; the wildcard address
+     *                    serves every interface.
+     * @param port The port to listen on, 0 to pick a free port.
+     * @param workerThreads The number of searches run at once.
+     * @param queueCapacity The number of searches that may wait for a
+     *                      search thread before requests are turned away.
+     * @throws IOException
+     */
+    public SearchServer(SearchServiceInterface searchService, InetAddress bindAddress, int port,
+                        int workerThreads, int queueCapacity) throws IOException {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("Number of worker threads must be at least 1: " + workerThreads);
+        }
+        this.searchService = searchService;
+        BlockingQueue<Runnable> queue = queueCapacity > 0
+                ? new ArrayBlockingQueue<>(queueCapacity) : new SynchronousQueue<>();
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+                queue, runnable -> {
+                    Thread thread = new Thread(runnable, "search-server-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.server = HttpServer.create(new InetSocketAddress(bindAddress, port), 0);
+        this.server.createContext("/search", this::dispatch);
+        this.server.createContext("/metrics", this::sendMetrics);
+    }
+
+    /**
+     * Starts serving requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Returns the port.
+     * @return The port the server listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns rejectedCount.
+     * @return The number of requests turned away with 429.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Stops accepting requests, gives the exchanges in progress a moment to
+     * finish and stops the search threads.
+     */
+    @Override
+    public void close() {
+        server.stop(STOP_DELAY_SECONDS);
+        workers.shutdownNow();
+    }
+
+    /**
+     * Helper Method
+     * Validates a request on the dispatcher thread and queues its search,
+     * or answers it right away if it is invalid or the queue is full.
+     * @param exchange The HTTP exchange.
+     * @throws IOException
+     */
+    private void dispatch(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "GET");
+            sendError(exchange, 405, "Method not allowed.");
+            return;
+        }
+        Map<String, String> parameters = parseQuery(exchange.getRequestURI().getRawQuery());
+        if (parameters == null) {
+            sendError(exchange, 400, "Malformed percent-encoding in the query.");
+            return;
+        }
+        String term = parameters.get("term");
+        SearchType type = parseSearchType(parameters.get("type"));
+        if (type == null || term == null || term.isEmpty()) {
+            sendError(exchange, 400, "Expected type=string|regex|indexed|memory_index and a non-empty term.");
+            return;
+        }
+        int offset = parseCount(parameters.get("offset"), 0);
+        int limit = parseCount(parameters.get("limit"), SearchResult.UNLIMITED);
+        boolean traced = Boolean.parseBoolean(parameters.get("trace"));
+        if (offset < 0 || limit < 0) {
+            sendError(exchange, 400, "Expected offset and limit to be non-negative integers.");
+            return;
+        }
+
+        try {
+            workers.execute(() -> runSearch(exchange, type, term, offset, limit, traced));
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendError(exchange, 429, "Too many requests.");
+        }
+    }
+
+    /**
+     * Helper Method
+     * Answers a metrics request on the dispatcher thread; the text is
+     * written from counters without waiting for any search.
+     * @param exchange The HTTP exchange.
+     * @throws IOException
+     */
+    private void sendMetrics(HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "GET");
+            sendError(exchange, 405, "Method not allowed.");
+            return;
+        }
+        SearchMetrics metrics = searchService.getMetrics();
+        if (metrics == null) {
+            sendError(exchange, 404, "The search service keeps no metrics.");
+            return;
+        }
+        send(exchange, 200, TEXT_CONTENT_TYPE, metrics.getText());
+    }
+
+    /**
+     * Helper Method
+     * Runs a search on a search thread and completes the exchange with its
+     * result.
+     * @param exchange The HTTP exchange.
+     * @param type The search type.
+     * @param term The search term.
+     * @param offset The number of results to skip.
+     * @param limit The largest number of results to return.
+     * @param traced Whether the search is traced.
+     */
+    private void runSearch(HttpExchange exchange, SearchType type, String term, int offset, int limit,
+                           boolean traced) {
+        try {
+            SearchResult result;
+            try {
+                result = traced ? searchService.performTracedMatch(type, term) : searchService.performMatch(type, term);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Error running search: ", e);
+                sendError(exchange, 500, e.toString());
+                return;
+            }
+            send(exchange, 200, JSON_CONTENT_TYPE, toJson(result, offset, limit));
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Error writing response: ", e);
+            exchange.close();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Error writing response: ", e);
+            exchange.close();
+        }
+    }
+
+    /**
+     * Helper Method
+     * Parses the search type parameter, ignoring case.
+     * @param value The parameter value.
+     * @return The SearchType, or null if the value names none.
+     */
+    private static SearchType parseSearchType(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return SearchType.valueOf(value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Helper Method
+     * Parses an optional count parameter.
+     * @param value The parameter value, or null if it was not given.
+     * @param defaultValue The count used when the parameter was not given.
+     * @return The count, or -1 if the value is not an integer.
+     */
+    private static int parseCount(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Helper Method
+     * Splits a raw query string into decoded parameters. The first value
+     * of a repeated parameter wins.
+     * @param rawQuery The query string, or null if there is none.
+     * @return The parameters, or null if an escape is malformed.
+     * @throws UnsupportedEncodingException
+     */
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            try {
+                parameters.putIfAbsent(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * Helper Method
+     * Writes a JSON error response.
+     * @param exchange The HTTP exchange.
+     * @param status The HTTP status code.
+     * @param message The reason the request failed.
+     * @throws IOException
+     */
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendString(json, message);
+        send(exchange, status, JSON_CONTENT_TYPE, json.append('}').toString());
+    }
+
+    /**
+     * Helper Method
+     * Writes a response with its length set, so the connection can be kept
+     * alive, and completes the exchange.
+     * @param exchange The HTTP exchange.
+     * @param status The HTTP status code.
+     * @param contentType The content type of the body.
+     * @param text The response body.
+     * @throws IOException
+     */
+    private static void send(HttpExchange exchange, int status, String contentType, String text) throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * This method writes one page of a SearchResult as JSON, followed by
+     * its trace if it has one.
+     * @param result The SearchResult.
+     * @param offset The number of results to skip.
+     * @param limit The largest number of results to write.
+     * @return The JSON object.
+     */
+    static String toJson(SearchResult result, int offset, int limit) {
+        long startTime = System.nanoTime();
+        int from = Math.min(offset, result.size());
+        int to = (int) Math.min((long) from + limit, result.size());
+        StringBuilder json = new StringBuilder(64 + (to - from) * 64);
+        json.append("{\"elapsedTime\":").append(result.getElapsedTime())
+                .append(",\"total\":").append(result.getTotalCount())
+                .append(",\"results\":[");
+        for (int rank = from; rank < to; rank++) {
+            if (rank > from) {
+                json.append(',');
+            }
+            json.append("{\"file\":");
+            appendString(json, result.getFile(rank));
+            json.append(",\"count\":").append(result.getCount(rank));
+            float score = result.getScore(rank);
+            json.append(",\"score\":").append(Float.isNaN(score) || Float.isInfinite(score) ? 0 : score);
+            json.append('}');
+        }
+        json.append(']');
+        QueryTrace trace = result.getTrace();
+        if (trace != null) {
+            json.append(",\"trace\":{");
+            for (int i = 0; i < trace.size(); i++) {
+                appendString(json, trace.getStage(i));
+                json.append(':').append(trace.getNanos(i)).append(',');
+            }
+            json.append("\"format\":").append(System.nanoTime() - startTime).append('}');
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Helper Method
+     * Appends a JSON string literal, escaping quotes, backslashes and
+     * control characters.
+     * @param json The JSON being written.
+     * @param value The string.
+     */
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Launches a search server that serves the files under the given
+     * directories. The server listens on the loopback address unless the
+     * search.bindAddress system property names another one. Searches
+     * slower than the search.slowQueryMillis system property, if it is
+     * set, are written to the slow query log.
+     * @param args The port, followed by one or more directories.
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: SearchServer <port> <directory>...");
+            System.exit(1);
+        }
+        List<Path> directories = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            directories.add(Paths.get(args[i]));
+        }
+        SearchServiceImpl searchService = new SearchServiceImpl(new DirectoryCorpusSource(directories),
+                DEFAULT_WORKER_THREADS, MappedFile.DEFAULT_REGION_SIZE);
+        searchService.setSlowQueryThreshold(Long.getLong("search.slowQueryMillis",
+                SearchServiceImpl.SLOW_QUERY_LOG_DISABLED));
+        try {
+            searchService.getMetrics().registerMBean("port-" + args[0]);
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Error registering metrics MBean: ", e);
+        }
+        String bindAddress = System.getProperty("search.bindAddress");
+        SearchServer server = new SearchServer(new CachingSearchService(searchService),
+                bindAddress == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bindAddress),
+                Integer.parseInt(args[0]), DEFAULT_WORKER_THREADS, DEFAULT_QUEUE_CAPACITY);
+        server.start();
+        System.out.println("Search server listening on port " + server.getPort());
+    }
+}
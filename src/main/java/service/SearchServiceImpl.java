@@ -1,8 +1,26 @@
 package service;
 
+import enums.SearchType;
+import models.FileResult;
+import models.FileTable;
+import models.QueryTrace;
+import models.ResultBuffer;
 import models.SearchResult;
-import util.FileUtil;
+import util.ByteTokenizer;
+import util.CorpusSource;
+import util.DirectoryCorpusSource;
+import util.DirectoryWatcher;
 import util.IndexUtil;
+import util.IndexingStats;
+import util.InvertedIndex;
+import util.MappedFile;
+import util.ParallelScanner;
+import util.QueryPlanCache;
+import util.SearchMetrics;
+import util.ResourceCorpusSource;
+import util.ShardedIndexManager;
+import util.SnapshotCorpusSource;
+import util.TokenAutomaton;
 
 import org.apache.lucene.analysis.CharArraySet;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
@@ -11,35 +29,582 @@ import org.apache.lucene.index.*;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
-import org.apache.lucene.store.Directory;
-
 
 import java.io.*;
-import java.time.Duration;
-import java.time.Instant;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Scanner;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 /**
  * The SearchServiceImpl contains the implementation of the interface
  * to perform the different search operations.
  *
+ * A SearchServiceImpl is thread-safe. Everything it shares between calls
+ * (the corpus, mapped files, Lucene searcher and in-memory index) is
+ * built in the constructor and only read afterwards; refresh() and
+ * applyChanges() build the next mapped files and in-memory index next to
+ * the current ones and swap them in together, so a search always sees one
+ * consistent state, and a failed update leaves the previous state in place.
+ * Each search keeps its timing and partial results in local variables, so
+ * one instance can serve concurrent requests from a thread pool.
+ *
+ * A search run with performTracedMatch() returns a QueryTrace of its
+ * stages with its result. Once a slow query threshold is set, every search
+ * is traced and those that take longer are logged with their trace to the
+ * service.SearchServiceImpl.slowQueries logger.
+ *
  * @author Tanya Wanwatanakool
  * @since 2020-06-25
  */
-public class SearchServiceImpl implements SearchServiceInterface {
+public class SearchServiceImpl implements SearchServiceInterface, Closeable {
     private static final Logger LOGGER = Logger.getLogger(SearchServiceImpl.class.getName());
-    private static final int MAX_DOCUMENTS_HIT = 3;
+    // The slow query log, which can be given a handler of its own
+    private static final Logger SLOW_QUERY_LOGGER = Logger.getLogger(SearchServiceImpl.class.getName() + ".slowQueries");
+    public static final long SLOW_QUERY_LOG_DISABLED = -1;
+    // Regions mapped before files are read into the heap instead, leaving
+    // most of the default vm.max_map_count of 65530 to Lucene and the JVM
+    private static final int MAX_MAPPINGS = 32 * 1024;
+    private static final Set<String> FILEPATH_ONLY = Collections.singleton(IndexUtil.FILEPATH_FIELD);
+    // Returned when a search cannot run, with the same -1 elapsed time a new result used to have
+    private static final SearchResult EMPTY_RESULT = new SearchResult(Collections.<FileResult>emptyList(), -1);
     private static final String[] charsToEscape = {"?", ".", "[", "]", "(", ")",  "&", "\"[", "\""};
 
-    private FileUtil fileUtil = new FileUtil();
-    private List<File> fileList = fileUtil.getFileFromResources();
-    private IndexUtil indexUtil = new IndexUtil();
-    private Instant endTime, startTime;
+    private volatile CorpusSource corpus;
+    private final int regionSize;
+    private volatile CorpusState state;
+    // Changed paths that could not be applied yet, retried with the next batch
+    private final Set<Path> pendingChanges = new LinkedHashSet<>();
+    // Set when Lucene took a refresh's changes but the state could not be rebuilt
+    private boolean stateOutdated;
+    private final ParallelScanner parallelScanner;
+    private final IndexUtil indexUtil = new IndexUtil();
+    private final int indexShards;
+    private final Path indexPath;
+    private final ShardedIndexManager indexManager;
+    private final AtomicLong generation = new AtomicLong();
+    private final QueryPlanCache<QueryPlan> queryPlanCache = new QueryPlanCache<>(QueryPlanCache.DEFAULT_MAX_ENTRIES);
+    private final SearchMetrics metrics = new SearchMetrics();
+    private volatile int resultLimit = SearchResult.UNLIMITED;
+    private volatile boolean includeZeroCounts;
+    private volatile long slowQueryNanos = SLOW_QUERY_LOG_DISABLED;
+
+    /**
+     * The CorpusState holds the mapped files and the in-memory index of one
+     * generation of the corpus, so a search reads both from the same one.
+     * Its FileTable interns the paths of the results of that generation
+     * only, so paths that leave the corpus are let go with the results
+     * that still refer to them.
+     */
+    private static final class CorpusState {
+        private final List<MappedFile> mappedFiles;
+        // Null if the in-memory index could not be built
+        private final InvertedIndex invertedIndex;
+        private final FileTable fileTable = new FileTable();
+
+        private CorpusState(List<MappedFile> mappedFiles, InvertedIndex invertedIndex) {
+            this.mappedFiles = Collections.unmodifiableList(mappedFiles);
+            this.invertedIndex = invertedIndex;
+        }
+    }
+
+    /**
+     * Creates a new SearchServiceImpl that scans files sequentially.
+     */
+    public SearchServiceImpl() {
+        this(1, MappedFile.DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * Creates a new SearchServiceImpl over the sample files in resources.
+     * @param scanThreads The number of threads the string and regex
+     *                    searches scan files with, 1 to scan sequentially.
+     * @param regionSize The largest number of bytes of a file scanned as one
+     *                   unit; larger files are split at line breaks.
+     */
+    public SearchServiceImpl(int scanThreads, int regionSize) {
+        this(new ResourceCorpusSource(), scanThreads, regionSize);
+    }
+
+    /**
+     * Creates a new SearchServiceImpl, maps the files into memory for the
+     * string and regex searches, and builds the Lucene index and the
+     * in-memory index once so that every indexed search reuses them.
+     * @param scanThreads The number of threads the string and regex
+     *                    searches scan files with, 1 to scan sequentially.
+     * @param regionSize The largest number of bytes of a file scanned as one
+     *                   unit; larger files are split at line breaks.
+     * @param corpus The files to search, listed once per refresh.
+     */
+    public SearchServiceImpl(CorpusSource corpus, int scanThreads, int regionSize) {
+        this(corpus, scanThreads, regionSize, 1);
+    }
+
+    /**
+     * Creates a new SearchServiceImpl whose Lucene index is split into
+     * shards that are built in parallel and searched in parallel.
+     * @param corpus The files to search, listed once per refresh.
+     * @param scanThreads The number of threads the string and regex
+     *                    searches scan files with, 1 to scan sequentially.
+     * @param regionSize The largest number of bytes of a file scanned as one
+     *                   unit; larger files are split at line breaks.
+     * @param indexShards The number of shards of the Lucene index.
+     */
+    public SearchServiceImpl(CorpusSource corpus, int scanThreads, int regionSize, int indexShards) {
+        this(corpus, scanThreads, regionSize, indexShards, ShardedIndexManager.defaultIndexPath(indexShards));
+    }
+
+    /**
+     * Creates a new SearchServiceImpl whose Lucene index is kept at the
+     * given path, with its manifest next to it.
+     * @param corpus The files to search, listed once per refresh.
+     * @param scanThreads The number of threads the string and regex
+     *                    searches scan files with, 1 to scan sequentially.
+     * @param regionSize The largest number of bytes of a file scanned as one
+     *                   unit; larger files are split at line breaks.
+     * @param indexShards The number of shards of the Lucene index.
+     * @param indexPath The directory of the Lucene index.
+     */
+    public SearchServiceImpl(CorpusSource corpus, int scanThreads, int regionSize, int indexShards, Path indexPath) {
+        this.corpus = corpus;
+        this.indexShards = indexShards;
+        this.indexPath = indexPath;
+        parallelScanner = new ParallelScanner(scanThreads);
+        this.regionSize = regionSize;
+        long startTime = System.nanoTime();
+        SnapshotCorpusSource snapshot = snapshotCorpus();
+        if (snapshot == null) {
+            snapshot = new SnapshotCorpusSource(Collections.<File>emptyList());
+        }
+        List<MappedFile> mappedFiles = mapFiles(snapshot.getFiles(), 0);
+        indexManager = buildIndexManager(snapshot);
+        state = new CorpusState(mappedFiles, buildInvertedIndex(snapshot));
+        metrics.recordIndexRefresh(System.nanoTime() - startTime, getIndexingStats());
+    }
+
+    /**
+     * Helper Method
+     * Lists the files of the corpus once, so the mapped files, the Lucene
+     * index and the in-memory index of one generation are built from the
+     * same files.
+     * @return The snapshot of the corpus, or null if it could not be listed.
+     */
+    private SnapshotCorpusSource snapshotCorpus() {
+        try {
+            return new SnapshotCorpusSource(corpus);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error reading corpus: ", e);
+            return null;
+        }
+    }
+
+    /**
+     * Helper Method
+     * Maps the files into memory, skipping the files that cannot be read.
+     * Once MAX_MAPPINGS regions are mapped, the remaining files are read
+     * into the heap instead so the process never runs out of mappings.
+     * @param files The files to be mapped.
+     * @param mappings The number of regions already mapped.
+     * @return The list of mapped files.
+     */
+    private List<MappedFile> mapFiles(Collection<File> files, int mappings) {
+        List<MappedFile> mapped = new ArrayList<>(files.size());
+        boolean warned = false;
+        for (File file : files) {
+            try {
+                MappedFile mappedFile = new MappedFile(file, regionSize, mappings < MAX_MAPPINGS);
+                if (mappedFile.isMapped()) {
+                    mappings += mappedFile.getRegionCount();
+                } else if (!warned && mappings >= MAX_MAPPINGS) {
+                    warned = true;
+                    LOGGER.log(Level.WARNING, "More than " + MAX_MAPPINGS
+                            + " regions are mapped, the other files are read into the heap.");
+                }
+                mapped.add(mappedFile);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "File could not be mapped: ", e);
+            }
+        }
+        return mapped;
+    }
+
+    /**
+     * Helper Method
+     * Builds the Lucene index for the files.
+     * @param snapshot The files to be indexed.
+     * @return The ShardedIndexManager, or null if the index could not be built.
+     */
+    private ShardedIndexManager buildIndexManager(CorpusSource snapshot) {
+        try {
+            return new ShardedIndexManager(snapshot, indexShards, IndexUtil.DEFAULT_INDEX_THREADS, indexPath);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error building Lucene index: ", e);
+            return null;
+        }
+    }
+
+    /**
+     * Helper Method
+     * Builds the in-memory index for the files.
+     * @param snapshot The files to be indexed.
+     * @return The InvertedIndex, or null if the index could not be built.
+     */
+    private InvertedIndex buildInvertedIndex(CorpusSource snapshot) {
+        try {
+            return new InvertedIndex(snapshot);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error building in-memory index: ", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the queryPlanCache.
+     * @return The cache of compiled query plans, with its hit and miss counts.
+     */
+    public QueryPlanCache<?> getQueryPlanCache() {
+        return queryPlanCache;
+    }
+
+    /**
+     * Sets the largest number of results a search returns. Only the most
+     * relevant results are kept, and SearchResult.getTotalCount() still
+     * reports how many files matched. Changing it moves the generation on
+     * so cached results are dropped.
+     * @param resultLimit The largest number of results, or
+     *                    SearchResult.UNLIMITED to return every result.
+     */
+    public void setResultLimit(int resultLimit) {
+        if (resultLimit < 0) {
+            throw new IllegalArgumentException("Result limit must not be negative: " + resultLimit);
+        }
+        this.resultLimit = resultLimit;
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Sets whether files without a match are included in the results. They
+     * are left out by default. Changing it moves the generation on so cached
+     * results are dropped.
+     * @param includeZeroCounts Whether files without a match are included.
+     */
+    public void setIncludeZeroCounts(boolean includeZeroCounts) {
+        this.includeZeroCounts = includeZeroCounts;
+        generation.incrementAndGet();
+    }
+
+    /**
+     * Sets how long a search may take before it is written to the slow
+     * query log with its trace. While the log is on every search is traced,
+     * which adds a few clock reads per stage.
+     * @param thresholdMillis The threshold in milliseconds, or
+     *                        SLOW_QUERY_LOG_DISABLED to turn the log off.
+     */
+    public void setSlowQueryThreshold(long thresholdMillis) {
+        this.slowQueryNanos = thresholdMillis < 0 ? SLOW_QUERY_LOG_DISABLED
+                : TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /**
+     * Returns the metrics, which every search, scan and refresh of this
+     * service records into.
+     * @return The SearchMetrics of this service.
+     */
+    @Override
+    public SearchMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the throughput of the last time the Lucene index was built or
+     * refreshed.
+     * @return The IndexingStats, or null if the index is not available.
+     */
+    public IndexingStats getIndexingStats() {
+        return indexManager == null ? null : indexManager.getIndexingStats();
+    }
+
+    /**
+     * Returns the generation, which refresh() increases whenever it finds
+     * that files were added, changed or deleted.
+     * @return The current generation of the searchable content.
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * This method brings every search mode up to date with the files on
+     * disk. The Lucene index is updated incrementally, reindexing only new
+     * and changed files and removing deleted ones; if anything changed, the
+     * files are mapped again and the in-memory index is rebuilt, and the
+     * generation moves on once the new state is swapped in. If the Lucene
+     * update fails nothing else is rebuilt, so the next refresh finds the
+     * same changes again, and the refresh is not recorded in the metrics.
+     * If the in-memory index cannot be rebuilt the previous state is kept
+     * and rebuilt by the next refresh.
+     * @return The number of files that were added, changed or deleted.
+     */
+    public synchronized int refresh() {
+        long startTime = System.nanoTime();
+        SnapshotCorpusSource snapshot = snapshotCorpus();
+        if (snapshot == null) {
+            return 0;
+        }
+        int changes = 1;
+        if (indexManager != null) {
+            try {
+                changes = indexManager.refresh(snapshot);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error refreshing Lucene index: ", e);
+                return 0;
+            }
+        }
+        if (changes > 0 || stateOutdated) {
+            List<MappedFile> mappedFiles = mapFiles(snapshot.getFiles(), 0);
+            InvertedIndex invertedIndex = buildInvertedIndex(snapshot);
+            // Lucene already holds the changes, so without the rest of the
+            // state the next refresh has to rebuild it even if none are left
+            stateOutdated = invertedIndex == null;
+            if (invertedIndex != null) {
+                state = new CorpusState(mappedFiles, invertedIndex);
+                pendingChanges.clear();
+                generation.incrementAndGet();
+            }
+        }
+        metrics.recordIndexRefresh(System.nanoTime() - startTime, getIndexingStats());
+        return changes;
+    }
+
+    /**
+     * This method replaces the corpus that is searched and brings every
+     * search mode up to date with it, as refresh() does.
+     * @param corpus The files to search from now on.
+     * @return The number of files that were added, changed or deleted.
+     */
+    public synchronized int refresh(CorpusSource corpus) {
+        this.corpus = corpus;
+        return refresh();
+    }
+
+    /**
+     * This method brings every search mode up to date with the given paths
+     * only, without walking the rest of the corpus. A directory stands for
+     * every file below it, and a path that no longer exists for every file
+     * that was below it. Changed files are reindexed in Lucene, mapped
+     * again and replaced in the in-memory index; deleted files are removed
+     * from all three. The next state is built next to the current one and
+     * swapped in once it is complete. If anything fails the current state
+     * is kept and the paths are applied again with the next call. While a
+     * refresh has left the state behind the Lucene index, a full refresh
+     * is run instead.
+     * @param paths The files and directories that were created, modified
+     *              or deleted.
+     * @return The number of files that were applied.
+     */
+    public synchronized int applyChanges(Collection<Path> paths) {
+        if (stateOutdated) {
+            return refresh();
+        }
+        long startTime = System.nanoTime();
+        pendingChanges.addAll(paths);
+        CorpusState current = state;
+        try {
+            Collection<File> files = changedFiles(pendingChanges, current.mappedFiles);
+            if (indexManager != null) {
+                indexManager.refresh(files);
+            }
+            List<MappedFile> mappedFiles = remapFiles(current.mappedFiles, files);
+            InvertedIndex invertedIndex = current.invertedIndex == null
+                    ? new InvertedIndex(new SnapshotCorpusSource(corpus)) : current.invertedIndex.update(files);
+            state = new CorpusState(mappedFiles, invertedIndex);
+            pendingChanges.clear();
+            generation.incrementAndGet();
+            metrics.recordIndexRefresh(System.nanoTime() - startTime, getIndexingStats());
+            return files.size();
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.log(Level.WARNING, "Error applying changed files, they are retried with the next change: ", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Helper Method
+     * Resolves changed paths to the files they stand for.
+     * @param paths The files and directories that were created, modified
+     *              or deleted.
+     * @param mappedFiles The files that are currently searched.
+     * @return The files that exist and the files that were deleted.
+     * @throws IOException
+     */
+    private static Collection<File> changedFiles(Collection<Path> paths, List<MappedFile> mappedFiles)
+            throws IOException {
+        Set<File> files = new LinkedHashSet<>();
+        for (Path path : paths) {
+            if (Files.isDirectory(path)) {
+                try (Stream<File> walk = new DirectoryCorpusSource(Collections.singletonList(path)).files()) {
+                    walk.forEach(files::add);
+                }
+            } else if (Files.exists(path)) {
+                files.add(path.toFile());
+            } else {
+                // A deleted directory takes every file below it along
+                files.add(path.toFile());
+                for (MappedFile mapped : mappedFiles) {
+                    Path mappedPath = Paths.get(mapped.getPath());
+                    if (mappedPath.startsWith(path)) {
+                        files.add(mappedPath.toFile());
+                    }
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Helper Method
+     * Maps the changed files again, keeping the mappings of the other files.
+     * The mappings of changed files are dropped rather than reused, since a
+     * file that shrank would fault on the pages past its new end.
+     * @param mappedFiles The files that are currently searched.
+     * @param files The files that were created, modified or deleted.
+     * @return The mapped files of the next state.
+     */
+    private List<MappedFile> remapFiles(List<MappedFile> mappedFiles, Collection<File> files) {
+        Set<String> changed = new HashSet<>();
+        List<File> existing = new ArrayList<>();
+        for (File file : files) {
+            changed.add(file.toString());
+            if (file.isFile()) {
+                existing.add(file);
+            }
+        }
+        List<MappedFile> remapped = new ArrayList<>(mappedFiles.size() + existing.size());
+        int mappings = 0;
+        for (MappedFile mapped : mappedFiles) {
+            if (!changed.contains(mapped.getPath())) {
+                remapped.add(mapped);
+                mappings += mapped.isMapped() ? mapped.getRegionCount() : 0;
+            }
+        }
+        remapped.addAll(mapFiles(existing, mappings));
+        return remapped;
+    }
+
+    /**
+     * This method keeps the service up to date with the files under the
+     * given directories, which from now on are the corpus. Created,
+     * modified and deleted files are batched for the commit interval and
+     * then applied with applyChanges(), so new documents become searchable
+     * within about one interval while searches keep running on the
+     * previous state. If the watcher loses events, everything is brought up
+     * to date with refresh() instead.
+     * @param directories The directories to watch.
+     * @param commitIntervalMillis How long changes are batched before the
+     *                             indexes are updated.
+     * @return The started DirectoryWatcher, to be closed to stop watching.
+     * @throws IOException
+     */
+    public DirectoryWatcher watchDirectories(List<Path> directories, long commitIntervalMillis) throws IOException {
+        DirectoryWatcher watcher = new DirectoryWatcher(directories, commitIntervalMillis, paths -> {
+            if (paths == null) {
+                refresh();
+            } else {
+                applyChanges(paths);
+            }
+        });
+        refresh(new DirectoryCorpusSource(directories));
+        watcher.start();
+        return watcher;
+    }
+
+    /**
+     * This method stops the scan threads and closes the Lucene index. The
+     * service must not be searched afterwards.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        parallelScanner.close();
+        if (indexManager != null) {
+            indexManager.close();
+        }
+    }
+
+    @Override
+    public SearchResult performMatch(SearchType type, String searchTerm) {
+        return match(type, searchTerm, false);
+    }
+
+    /**
+     * This method runs the search operation of the given search type and
+     * attaches the QueryTrace of its stages: the plan, the scan and the
+     * ranking of a string or regex search, and the plan, the search of the
+     * shards (with the postings, scoring and stored fields summed over the
+     * shards), the merge and the ranking of an indexed search.
+     * @param type The search type.
+     * @param searchTerm The word to be searched for.
+     * @return The SearchResult with its trace.
+     */
+    @Override
+    public SearchResult performTracedMatch(SearchType type, String searchTerm) {
+        return match(type, searchTerm, true);
+    }
+
+    /**
+     * Helper Method
+     * Runs a search, records its latency in the metrics and traces it if
+     * the trace was asked for or the slow query log is on.
+     * @param type The search type.
+     * @param searchTerm The word to be searched for.
+     * @param traced Whether the trace is attached to the result.
+     * @return The SearchResult with files, count, and elapsed time.
+     */
+    private SearchResult match(SearchType type, String searchTerm, boolean traced) {
+        long startTime = System.nanoTime();
+        long slowQueryNanos = this.slowQueryNanos;
+        QueryTrace trace = traced || slowQueryNanos != SLOW_QUERY_LOG_DISABLED
+                ? new QueryTrace(startTime) : QueryTrace.DISABLED;
+        SearchResult result;
+        switch (type) {
+            case STRING:
+                result = stringMatch(searchTerm, trace);
+                break;
+            case REGEX:
+                result = regexMatch(searchTerm, trace);
+                break;
+            case INDEXED:
+                result = indexedMatch(searchTerm, trace);
+                break;
+            case MEMORY_INDEX:
+                result = memoryIndexMatch(searchTerm, trace);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported search type: " + type);
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+        metrics.recordSearch(type, elapsedNanos);
+        if (slowQueryNanos != SLOW_QUERY_LOG_DISABLED && elapsedNanos >= slowQueryNanos) {
+            SLOW_QUERY_LOGGER.log(Level.WARNING, String.format(Locale.ROOT, "Slow %s search for \"%s\" took %.3f ms: %s",
+                    type, searchTerm, elapsedNanos / 1e6, trace));
+        }
+        return traced ? result.withTrace(trace) : result;
+    }
 
     /**
      * This method launches the simple string match operation.
@@ -47,52 +612,44 @@ public class SearchServiceImpl implements SearchServiceInterface {
      * @return The SearchResult with files, count, and elapsed time.
      */
     public SearchResult performStringMatch(String searchTerm) {
-        String[] searchToken = searchTerm.split(" ");
-        SearchResult result = stringMatch(searchToken, new SearchResult());
-        return result;
+        return match(SearchType.STRING, searchTerm, false);
+    }
+
+    /**
+     * Helper Method
+     * Returns the cached plan for a string match, splitting and case-folding
+     * the search tokens on a cache miss.
+     * @param searchTerm The word or phrase (token) to be searched for.
+     * @return The QueryPlan with the folded search tokens.
+     */
+    private QueryPlan stringPlan(String searchTerm) {
+        QueryPlan plan = queryPlanCache.get(SearchType.STRING, searchTerm);
+        if (plan == null) {
+            plan = QueryPlan.forString(ByteTokenizer.foldTokens(searchTerm.split(" ")));
+            queryPlanCache.put(SearchType.STRING, searchTerm, plan);
+        }
+        return plan;
     }
 
     /**
      * Helper Method
      * Contains the logic associated with performing the simple string
      * matching search operation.
-     * @param searchToken The word or phrase (token) to be searched for.
-     * @param result An empty result to be updated.
+     * @param searchTerm The word or phrase (token) to be searched for.
+     * @param trace The trace of the search.
      * @return A SearchResult with the total number of matches per file.
      */
-    private SearchResult stringMatch(String[] searchToken, SearchResult result) {
-        startTime = Instant.now();
-        Scanner scanner = null;
-        for (File file: fileList) {
-            int count = 0;
-            try {
-                scanner = new Scanner(file);
-                while (scanner.hasNext()) {
-                    if (scanner.next().equalsIgnoreCase(searchToken[0])) {
-                        int tokenCount = 1;
-                        if (searchToken.length != 1) {
-                              for (int i=1; i < searchToken.length; i++) {
-                                  if (scanner.next().equalsIgnoreCase(searchToken[i])) {
-                                      tokenCount++;
-                                  }
-                              }
-                          }
-
-                        if (tokenCount == searchToken.length) {
-                            count++;
-                        }
-                    }
-                }
-            } catch (FileNotFoundException e) {
-                LOGGER.log(Level.WARNING, "File is not found: ", e);
-            } finally {
-                scanner.close();
-            }
-            result.addSearchResult(file.toString(), count);
-        }
-        endTime = Instant.now();
-        result.setElapsedTime(Duration.between(startTime, endTime).toMillis());
-        return result;
+    private SearchResult stringMatch(String searchTerm, QueryTrace trace) {
+        QueryPlan plan = stringPlan(searchTerm);
+        trace.mark("plan");
+        long startTime = System.nanoTime();
+        final byte[][] foldedToken = plan.getFoldedTokens();
+        CorpusState state = this.state;
+        int[] counts = parallelScanner.scan(state.mappedFiles, guarded((file, region, from) ->
+                ByteTokenizer.countRegionMatches(file.getRegion(region), from, file.getRegionEnd(region), foldedToken)),
+                ResultBuffer.scratchCounts(state.mappedFiles.size()));
+        trace.mark("scan");
+        return scanResult(state, counts, startTime, trace);
     }
 
     /**
@@ -101,8 +658,34 @@ public class SearchServiceImpl implements SearchServiceInterface {
      * @return The SearchResult with files, count, and elapsed time.
      */
     public SearchResult performRegexMatch(String searchTerm) {
-        SearchResult result = regexMatch(searchTerm, new SearchResult());
-        return result;
+        return match(SearchType.REGEX, searchTerm, false);
+    }
+
+    /**
+     * Helper Method
+     * Returns the cached plan for a regex match, compiling the Pattern on a
+     * cache miss.
+     * @param searchTerm The word to be searched for.
+     * @return The QueryPlan with the compiled Pattern.
+     */
+    private QueryPlan regexPlan(String searchTerm) {
+        QueryPlan plan = queryPlanCache.get(SearchType.REGEX, searchTerm);
+        if (plan == null) {
+            plan = QueryPlan.forRegex(compileRegex(searchTerm));
+            queryPlanCache.put(SearchType.REGEX, searchTerm, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Helper Method
+     * Compiles the case-insensitive whole-word Pattern of a regex match.
+     * @param searchTerm The word to be searched for.
+     * @return The compiled Pattern.
+     */
+    private Pattern compileRegex(String searchTerm) {
+        String escaped = escapeCharacters(searchTerm);
+        return Pattern.compile("\\b" + escaped + "\\b", Pattern.CASE_INSENSITIVE);
     }
 
     /**
@@ -110,40 +693,217 @@ public class SearchServiceImpl implements SearchServiceInterface {
      * Contains the logic associated with performing the regex expression
      * matching search operation.
      * @param searchTerm The word to be searched for.
-     * @param result An empty result to be updated.
+     * @param trace The trace of the search.
      * @return A SearchResult with the total number of matches per file.
      */
-    private SearchResult regexMatch(String searchTerm, SearchResult result) {
-        // Instantiate regex util objects
-        String escaped = escapeCharacters(searchTerm);
-        Pattern pattern = Pattern.compile("\\b" + escaped + "\\b", Pattern.CASE_INSENSITIVE);
-        Matcher matcher;
-
-        startTime = Instant.now();
-        Scanner scanner = null;
-        for (File file: fileList) {
+    private SearchResult regexMatch(String searchTerm, QueryTrace trace) {
+        final Pattern pattern = regexPlan(searchTerm).getPattern();
+        trace.mark("plan");
+        long startTime = System.nanoTime();
+        // NOTE: The Matcher runs over the mapped bytes of each region instead
+        // of creating a Scanner and a String per line
+        CorpusState state = this.state;
+        int[] counts = parallelScanner.scan(state.mappedFiles, guarded((file, region, from) -> {
+            Matcher matcher = pattern.matcher(file.getChars(region));
+            int end = file.getCharsEnd(region);
             int count = 0;
+            int matchEnd = 0;
+            boolean found = matcher.find(from);
+            while (found && matcher.start() < end) {
+                count++;
+                matchEnd = matcher.end();
+                found = matcher.find();
+            }
+            return ParallelScanner.counted(count, matchEnd - end);
+        }), ResultBuffer.scratchCounts(state.mappedFiles.size()));
+        trace.mark("scan");
+        return scanResult(state, counts, startTime, trace);
+    }
+
+    /**
+     * This method runs one search per term. A string or regex batch scans
+     * every region of every file once for all of its terms: string terms
+     * are matched together by a TokenAutomaton, and the regex terms run one
+     * after the other over the same region while it is loaded. Indexed
+     * searches run one term after the other.
+     * @param type The search type.
+     * @param searchTerms The words to be searched for.
+     * @return The SearchResult of every term, in the same order as the
+     *         terms, each with the elapsed time of the whole batch.
+     */
+    @Override
+    public List<SearchResult> performBatchMatch(SearchType type, List<String> searchTerms) {
+        if (type == SearchType.STRING) {
+            return stringBatchMatch(searchTerms);
+        } else if (type == SearchType.REGEX) {
+            return regexBatchMatch(searchTerms);
+        }
+        return SearchServiceInterface.super.performBatchMatch(type, searchTerms);
+    }
+
+    /**
+     * Helper Method
+     * Counts every string term in one pass over the files. The terms are
+     * folded directly rather than through the query plan cache so a large
+     * batch does not evict the plans of the interactive searches.
+     * @param searchTerms The words or phrases to be searched for.
+     * @return The SearchResult of every term.
+     */
+    private List<SearchResult> stringBatchMatch(List<String> searchTerms) {
+        long startTime = System.nanoTime();
+        List<byte[][]> foldedTerms = new ArrayList<>(searchTerms.size());
+        for (String searchTerm : searchTerms) {
+            foldedTerms.add(ByteTokenizer.foldTokens(searchTerm.split(" ")));
+        }
+        final TokenAutomaton automaton = new TokenAutomaton(foldedTerms);
+        CorpusState state = this.state;
+        int[][] counts = parallelScanner.scanBatch(state.mappedFiles, searchTerms.size(), guarded((file, region, from, regionCounts, overruns) ->
+                automaton.countMatches(file.getRegion(region), 0, file.getRegionEnd(region), from, regionCounts, overruns)));
+        return batchResults(state, counts, searchTerms.size(), startTime);
+    }
+
+    /**
+     * Helper Method
+     * Counts every regex term in one pass over the files.
+     * @param searchTerms The words to be searched for.
+     * @return The SearchResult of every term.
+     */
+    private List<SearchResult> regexBatchMatch(List<String> searchTerms) {
+        long startTime = System.nanoTime();
+        final Pattern[] patterns = new Pattern[searchTerms.size()];
+        for (int i = 0; i < patterns.length; i++) {
+            patterns[i] = compileRegex(searchTerms.get(i));
+        }
+        CorpusState state = this.state;
+        int[][] counts = parallelScanner.scanBatch(state.mappedFiles, patterns.length, guarded((file, region, from, regionCounts, overruns) -> {
+            CharSequence chars = file.getChars(region);
+            int end = file.getCharsEnd(region);
+            for (int term = 0; term < patterns.length; term++) {
+                Matcher matcher = patterns[term].matcher(chars);
+                boolean found = matcher.find(from[term]);
+                while (found && matcher.start() < end) {
+                    regionCounts[term]++;
+                    overruns[term] = Math.max(0, matcher.end() - end);
+                    found = matcher.find();
+                }
+            }
+        }));
+        return batchResults(state, counts, patterns.length, startTime);
+    }
+
+    /**
+     * Helper Method
+     * Counts nothing in a region whose file was truncated after it was
+     * mapped. The missing pages fault, which the JVM raises as an
+     * InternalError; the next state maps the file again.
+     * @param counter The counter of one region.
+     * @return The counter that survives truncated files.
+     */
+    private static ParallelScanner.RegionCounter guarded(ParallelScanner.RegionCounter counter) {
+        return (file, region, from) -> {
             try {
-                scanner = new Scanner(file);
-                while (scanner.hasNext()) {
-                    String scan = scanner.nextLine();
-                    matcher = pattern.matcher(scan);
-                    while (matcher.find()) {
-                        count++;
-                    }
+                return counter.count(file, region, from);
+            } catch (InternalError e) {
+                LOGGER.log(Level.WARNING, "File changed while it was scanned: " + file.getPath(), e);
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * Helper Method
+     * Counts nothing more in a region whose file was truncated after it
+     * was mapped, like guarded() does for a single term.
+     * @param counter The counter of one region.
+     * @return The counter that survives truncated files.
+     */
+    private static ParallelScanner.BatchRegionCounter guarded(ParallelScanner.BatchRegionCounter counter) {
+        return (file, region, from, counts, overruns) -> {
+            try {
+                counter.count(file, region, from, counts, overruns);
+            } catch (InternalError e) {
+                LOGGER.log(Level.WARNING, "File changed while it was scanned: " + file.getPath(), e);
+            }
+        };
+    }
+
+    /**
+     * Helper Method
+     * Turns the counts of a batch into one SearchResult per term.
+     * @param state The state whose files were scanned.
+     * @param counts The number of matches per file and term.
+     * @param terms The number of terms.
+     * @param startTime The System.nanoTime() when the batch started.
+     * @return The SearchResult of every term.
+     */
+    private List<SearchResult> batchResults(CorpusState state, int[][] counts, int terms, long startTime) {
+        long elapsedTime = elapsedMillis(startTime);
+        recordScan(state.mappedFiles);
+        List<SearchResult> batch = new ArrayList<>(terms);
+        int resultLimit = this.resultLimit;
+        boolean includeZeroCounts = this.includeZeroCounts;
+        ResultBuffer buffer = ResultBuffer.forCurrentThread(state.fileTable, resultLimit, includeZeroCounts);
+        for (int term = 0; term < terms; term++) {
+            buffer.clear();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i][term] != 0 || includeZeroCounts) {
+                    buffer.add(state.fileTable.intern(state.mappedFiles.get(i).getPath()), counts[i][term], 0);
                 }
-            } catch(FileNotFoundException e) {
-                LOGGER.log(Level.WARNING, "File is not found: ",e );
-            } finally {
-                scanner.close();
             }
-            result.addSearchResult(file.toString(), count);
+            batch.add(buffer.toSearchResult(state.fileTable, elapsedTime, resultLimit, includeZeroCounts));
         }
-        endTime = Instant.now();
-        result.setElapsedTime(Duration.between(startTime, endTime).toMillis());
+        return batch;
+    }
+
+    /**
+     * Helper Method
+     * Creates the SearchResult of a scan from the count of every file,
+     * keeping the most relevant results up to the result limit.
+     * @param state The state whose files were scanned.
+     * @param counts The number of matches per file.
+     * @param startTime The System.nanoTime() when the search started.
+     * @param trace The trace of the search.
+     * @return The SearchResult.
+     */
+    private SearchResult scanResult(CorpusState state, int[] counts, long startTime, QueryTrace trace) {
+        List<MappedFile> mappedFiles = state.mappedFiles;
+        recordScan(mappedFiles);
+        int resultLimit = this.resultLimit;
+        boolean includeZeroCounts = this.includeZeroCounts;
+        ResultBuffer buffer = ResultBuffer.forCurrentThread(state.fileTable, resultLimit, includeZeroCounts);
+        for (int i = 0; i < mappedFiles.size(); i++) {
+            if (counts[i] != 0 || includeZeroCounts) {
+                buffer.add(state.fileTable.intern(mappedFiles.get(i).getPath()), counts[i], 0);
+            }
+        }
+        SearchResult result = buffer.toSearchResult(state.fileTable, elapsedMillis(startTime), resultLimit, includeZeroCounts);
+        trace.mark("rank");
         return result;
     }
 
+    /**
+     * Helper Method
+     * Adds the files and bytes of one scan to the metrics.
+     * @param mappedFiles The files that were scanned.
+     */
+    private void recordScan(List<MappedFile> mappedFiles) {
+        long bytes = 0;
+        for (MappedFile file : mappedFiles) {
+            bytes += file.getSize();
+        }
+        metrics.recordScan(mappedFiles.size(), bytes);
+    }
+
+    /**
+     * Helper Method
+     * Converts the time since a search started into milliseconds.
+     * @param startTime The System.nanoTime() when the search started.
+     * @return The elapsed time in milliseconds.
+     */
+    private long elapsedMillis(long startTime) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
     /**
      * Helper Method
      * This method removes special characters in the search term in order for
@@ -184,52 +944,193 @@ public class SearchServiceImpl implements SearchServiceInterface {
      * @return The SearchResult with files, count, and elapsed time.
      */
     public SearchResult performIndexedMatch(String searchTerm) {
-        // Lucene Setup - Create data store and index documents
-        Directory indexDir = indexUtil.configureLucene(fileList);
-        SearchResult result = indexedMatch(searchTerm, indexDir, new SearchResult());
-        return result;
+        return match(SearchType.INDEXED, searchTerm, false);
     }
 
     /**
      * Helper Method
-     * Contains the logic associated with performing the regex expression
-     * matching search operation.
-     * @param searchTerm
-     * @param dir
-     * @param result
-     * @return
+     * Contains the logic associated with performing the indexed search
+     * operation against the shared searchers held by the
+     * ShardedIndexManager. The search fans out to every shard and the
+     * per-document results of the shards are merged into one SearchResult.
+     * @param searchTerm The word or phrase to be searched for.
+     * @param trace The trace of the search.
+     * @return A SearchResult with the total number of matches per file.
      */
-    private SearchResult indexedMatch(String searchTerm, Directory dir, SearchResult result) {
+    private SearchResult indexedMatch(String searchTerm, QueryTrace trace) {
+        if (indexManager == null) {
+            LOGGER.log(Level.WARNING, "Lucene index is not available.");
+            return EMPTY_RESULT;
+        }
+
         try {
+            QueryPlan plan = indexedPlan(searchTerm);
+            trace.mark("plan");
+            long startTime = System.nanoTime();
+            QueryTrace shardTrace = trace.isEnabled() ? new QueryTrace() : QueryTrace.DISABLED;
+            FileTable fileTable = state.fileTable;
+            int resultLimit = this.resultLimit;
+            boolean includeZeroCounts = this.includeZeroCounts;
+            // Every shard fills one of the calling thread's shard buffers, so
+            // each keeps at most about twice the limit
+            ResultBuffer[] shardBuffers = ResultBuffer.forShards(indexManager.getShardCount(), fileTable,
+                    resultLimit, includeZeroCounts);
+            AtomicInteger nextShard = new AtomicInteger();
+            List<ResultBuffer> shardResults = indexManager.search(searcher -> indexedShardMatch(searcher, plan,
+                    shardBuffers[nextShard.getAndIncrement()], fileTable, includeZeroCounts, shardTrace));
+            trace.mark("shards");
+            trace.addAll("shards.", shardTrace);
+            ResultBuffer buffer = ResultBuffer.forCurrentThread(fileTable, resultLimit, includeZeroCounts);
+            for (ResultBuffer shardResult : shardResults) {
+                buffer.addAll(shardResult);
+            }
+            trace.mark("merge");
+            SearchResult result = buffer.toSearchResult(fileTable, elapsedMillis(startTime), resultLimit, includeZeroCounts);
+            trace.mark("rank");
+            return result;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error using Lucene index operations: ", e);
+        } catch (ParseException e) {
+            LOGGER.log(Level.WARNING, "Error parsing query: ", e);
+        }
+        return EMPTY_RESULT;
+    }
+
+    /**
+     * Helper Method
+     * Searches one shard. The counts are read straight from the index
+     * postings, and the query scores every document as it is collected
+     * rather than filling a TopDocs as large as the shard; only the
+     * documents that are kept have their path read. When traced, the time
+     * spent reading the postings, scoring and collecting, and loading the
+     * stored paths is added to the trace of the shards.
+     * @param searcher The searcher of the shard.
+     * @param plan The plan with the parsed Query and the counting tokens.
+     * @param results The emptied buffer the results of the shard are
+     *                added to.
+     * @param fileTable The FileTable the paths are interned in.
+     * @param includeZeroCounts Whether documents without a match are kept.
+     * @param trace The trace the shards add their stages to.
+     * @return The results buffer, with the results of the shard.
+     * @throws IOException
+     */
+    private ResultBuffer indexedShardMatch(IndexSearcher searcher, QueryPlan plan, final ResultBuffer results,
+                                           final FileTable fileTable, final boolean includeZeroCounts,
+                                           QueryTrace trace) throws IOException {
+        long startTime = System.nanoTime();
+        IndexReader reader = searcher.getIndexReader();
+        final int[] counts = indexUtil.countMatches(reader, plan.getIndexTokens(), ResultBuffer.scratchCounts(reader.maxDoc()));
+        long countedTime = System.nanoTime();
+        final boolean traced = trace.isEnabled();
+        final long[] storedFieldNanos = new long[1];
+        searcher.search(plan.getQuery(), new SimpleCollector() {
+            private LeafReader leafReader;
+            private int docBase;
+            private Scorer scorer;
+
+            @Override
+            protected void doSetNextReader(LeafReaderContext context) {
+                leafReader = context.reader();
+                docBase = context.docBase;
+            }
+
+            @Override
+            public void setScorer(Scorer scorer) {
+                this.scorer = scorer;
+            }
+
+            @Override
+            public void collect(int doc) throws IOException {
+                int count = counts[docBase + doc];
+                if (count != 0 || includeZeroCounts) {
+                    long loadTime = traced ? System.nanoTime() : 0;
+                    Document d = leafReader.document(doc, FILEPATH_ONLY);
+                    if (traced) {
+                        storedFieldNanos[0] += System.nanoTime() - loadTime;
+                    }
+                    results.add(fileTable.intern(d.get(IndexUtil.FILEPATH_FIELD)), count, scorer.score());
+                }
+            }
+
+            @Override
+            public boolean needsScores() {
+                return true;
+            }
+        });
+        if (traced) {
+            trace.add("postings", countedTime - startTime);
+            trace.add("scoring", System.nanoTime() - countedTime - storedFieldNanos[0]);
+            trace.add("stored_fields", storedFieldNanos[0]);
+        }
+        return results;
+    }
+
+    /**
+     * Helper Method
+     * Returns the cached plan for an indexed match, parsing the Lucene query
+     * and analyzing the counting tokens on a cache miss.
+     * @param searchTerm The word or phrase to be searched for.
+     * @return The QueryPlan with the parsed Query and the counting tokens.
+     * @throws IOException
+     * @throws ParseException
+     */
+    private QueryPlan indexedPlan(String searchTerm) throws IOException, ParseException {
+        QueryPlan plan = queryPlanCache.get(SearchType.INDEXED, searchTerm);
+        if (plan == null) {
             // NOTE: QueryParser initializes the same Analyzer as IndexWriter so the
             // indexed search is tokenized the same way
-            QueryParser qp = new QueryParser("contents", new StandardAnalyzer(CharArraySet.EMPTY_SET));
+            QueryParser qp = new QueryParser(IndexUtil.CONTENTS_FIELD, new StandardAnalyzer(CharArraySet.EMPTY_SET));
             Query searchTermQuery = qp.parse(qp.escape(searchTerm));
             Query matchAllQuery = new BooleanQuery.Builder()
                     .add(new BooleanClause(new MatchAllDocsQuery(), BooleanClause.Occur.MUST))
                     .add(new BooleanClause(searchTermQuery, BooleanClause.Occur.SHOULD))
                     .build();
+            plan = QueryPlan.forIndexed(matchAllQuery, indexUtil.analyzeTokens(searchTerm));
+            queryPlanCache.put(SearchType.INDEXED, searchTerm, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * This method launches the in-memory index match operation.
+     * @param searchTerm The word to be searched for.
+     * @return The SearchResult with files, count, and elapsed time.
+     */
+    public SearchResult performMemoryIndexMatch(String searchTerm) {
+        return match(SearchType.MEMORY_INDEX, searchTerm, false);
+    }
+
+    /**
+     * Helper Method
+     * Contains the logic associated with performing the in-memory index
+     * search operation, which reads the counts from the positional
+     * postings instead of scanning the files.
+     * @param searchTerm The word or phrase to be searched for.
+     * @param trace The trace of the search.
+     * @return A SearchResult with the total number of matches per file.
+     */
+    private SearchResult memoryIndexMatch(String searchTerm, QueryTrace trace) {
+        CorpusState state = this.state;
+        InvertedIndex invertedIndex = state.invertedIndex;
+        if (invertedIndex == null) {
+            LOGGER.log(Level.WARNING, "In-memory index is not available.");
+            return EMPTY_RESULT;
+        }
 
-            // Lucene Setup - Create objects to search indexed documents
-            IndexReader reader = DirectoryReader.open(dir);
-            IndexSearcher searcher = new IndexSearcher(reader);
-            startTime = Instant.now();
-            TopDocs hits = searcher.search(matchAllQuery, MAX_DOCUMENTS_HIT);
-            endTime = Instant.now();
-            result.setElapsedTime(Duration.between(startTime, endTime).toMillis());
-
-            // NOTE - Lucene does not support count per document
-            System.out.println("\n--- Document Search Results ---");
-            for (ScoreDoc sd: hits.scoreDocs) {
-                Document d = searcher.doc(sd.doc);
-                System.out.println(d.get("filepath") + ": Score: " + sd.score);
-                result.addSearchResult(d.get("filepath"), ((int) sd.score));
+        long startTime = System.nanoTime();
+        int documents = invertedIndex.getDocumentCount();
+        int[] counts = invertedIndex.countMatches(searchTerm, ResultBuffer.scratchCounts(documents));
+        trace.mark("postings");
+        int resultLimit = this.resultLimit;
+        boolean includeZeroCounts = this.includeZeroCounts;
+        ResultBuffer buffer = ResultBuffer.forCurrentThread(state.fileTable, resultLimit, includeZeroCounts);
+        for (int docId = 0; docId < documents; docId++) {
+            if (counts[docId] != 0 || (includeZeroCounts && !invertedIndex.isDeleted(docId))) {
+                buffer.add(state.fileTable.intern(invertedIndex.getFilePath(docId)), counts[docId], 0);
             }
-        } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "Error using Lucene index operations: ", e);
-        } catch (ParseException e) {
-            LOGGER.log(Level.WARNING, "Error parsing query: ", e);
         }
+        SearchResult result = buffer.toSearchResult(state.fileTable, elapsedMillis(startTime), resultLimit, includeZeroCounts);
+        trace.mark("rank");
         return result;
     }
 }
@@ -1,11 +1,21 @@
 package service;
 
+import enums.SearchType;
 import models.SearchResult;
+import util.SearchMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * The SearchServiceInterface defines the different search operations
  * that can be performed in this application.
  *
+ * Implementations must be safe to call from several threads at once, and
+ * the SearchResult each search returns must not change after it is
+ * returned, so one service instance can be shared by a pool of request
+ * threads.
+ *
  * @author Tanya Wanwatanakool
  * @since 2020-06-25
  */
@@ -17,4 +27,71 @@ public interface SearchServiceInterface {
     SearchResult performRegexMatch(String searchTerm);
 
     SearchResult performIndexedMatch(String searchTerm);
+
+    SearchResult performMemoryIndexMatch(String searchTerm);
+
+    /**
+     * Returns a number that increases whenever the searched files or the
+     * index behind them change, so results computed under one generation
+     * can be reused until it moves on.
+     * @return The current generation of the searchable content.
+     */
+    long getGeneration();
+
+    /**
+     * Returns the metrics the service records its searches into.
+     * @return The SearchMetrics, or null if the service keeps none.
+     */
+    default SearchMetrics getMetrics() {
+        return null;
+    }
+
+    /**
+     * This method runs the search operation of the given search type.
+     * @param type The search type.
+     * @param searchTerm The word to be searched for.
+     * @return The SearchResult with files, count, and elapsed time.
+     */
+    default SearchResult performMatch(SearchType type, String searchTerm) {
+        switch (type) {
+            case STRING:
+                return performStringMatch(searchTerm);
+            case REGEX:
+                return performRegexMatch(searchTerm);
+            case INDEXED:
+                return performIndexedMatch(searchTerm);
+            case MEMORY_INDEX:
+                return performMemoryIndexMatch(searchTerm);
+            default:
+                throw new IllegalArgumentException("Unsupported search type: " + type);
+        }
+    }
+
+    /**
+     * This method runs the search operation of the given search type and
+     * attaches a QueryTrace with the time spent in each of its stages. By
+     * default the search runs untraced and its result has no trace.
+     * @param type The search type.
+     * @param searchTerm The word to be searched for.
+     * @return The SearchResult, with its trace if the service traces searches.
+     */
+    default SearchResult performTracedMatch(SearchType type, String searchTerm) {
+        return performMatch(type, searchTerm);
+    }
+
+    /**
+     * This method runs one search of the given type per term. By default
+     * the terms are searched one after the other; implementations that
+     * scan the files override it to search every term in one pass.
+     * @param type The search type.
+     * @param searchTerms The words to be searched for.
+     * @return The SearchResult of every term, in the same order as the terms.
+     */
+    default List<SearchResult> performBatchMatch(SearchType type, List<String> searchTerms) {
+        List<SearchResult> results = new ArrayList<>(searchTerms.size());
+        for (String searchTerm : searchTerms) {
+            results.add(performMatch(type, searchTerm));
+        }
+        return results;
+    }
 }
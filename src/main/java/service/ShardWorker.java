@@ -0,0 +1,215 @@
+package service;
+
+import models.SearchRequest;
+import models.SearchResult;
+import util.DirectoryCorpusSource;
+import util.MappedFile;
+import util.SearchProtocol;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The ShardWorker serves one shard of the corpus to a SearchCoordinator. It
+ * listens on a localhost port and answers the SearchProtocol requests of
+ * each connection with the SearchServiceInterface it wraps, one request
+ * at a time per connection, and tells the coordinator its generation when
+ * asked. Connections beyond the configured limit are closed right away so
+ * the coordinator fails over to another replica.
+ *
+ * Run it as its own process with main(). Start each worker from its own
+ * working directory, because the Lucene index is kept relative to it.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class ShardWorker implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(ShardWorker.class.getName());
+    public static final int DEFAULT_MAX_CONNECTIONS = 64;
+
+    private final SearchServiceInterface searchService;
+    private final ServerSocket serverSocket;
+    private final ThreadPoolExecutor handlers;
+    private final Thread acceptThread;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * Creates a new ShardWorker listening on the loopback address.
+     * @param searchService The service that runs the searches of this shard.
+     * @param port The port to listen on, 0 to pick a free port.
+     * @param maxConnections The largest number of connections served at once.
+     * @throws IOException
+     */
+    public ShardWorker(SearchServiceInterface searchService, int port, int maxConnections) throws IOException {
+        this.searchService = searchService;
+        this.serverSocket = new ServerSocket(port, maxConnections, InetAddress.getLoopbackAddress());
+        this.handlers = new ThreadPoolExecutor(0, maxConnections, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "shard-worker-connection");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.acceptThread = new Thread(this::acceptConnections, "shard-worker-accept");
+        this.acceptThread.setDaemon(true);
+    }
+
+    /**
+     * Starts accepting connections.
+     */
+    public void start() {
+        acceptThread.start();
+    }
+
+    /**
+     * Returns the port.
+     * @return The port the worker listens on.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Blocks until the worker is closed.
+     * @throws InterruptedException
+     */
+    public void awaitClose() throws InterruptedException {
+        acceptThread.join();
+    }
+
+    /**
+     * Stops accepting connections and closes the ones being served.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : connections) {
+            closeQuietly(socket);
+        }
+        handlers.shutdownNow();
+    }
+
+    /**
+     * Helper Method
+     * Accepts connections until the worker is closed and hands each one to
+     * a handler thread.
+     */
+    private void acceptConnections() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    LOGGER.log(Level.WARNING, "Error accepting connection: ", e);
+                }
+                continue;
+            }
+            try {
+                handlers.execute(() -> serve(socket));
+            } catch (RejectedExecutionException e) {
+                LOGGER.log(Level.WARNING, "Too many connections, closing " + socket.getRemoteSocketAddress());
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    /**
+     * Helper Method
+     * Answers the requests of one connection until the coordinator closes it.
+     * @param socket The connection.
+     */
+    private void serve(Socket socket) {
+        connections.add(socket);
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            SearchRequest request;
+            while (!closed && (request = SearchProtocol.readRequest(in)) != null) {
+                SearchResult result;
+                long generation = searchService.getGeneration();
+                if (request == SearchProtocol.GENERATION_REQUEST) {
+                    SearchProtocol.writeGeneration(out, generation);
+                    continue;
+                }
+                try {
+                    result = searchService.performMatch(request.getSearchType(), request.getSearchTerm());
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Error running search: ", e);
+                    SearchProtocol.writeError(out, e.toString());
+                    continue;
+                }
+                SearchProtocol.writeResult(out, result, generation);
+            }
+        } catch (SocketException e) {
+            // The connection was closed by the coordinator or by close()
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Error serving connection: ", e);
+        } finally {
+            connections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * Helper Method
+     * Closes a socket, ignoring errors.
+     * @param socket The socket to close.
+     */
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing left to clean up
+        }
+    }
+
+    /**
+     * Launches a shard worker process that serves the files under the given
+     * directories.
+     * @param args The port, followed by one or more directories.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: ShardWorker <port> <directory>...");
+            System.exit(1);
+        }
+        List<Path> directories = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            directories.add(Paths.get(args[i]));
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        SearchServiceImpl searchService = new SearchServiceImpl(new DirectoryCorpusSource(directories),
+                threads, MappedFile.DEFAULT_REGION_SIZE);
+        ShardWorker worker = new ShardWorker(searchService, Integer.parseInt(args[0]), DEFAULT_MAX_CONNECTIONS);
+        worker.start();
+        System.out.println("Shard worker listening on port " + worker.getPort());
+        worker.awaitClose();
+    }
+}
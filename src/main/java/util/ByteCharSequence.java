@@ -0,0 +1,57 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The ByteCharSequence lets a regular expression run over the bytes of a
+ * (memory-mapped) file without decoding them into a String. Every byte is
+ * read as one ISO-8859-1 character, which is exact for ASCII text; the
+ * bytes of multi-byte UTF-8 characters would show up as separate
+ * characters, so MappedFile only uses it for regions that are pure ASCII.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class ByteCharSequence implements CharSequence {
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int length;
+
+    /**
+     * Creates a new ByteCharSequence over a range of the buffer.
+     * @param buffer The bytes of the file.
+     * @param offset The offset of the first byte in the sequence.
+     * @param length The number of bytes in the sequence.
+     */
+    public ByteCharSequence(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (buffer.get(offset + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new ByteCharSequence(buffer, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,144 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The ByteTokenizer counts word and phrase matches directly over the bytes
+ * of a (memory-mapped) file. Tokens are split on whitespace like Scanner
+ * does and compared case-insensitively against search tokens that were
+ * case-folded once up front, so no String is created for the words that
+ * are read.
+ *
+ * Only ASCII letters are case-folded and only ASCII whitespace separates
+ * tokens; multi-byte UTF-8 characters are compared byte for byte.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public final class ByteTokenizer {
+
+    private ByteTokenizer() { }
+
+    /**
+     * This method encodes the search tokens as UTF-8 and case-folds the
+     * ASCII letters so they can be compared against the file bytes.
+     * @param searchToken The word or phrase (token) to be searched for.
+     * @return The folded bytes of every token.
+     */
+    public static byte[][] foldTokens(String[] searchToken) {
+        byte[][] folded = new byte[searchToken.length][];
+        for (int i = 0; i < searchToken.length; i++) {
+            folded[i] = searchToken[i].getBytes(StandardCharsets.UTF_8);
+            for (int j = 0; j < folded[i].length; j++) {
+                folded[i][j] = fold(folded[i][j]);
+            }
+        }
+        return folded;
+    }
+
+    /**
+     * This method counts the occurrences of the folded tokens whose first
+     * word starts between start (inclusive) and end (exclusive). A phrase
+     * that starts in the range may run past end up to the buffer's limit.
+     * @param buffer The bytes of the file.
+     * @param start The offset of the first byte to scan.
+     * @param end The offset after the last byte a match may start at.
+     * @param tokens The folded tokens returned by foldTokens().
+     * @return The number of matches.
+     */
+    public static int countMatches(ByteBuffer buffer, int start, int end, byte[][] tokens) {
+        return (int) countRegionMatches(buffer, start, end, tokens);
+    }
+
+    /**
+     * This method counts the occurrences of the folded tokens like
+     * countMatches(), and also reports how far the last match ran past end.
+     * @param buffer The bytes of the file.
+     * @param start The offset of the first byte to scan.
+     * @param end The offset after the last byte a match may start at.
+     * @param tokens The folded tokens returned by foldTokens().
+     * @return The number of matches and the overrun of the last one, packed
+     *         by ParallelScanner.counted().
+     */
+    public static long countRegionMatches(ByteBuffer buffer, int start, int end, byte[][] tokens) {
+        int limit = buffer.limit();
+        int count = 0;
+        int matchEnd = 0;
+        int pos = skipWhitespace(buffer, start, limit);
+        while (pos < end) {
+            int tokenEnd = findTokenEnd(buffer, pos, limit);
+            if (tokenEquals(buffer, pos, tokenEnd, tokens[0])) {
+                int next = tokenEnd;
+                boolean matched = true;
+                for (int i = 1; i < tokens.length && matched; i++) {
+                    int wordStart = skipWhitespace(buffer, next, limit);
+                    next = findTokenEnd(buffer, wordStart, limit);
+                    matched = tokenEquals(buffer, wordStart, next, tokens[i]);
+                }
+                if (matched) {
+                    count++;
+                    tokenEnd = next;
+                    matchEnd = next;
+                }
+            }
+            pos = skipWhitespace(buffer, tokenEnd, limit);
+        }
+        return ParallelScanner.counted(count, matchEnd - end);
+    }
+
+    /**
+     * Helper Method
+     * Returns the offset of the first non-whitespace byte at or after pos.
+     */
+    static int skipWhitespace(ByteBuffer buffer, int pos, int limit) {
+        while (pos < limit && isWhitespace(buffer.get(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Helper Method
+     * Returns the offset of the first whitespace byte at or after pos.
+     */
+    static int findTokenEnd(ByteBuffer buffer, int pos, int limit) {
+        while (pos < limit && !isWhitespace(buffer.get(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Helper Method
+     * Compares the bytes between start and end with a folded token.
+     */
+    private static boolean tokenEquals(ByteBuffer buffer, int start, int end, byte[] token) {
+        if (end - start != token.length || token.length == 0) {
+            return false;
+        }
+        for (int i = 0; i < token.length; i++) {
+            if (fold(buffer.get(start + i)) != token[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Helper Method
+     * Matches Character.isWhitespace for the ASCII range.
+     */
+    static boolean isWhitespace(byte b) {
+        return b == ' ' || (b >= 0x09 && b <= 0x0D) || (b >= 0x1C && b <= 0x1F);
+    }
+
+    /**
+     * Helper Method
+     * Lower-cases an ASCII letter and leaves every other byte unchanged.
+     */
+    static byte fold(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b | 0x20) : b;
+    }
+}
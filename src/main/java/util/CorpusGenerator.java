@@ -0,0 +1,210 @@
+package util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The CorpusGenerator writes synthetic text documents for measuring how the
+ * searches scale. Words are drawn from a generated vocabulary with Zipfian
+ * frequencies, so a few words are very common and most are rare, as in
+ * natural text, and given phrases can be embedded at a fixed rate so phrase
+ * searches have matches.
+ *
+ * The output only depends on the seed and the arguments: the vocabulary is
+ * generated from the seed, and each document from the seed and its number,
+ * so the same corpus can be written again on another machine.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class CorpusGenerator {
+    public static final int DEFAULT_VOCABULARY_SIZE = 50000;
+    public static final double DEFAULT_ZIPF_EXPONENT = 1.0;
+    private static final int MIN_WORD_LENGTH = 2;
+    private static final int MAX_WORD_LENGTH = 12;
+    private static final int WORDS_PER_LINE = 12;
+
+    private final long seed;
+    private final String[] vocabulary;
+    // The cumulative probability of the words up to each rank
+    private final double[] cumulative;
+
+    /**
+     * Creates a new CorpusGenerator with the default vocabulary size and a
+     * Zipf exponent of 1.
+     * @param seed The seed of the vocabulary and the documents.
+     */
+    public CorpusGenerator(long seed) {
+        this(seed, DEFAULT_VOCABULARY_SIZE, DEFAULT_ZIPF_EXPONENT);
+    }
+
+    /**
+     * Creates a new CorpusGenerator, where the word of rank r (starting at
+     * 1) occurs with a frequency proportional to 1 / r^zipfExponent.
+     * @param seed The seed of the vocabulary and the documents.
+     * @param vocabularySize The number of distinct words.
+     * @param zipfExponent How quickly the frequency falls with the rank.
+     */
+    public CorpusGenerator(long seed, int vocabularySize, double zipfExponent) {
+        if (vocabularySize < 1) {
+            throw new IllegalArgumentException("Vocabulary size must be at least 1: " + vocabularySize);
+        }
+        this.seed = seed;
+        vocabulary = new String[vocabularySize];
+        cumulative = new double[vocabularySize];
+
+        Random random = new Random(seed);
+        Set<String> seen = new HashSet<>();
+        double total = 0;
+        for (int rank = 0; rank < vocabularySize; rank++) {
+            String word;
+            do {
+                word = randomWord(random);
+            } while (!seen.add(word));
+            vocabulary[rank] = word;
+            total += 1 / Math.pow(rank + 1, zipfExponent);
+            cumulative[rank] = total;
+        }
+        for (int rank = 0; rank < vocabularySize; rank++) {
+            cumulative[rank] /= total;
+        }
+    }
+
+    /**
+     * Returns the word of a rank.
+     * @param rank The rank of the word, 0 for the most frequent.
+     * @return The word.
+     */
+    public String getWord(int rank) {
+        return vocabulary[rank];
+    }
+
+    /**
+     * Returns the number of distinct words.
+     * @return The vocabulary size.
+     */
+    public int getVocabularySize() {
+        return vocabulary.length;
+    }
+
+    /**
+     * This method returns the most frequent words of a given length.
+     * @param length The length of the words.
+     * @param count The largest number of words returned.
+     * @return The words, most frequent first.
+     */
+    public List<String> getWords(int length, int count) {
+        List<String> words = new ArrayList<>(count);
+        for (int rank = 0; rank < vocabulary.length && words.size() < count; rank++) {
+            if (vocabulary[rank].length() == length) {
+                words.add(vocabulary[rank]);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * This method writes documents of Zipfian words into a directory.
+     * @param directory The directory the documents are written to.
+     * @param documents The number of documents.
+     * @param documentBytes The size of each document.
+     * @return The number of bytes written.
+     * @throws IOException
+     */
+    public long generate(Path directory, int documents, int documentBytes) throws IOException {
+        return generate(directory, documents, documentBytes, Collections.<String>emptyList(), 0);
+    }
+
+    /**
+     * This method writes documents of Zipfian words into a directory,
+     * starting lines with one of the phrases at the given rate.
+     * @param directory The directory the documents are written to.
+     * @param documents The number of documents.
+     * @param documentBytes The size of each document.
+     * @param phrases The phrases to embed.
+     * @param phraseRate The probability of a line starting with a phrase.
+     * @return The number of bytes written.
+     * @throws IOException
+     */
+    public long generate(Path directory, int documents, int documentBytes, List<String> phrases, double phraseRate)
+            throws IOException {
+        Files.createDirectories(directory);
+        long bytes = 0;
+        for (int document = 0; document < documents; document++) {
+            Path file = directory.resolve(String.format("doc-%06d.txt", document));
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                bytes += writeDocument(writer, new Random(documentSeed(document)), documentBytes, phrases, phraseRate);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Helper Method
+     * Mixes the seed with the document number, so the documents of one
+     * seed share no stream with the documents of another.
+     */
+    private long documentSeed(int document) {
+        // The finalizer of SplitMix64, applied to the document's step
+        long z = seed + (document + 1L) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Helper Method
+     * Writes lines of words until the document has reached its size.
+     * @return The number of bytes written.
+     */
+    private int writeDocument(BufferedWriter writer, Random random, int documentBytes, List<String> phrases,
+                              double phraseRate) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int written = 0;
+        while (written < documentBytes) {
+            line.setLength(0);
+            if (!phrases.isEmpty() && random.nextDouble() < phraseRate) {
+                line.append(phrases.get(random.nextInt(phrases.size()))).append(' ');
+            }
+            for (int i = 0; i < WORDS_PER_LINE; i++) {
+                line.append(nextWord(random)).append(i + 1 < WORDS_PER_LINE ? ' ' : '\n');
+            }
+            writer.append(line);
+            // The words are ASCII, so every char is one byte
+            written += line.length();
+        }
+        return written;
+    }
+
+    /**
+     * Helper Method
+     * Draws a word with its Zipfian probability.
+     */
+    private String nextWord(Random random) {
+        int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+        if (rank < 0) {
+            rank = -rank - 1;
+        }
+        return vocabulary[Math.min(rank, vocabulary.length - 1)];
+    }
+
+    private static String randomWord(Random random) {
+        int length = MIN_WORD_LENGTH + random.nextInt(MAX_WORD_LENGTH - MIN_WORD_LENGTH + 1);
+        char[] word = new char[length];
+        for (int i = 0; i < length; i++) {
+            word[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(word);
+    }
+}
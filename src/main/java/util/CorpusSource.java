@@ -0,0 +1,25 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.stream.Stream;
+
+/**
+ * The CorpusSource supplies the documents to be indexed and searched. The
+ * files are produced lazily while the stream is consumed, so a corpus can
+ * be walked without first building a list of every file in it.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public interface CorpusSource {
+    /**
+     * Opens a new stream over the documents of the corpus. Every call starts
+     * over, so a changed corpus is picked up, and the stream must be closed
+     * once it has been consumed.
+     * @return The stream of files.
+     * @throws IOException
+     */
+    Stream<File> files() throws IOException;
+}
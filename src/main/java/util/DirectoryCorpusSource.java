@@ -0,0 +1,165 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The DirectoryCorpusSource walks one or more directory trees and supplies
+ * every regular file in them. The directories are read as the stream is
+ * consumed, one directory listing at a time.
+ *
+ * A directory that cannot be read, or that is deleted while it is walked,
+ * is logged and skipped rather than ending the walk, so one bad entry never
+ * loses the rest of the corpus. Symbolic links to directories below the
+ * walked directories are not followed.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class DirectoryCorpusSource implements CorpusSource {
+    private static final Logger LOGGER = Logger.getLogger(DirectoryCorpusSource.class.getName());
+
+    private final List<Path> directories;
+
+    /**
+     * Creates a new DirectoryCorpusSource.
+     * @param directories The directories to walk, including their subdirectories.
+     */
+    public DirectoryCorpusSource(List<Path> directories) {
+        this.directories = Collections.unmodifiableList(new ArrayList<>(directories));
+    }
+
+    /**
+     * Returns the directories.
+     * @return The directories that are walked.
+     */
+    public List<Path> getDirectories() {
+        return directories;
+    }
+
+    public Stream<File> files() {
+        FileIterator it = new FileIterator(directories.iterator());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(it::close);
+    }
+
+    /**
+     * The FileIterator walks the directory trees depth first, keeping one
+     * open directory listing per level.
+     */
+    private static final class FileIterator implements Iterator<File> {
+        private final Iterator<Path> roots;
+        private final Deque<DirectoryStream<Path>> listings = new ArrayDeque<>();
+        private final Deque<Iterator<Path>> entries = new ArrayDeque<>();
+        private File next;
+
+        private FileIterator(Iterator<Path> roots) {
+            this.roots = roots;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                Path path = nextPath();
+                if (path == null) {
+                    return false;
+                }
+                boolean root = entries.isEmpty();
+                if (root ? Files.isDirectory(path) : Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    openDirectory(path);
+                } else if (Files.isRegularFile(path)) {
+                    next = path.toFile();
+                } else if (root) {
+                    LOGGER.log(Level.WARNING, "Corpus directory does not exist: " + path);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public File next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            File file = next;
+            next = null;
+            return file;
+        }
+
+        /**
+         * Closes the directory listings that are still open.
+         */
+        private void close() {
+            while (!listings.isEmpty()) {
+                closeDirectory();
+            }
+        }
+
+        /**
+         * Helper Method
+         * Returns the next entry of the innermost open directory, or the
+         * next root once every directory is done.
+         * @return The next path, or null at the end of the walk.
+         */
+        private Path nextPath() {
+            while (!entries.isEmpty()) {
+                try {
+                    if (entries.peek().hasNext()) {
+                        return entries.peek().next();
+                    }
+                } catch (DirectoryIteratorException e) {
+                    LOGGER.log(Level.WARNING, "Error reading corpus directory: ", e.getCause());
+                }
+                closeDirectory();
+            }
+            return roots.hasNext() ? roots.next() : null;
+        }
+
+        /**
+         * Helper Method
+         * Opens the listing of a directory, skipping it if it cannot be read.
+         * @param directory The directory to walk into.
+         */
+        private void openDirectory(Path directory) {
+            try {
+                DirectoryStream<Path> listing = Files.newDirectoryStream(directory);
+                listings.push(listing);
+                entries.push(listing.iterator());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error reading corpus directory: ", e);
+            }
+        }
+
+        /**
+         * Helper Method
+         * Closes the innermost open directory listing.
+         */
+        private void closeDirectory() {
+            entries.pop();
+            try {
+                listings.pop().close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Error closing corpus directory: ", e);
+            }
+        }
+    }
+}
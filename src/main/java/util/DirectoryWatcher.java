@@ -0,0 +1,231 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The DirectoryWatcher keeps a set of directories under watch with a
+ * WatchService and notifies a listener whenever files are created, modified
+ * or deleted in them, passing on the paths that changed so the listener
+ * only has to update those. When the WatchService loses events (an
+ * overflow) the listener is told to rescan everything instead.
+ *
+ * Events are batched: the first event starts a commit interval, every event
+ * that arrives during it is folded into the same batch, and the listener is
+ * called once when it ends. A change is therefore passed on within the
+ * commit interval (plus the time the listener takes), and a burst of writes
+ * to many files costs one index update rather than one per file. The
+ * listener runs on the watcher's own thread, so searches are never blocked
+ * waiting for it.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class DirectoryWatcher implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(DirectoryWatcher.class.getName());
+    public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 1000;
+
+    private final long commitIntervalNanos;
+    private final ChangeListener listener;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    // The paths changed in the pending batch, or null after an overflow
+    private Set<Path> changedPaths = new LinkedHashSet<>();
+    private final Thread thread;
+    private final AtomicLong batchCount = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * The ChangeListener is told about every batch of changes.
+     */
+    public interface ChangeListener {
+        /**
+         * Called once per batch of changes.
+         * @param paths The files and directories that were created,
+         *              modified or deleted, or null if events were lost
+         *              and every directory has to be rescanned.
+         */
+        void changed(Set<Path> paths);
+    }
+
+    /**
+     * Creates a new DirectoryWatcher and registers every directory, and
+     * every directory below them, with the WatchService. Call start() to
+     * begin passing on changes.
+     * @param directories The directories to watch.
+     * @param commitIntervalMillis How long events are batched before the
+     *                             listener is called.
+     * @param listener Called after every batch of changes.
+     * @throws IOException
+     */
+    public DirectoryWatcher(List<Path> directories, long commitIntervalMillis,
+                            ChangeListener listener) throws IOException {
+        if (commitIntervalMillis < 0) {
+            throw new IllegalArgumentException("Commit interval must not be negative: " + commitIntervalMillis);
+        }
+        this.commitIntervalNanos = TimeUnit.MILLISECONDS.toNanos(commitIntervalMillis);
+        this.listener = listener;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        try {
+            for (Path directory : directories) {
+                registerAll(directory);
+            }
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+        thread = new Thread(this::watch, "directory-watcher");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Starts the thread that waits for events and calls the listener.
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Returns batchCount.
+     * @return The number of batches of changes passed on to the listener.
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * Stops watching the directories. A batch that is being passed on to
+     * the listener is allowed to finish.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+        thread.interrupt();
+    }
+
+    /**
+     * Helper Method
+     * Waits for events until the watcher is closed. The wait is cut short
+     * once a batch is pending so the listener is called when the commit
+     * interval ends even if no further event arrives.
+     */
+    private void watch() {
+        long batchStart = 0;
+        boolean pending = false;
+        try {
+            while (!closed) {
+                WatchKey key;
+                if (pending) {
+                    long remaining = commitIntervalNanos - (System.nanoTime() - batchStart);
+                    key = remaining > 0 ? watchService.poll(remaining, TimeUnit.NANOSECONDS) : watchService.poll();
+                } else {
+                    key = watchService.take();
+                }
+
+                if (key != null && processEvents(key) && !pending) {
+                    pending = true;
+                    batchStart = System.nanoTime();
+                }
+                if (pending && System.nanoTime() - batchStart >= commitIntervalNanos) {
+                    pending = false;
+                    passOnChanges();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // The watcher was closed
+        }
+    }
+
+    /**
+     * Helper Method
+     * Drains the events of one directory and registers any directory that
+     * was created in it.
+     * @param key The WatchKey of the directory that changed.
+     * @return True if a file may have been created, modified or deleted.
+     */
+    private boolean processEvents(WatchKey key) {
+        Path directory = watchedDirectories.get(key);
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            changed = true;
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                changedPaths = null;
+                continue;
+            }
+            Path child = directory.resolve((Path) event.context());
+            if (changedPaths != null) {
+                changedPaths.add(child);
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                try {
+                    registerAll(child);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Directory could not be watched: ", e);
+                }
+            }
+        }
+        if (!key.reset()) {
+            watchedDirectories.remove(key);
+        }
+        return changed;
+    }
+
+    /**
+     * Helper Method
+     * Calls the listener with the paths of the batch and starts a new one.
+     * A failing listener is logged so the watcher keeps running; the
+     * listener keeps track of the changes it could not apply.
+     */
+    private void passOnChanges() {
+        Set<Path> paths = changedPaths == null ? null : Collections.unmodifiableSet(changedPaths);
+        changedPaths = new LinkedHashSet<>();
+        try {
+            listener.changed(paths);
+            batchCount.incrementAndGet();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Error updating watched files: ", e);
+        }
+    }
+
+    /**
+     * Helper Method
+     * Registers a directory and every directory below it.
+     * @param start The directory to register.
+     * @throws IOException
+     */
+    private void registerAll(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                watchedDirectories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,150 @@
+package util;
+
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+
+/**
+ * The IndexManager owns the lifecycle of the Lucene index. The index is
+ * brought up to date once when the manager is created and a single long-lived
+ * SearcherManager hands out IndexSearchers to every query, so a search
+ * only pays for parsing and searching instead of rebuilding the index
+ * and reopening a reader.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class IndexManager implements Closeable {
+    private IndexUtil indexUtil;
+    private Directory indexDir;
+    private Path manifestPath;
+    private SearcherManager searcherManager;
+    private volatile long generation;
+
+    /**
+     * Creates a new IndexManager and brings the index up to date with the
+     * files of the corpus, only reindexing the files that changed since the
+     * index was last updated.
+     * @param corpus The files to be added to the index.
+     * @throws IOException
+     */
+    public IndexManager(CorpusSource corpus) throws IOException {
+        this(corpus, new IndexUtil());
+    }
+
+    /**
+     * Creates a new IndexManager that indexes with the given IndexUtil, so
+     * the indexing threads, RAM buffer and merge policy can be tuned.
+     * @param corpus The files to be added to the index.
+     * @param indexUtil The IndexUtil that builds and updates the index.
+     * @throws IOException
+     */
+    public IndexManager(CorpusSource corpus, IndexUtil indexUtil) throws IOException {
+        this(corpus, indexUtil, Paths.get(IndexUtil.INDEXED_FILES_PATH));
+    }
+
+    /**
+     * Creates a new IndexManager for the index at the given path, with its
+     * manifest kept next to it.
+     * @param corpus The files to be added to the index.
+     * @param indexUtil The IndexUtil that builds and updates the index.
+     * @param indexPath The directory of the index.
+     * @throws IOException
+     */
+    public IndexManager(CorpusSource corpus, IndexUtil indexUtil, Path indexPath) throws IOException {
+        this.indexUtil = indexUtil;
+        this.manifestPath = IndexUtil.manifestPathFor(indexPath);
+        indexDir = indexUtil.openIndexDirectory(indexPath);
+        indexUtil.updateIndex(indexDir, manifestPath, corpus);
+        searcherManager = new SearcherManager(indexDir, null);
+    }
+
+    /**
+     * Acquires the current IndexSearcher. Every call must be paired with
+     * release() once the search is done.
+     * @return The IndexSearcher over the latest refreshed index.
+     * @throws IOException
+     */
+    public IndexSearcher acquire() throws IOException {
+        return searcherManager.acquire();
+    }
+
+    /**
+     * Releases an IndexSearcher that was returned by acquire().
+     * @param searcher The searcher to be released.
+     * @throws IOException
+     */
+    public void release(IndexSearcher searcher) throws IOException {
+        searcherManager.release(searcher);
+    }
+
+    /**
+     * Reindexes the new and changed files, removes the deleted ones, and
+     * reopens the searcher so it picks up the changes. Queries that already
+     * hold a searcher keep using the old one until they release it.
+     * @param corpus The files the index should contain.
+     * @return The number of documents that were added, updated or deleted.
+     * @throws IOException
+     */
+    public synchronized int refresh(CorpusSource corpus) throws IOException {
+        int changes = indexUtil.updateIndex(indexDir, manifestPath, corpus);
+        if (changes > 0) {
+            searcherManager.maybeRefreshBlocking();
+            generation++;
+        }
+        return changes;
+    }
+
+    /**
+     * Brings only the given files up to date, as refresh() does for the
+     * whole corpus: the files that exist are reindexed if they changed and
+     * the ones that no longer exist are removed.
+     * @param files The files that may have been created, modified or
+     *              deleted.
+     * @return The number of documents that were added, updated or deleted.
+     * @throws IOException
+     */
+    public synchronized int refresh(Collection<File> files) throws IOException {
+        int changes = indexUtil.updateFiles(indexDir, manifestPath, files);
+        if (changes > 0) {
+            searcherManager.maybeRefreshBlocking();
+            generation++;
+        }
+        return changes;
+    }
+
+    /**
+     * Returns the generation.
+     * @return A number that increases every time a refresh changes the index.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns the throughput of the last time the index was built or
+     * updated.
+     * @return The IndexingStats, or null if the index was never updated.
+     */
+    public IndexingStats getIndexingStats() {
+        return indexUtil.getLastIndexingStats();
+    }
+
+    /**
+     * Closes the SearcherManager and the index directory.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        searcherManager.close();
+        indexDir.close();
+    }
+}
@@ -0,0 +1,225 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * The IndexManifest records the size, modification time and checksum of
+ * every file in the Lucene index. It is saved next to the index so an
+ * incremental update can tell which files are new, changed or deleted
+ * since the index was last committed.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class IndexManifest {
+    private static final int CHECKSUM_BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final Map<String, FileState> files = new HashMap<>();
+
+    /**
+     * Creates a new, empty IndexManifest.
+     * @param path The file the manifest is saved to.
+     */
+    public IndexManifest(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * This method loads a saved manifest, or returns an empty one if the
+     * manifest has not been saved yet.
+     * @param path The file the manifest is saved to.
+     * @return The IndexManifest.
+     * @throws IOException
+     */
+    public static IndexManifest load(Path path) throws IOException {
+        IndexManifest manifest = new IndexManifest(path);
+        if (!Files.exists(path)) {
+            return manifest;
+        }
+
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            properties.load(in);
+        }
+        for (String file : properties.stringPropertyNames()) {
+            String[] values = properties.getProperty(file).split(",");
+            if (values.length == 3) {
+                manifest.files.put(file, new FileState(Long.parseLong(values[0]),
+                        Long.parseLong(values[1]), Long.parseLong(values[2])));
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * This method saves the manifest. It is written to a temporary file
+     * first so a crash never leaves a half-written manifest behind.
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, FileState> entry : files.entrySet()) {
+            FileState state = entry.getValue();
+            properties.setProperty(entry.getKey(),
+                    state.getSize() + "," + state.getLastModified() + "," + state.getChecksum());
+        }
+
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempPath)) {
+            properties.store(out, "Files in the Lucene index: size,lastModified,checksum");
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the recorded state of a file.
+     * @param file The filepath of the document.
+     * @return The FileState, or null if the file is not in the index.
+     */
+    public FileState get(String file) {
+        return files.get(file);
+    }
+
+    /**
+     * Records the state of an indexed file.
+     * @param file The filepath of the document.
+     * @param state The size, modification time and checksum of the file.
+     */
+    public void put(String file, FileState state) {
+        files.put(file, state);
+    }
+
+    /**
+     * Removes a file that is no longer in the index.
+     * @param file The filepath of the document.
+     */
+    public void remove(String file) {
+        files.remove(file);
+    }
+
+    /**
+     * Removes every file from the manifest.
+     */
+    public void clear() {
+        files.clear();
+    }
+
+    /**
+     * Returns the recorded files.
+     * @return The filepaths of every document in the index.
+     */
+    public Set<String> getFiles() {
+        return files.keySet();
+    }
+
+    /**
+     * Returns whether the manifest has no files.
+     * @return True if no file has been recorded.
+     */
+    public boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    /**
+     * The FileState holds the size, modification time and checksum of a
+     * file when it was indexed.
+     */
+    public static class FileState {
+        private final long size;
+        private final long lastModified;
+        private final long checksum;
+
+        /**
+         * Creates a new FileState.
+         * @param size The size of the file in bytes.
+         * @param lastModified The modification time of the file.
+         * @param checksum The CRC32 checksum of the file contents.
+         */
+        public FileState(long size, long lastModified, long checksum) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+
+        /**
+         * This method reads the current state of a file, computing its
+         * checksum from the contents.
+         * @param file The file to be read.
+         * @return The FileState.
+         * @throws IOException
+         */
+        public static FileState read(File file) throws IOException {
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[CHECKSUM_BUFFER_SIZE];
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    crc.update(buffer, 0, n);
+                }
+            }
+            return new FileState(file.length(), file.lastModified(), crc.getValue());
+        }
+
+        /**
+         * This method builds the state of a file from contents that were
+         * already read, so the file does not have to be read twice.
+         * @param lastModified The modification time of the file, taken
+         *                     before the contents were read.
+         * @param contents The contents of the file.
+         * @return The FileState.
+         */
+        public static FileState of(long lastModified, byte[] contents) {
+            CRC32 crc = new CRC32();
+            crc.update(contents, 0, contents.length);
+            return new FileState(contents.length, lastModified, crc.getValue());
+        }
+
+        /**
+         * Returns whether the file still has the recorded size and
+         * modification time, in which case it is assumed to be unchanged
+         * without reading it.
+         * @param file The file to be checked.
+         * @return True if the size and modification time match.
+         */
+        public boolean matchesMetadata(File file) {
+            return size == file.length() && lastModified == file.lastModified();
+        }
+
+        /**
+         * Returns the size.
+         * @return The size of the file in bytes.
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Returns the lastModified.
+         * @return The modification time of the file.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Returns the checksum.
+         * @return The CRC32 checksum of the file contents.
+         */
+        public long getChecksum() {
+            return checksum;
+        }
+    }
+}
@@ -2,24 +2,62 @@ package util;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.util.CharTokenizer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.PostingsEnum;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 /**
  * The IndexUtil contains logic to configure the Lucene index (data store)
@@ -32,27 +70,482 @@ import java.util.logging.Logger;
 
 public class IndexUtil {
     private static final Logger LOGGER = Logger.getLogger(IndexUtil.class.getName());
-    private static final String INDEXED_FILES_PATH = "indexedFiles";
+    public static final String INDEXED_FILES_PATH = "indexedFiles";
+
+    public static final int DEFAULT_INDEX_THREADS = Runtime.getRuntime().availableProcessors();
+    public static final double DEFAULT_RAM_BUFFER_MB = 64;
+    private static final int QUEUE_CAPACITY_PER_THREAD = 64;
+    // Marks the end of the corpus in the queue of the indexing threads
+    private static final File END_OF_CORPUS = new File("");
+    // Returned by a FileTask for a file that did not need to be indexed
+    private static final long SKIPPED = -1;
+
+    public static final String FILEPATH_FIELD = "filepath";
+    public static final String CONTENTS_FIELD = "contents";
+    // Whitespace-split, case-folded copy of the contents used for match counts
+    public static final String TOKENS_FIELD = "tokens";
+
+    /**
+     * The analyzer for TOKENS_FIELD splits on ASCII whitespace and folds
+     * ASCII letters only, with the rules of ByteTokenizer, which the string
+     * match scans the file bytes with, so both report the same counts on
+     * any text. Other characters, like a no-break space or an accented
+     * capital, are kept as they are.
+     */
+    private static final Analyzer TOKENS_ANALYZER = new Analyzer() {
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            Tokenizer tokenizer = CharTokenizer.fromSeparatorCharPredicate(
+                    c -> c < 0x80 && ByteTokenizer.isWhitespace((byte) c),
+                    c -> c < 0x80 ? ByteTokenizer.fold((byte) c) : c);
+            return new TokenStreamComponents(tokenizer);
+        }
+    };
+
+    private final int indexThreads;
+    private final double ramBufferSizeMB;
+    private final MergePolicy mergePolicy;
+    private final Charset charset;
+    private final boolean storeContents;
+    private volatile IndexingStats lastIndexingStats;
+
+    /**
+     * The FileTask is the work the indexing pipeline does for one file.
+     */
+    private interface FileTask {
+        /**
+         * Indexes one file, or skips it if it does not need indexing.
+         * @param file The file to be indexed.
+         * @return The number of bytes indexed, or SKIPPED.
+         * @throws IOException
+         */
+        long index(File file) throws IOException;
+    }
+
+    /**
+     * Creates a new IndexUtil that indexes with one thread per core, the
+     * default RAM buffer and a TieredMergePolicy, streaming UTF-8 contents
+     * without storing them.
+     */
+    public IndexUtil() {
+        this(DEFAULT_INDEX_THREADS, DEFAULT_RAM_BUFFER_MB, new TieredMergePolicy());
+    }
+
+    /**
+     * Creates a new IndexUtil that streams UTF-8 contents without storing
+     * them.
+     * @param indexThreads The number of threads that read, analyze and add
+     *                     documents to the IndexWriter concurrently.
+     * @param ramBufferSizeMB How much RAM the IndexWriter buffers documents
+     *                        in before flushing a segment.
+     * @param mergePolicy How the IndexWriter merges segments. It is set on
+     *                    every IndexWriter this IndexUtil creates.
+     */
+    public IndexUtil(int indexThreads, double ramBufferSizeMB, MergePolicy mergePolicy) {
+        this(indexThreads, ramBufferSizeMB, mergePolicy, StandardCharsets.UTF_8, false);
+    }
+
+    /**
+     * Creates a new IndexUtil.
+     * @param indexThreads The number of threads that read, analyze and add
+     *                     documents to the IndexWriter concurrently.
+     * @param ramBufferSizeMB How much RAM the IndexWriter buffers documents
+     *                        in before flushing a segment.
+     * @param mergePolicy How the IndexWriter merges segments. It is set on
+     *                    every IndexWriter this IndexUtil creates.
+     * @param charset The charset the files are decoded with.
+     * @param storeContents Whether the full text is stored in the index.
+     *                      Stored contents have to be read into memory
+     *                      whole; otherwise each file is streamed through
+     *                      the analyzers and never held on the heap.
+     */
+    public IndexUtil(int indexThreads, double ramBufferSizeMB, MergePolicy mergePolicy,
+                     Charset charset, boolean storeContents) {
+        if (indexThreads < 1) {
+            throw new IllegalArgumentException("Number of index threads must be at least 1: " + indexThreads);
+        }
+        this.indexThreads = indexThreads;
+        this.ramBufferSizeMB = ramBufferSizeMB;
+        this.mergePolicy = mergePolicy;
+        this.charset = charset;
+        this.storeContents = storeContents;
+    }
+
+    /**
+     * This method opens the index (data store) in the local filesystem.
+     * @return The directory that holds the indexed documents.
+     * @throws IOException
+     */
+    public Directory openIndexDirectory() throws IOException {
+        return openIndexDirectory(Paths.get(INDEXED_FILES_PATH));
+    }
+
+    /**
+     * This method opens an index (data store) at the given path.
+     * @param indexPath The directory of the index.
+     * @return The directory that holds the indexed documents.
+     * @throws IOException
+     */
+    public Directory openIndexDirectory(Path indexPath) throws IOException {
+        return FSDirectory.open(indexPath);
+    }
+
+    /**
+     * Returns the path of the manifest kept next to an index.
+     * @param indexPath The directory of the index.
+     * @return The manifest file, named after the index directory.
+     */
+    public static Path manifestPathFor(Path indexPath) {
+        return indexPath.resolveSibling(indexPath.getFileName() + ".manifest");
+    }
+
+    /**
+     * Returns the path of the manifest kept next to an index on the
+     * filesystem.
+     * @param indexDir The directory of the index.
+     * @return The manifest file, named after the index directory.
+     * @throws IllegalArgumentException If the index is not stored in a
+     *                                  filesystem directory.
+     */
+    public static Path manifestPathFor(Directory indexDir) {
+        Directory unwrapped = FilterDirectory.unwrap(indexDir);
+        if (!(unwrapped instanceof FSDirectory)) {
+            throw new IllegalArgumentException("Index is not in a filesystem directory, its manifest path must be given: "
+                    + indexDir);
+        }
+        return manifestPathFor(((FSDirectory) unwrapped).getDirectory());
+    }
+
+    /**
+     * This method rebuilds the index from scratch so documents left over
+     * from a previous run (or another machine) are dropped, then closes
+     * the IndexWriter so searchers can be opened on the directory and
+     * saves the manifest of the indexed files next to the index. The files
+     * are indexed by the parallel indexing pipeline.
+     * @param indexDir The filesystem directory to write the index to.
+     * @param corpus The files to be added to the index.
+     * @return The number of documents added to the index.
+     * @throws IOException
+     */
+    public int buildIndex(Directory indexDir, CorpusSource corpus) throws IOException {
+        return buildIndex(indexDir, manifestPathFor(indexDir), corpus);
+    }
+
+    /**
+     * This method rebuilds an index from scratch, as buildIndex() does,
+     * keeping its manifest at the given path.
+     * @param indexDir The directory to write the index to.
+     * @param manifestPath The manifest of the index.
+     * @param corpus The files to be added to the index.
+     * @return The number of documents added to the index.
+     * @throws IOException
+     */
+    public int buildIndex(Directory indexDir, Path manifestPath, CorpusSource corpus) throws IOException {
+        IndexManifest manifest = new IndexManifest(manifestPath);
+        IndexWriter writer = createIndexWriter(indexDir, IndexWriterConfig.OpenMode.CREATE);
+        boolean committed = false;
+        try {
+            IndexingStats stats = indexCorpus(corpus, file -> {
+                IndexManifest.FileState state = indexDocument(writer, file, false);
+                synchronized (manifest) {
+                    manifest.put(file.toString(), state);
+                }
+                return state.getSize();
+            });
+            writer.close();
+            committed = true;
+            manifest.save();
+            return (int) stats.getDocuments();
+        } finally {
+            rollbackUnlessCommitted(writer, committed);
+        }
+    }
+
+    /**
+     * This method brings the index up to date with the files by comparing
+     * them against the manifest saved with the last update:
+     *      1. New files, and files whose size, modification time and then
+     *         checksum changed, are (re)indexed.
+     *      2. Files in the manifest that are no longer in the corpus are
+     *         deleted from the index.
+     *      3. Unchanged files are skipped without being read, unless only
+     *         their modification time changed, in which case the checksum
+     *         is compared before deciding.
+     * If there is no index or no manifest yet, the index is rebuilt. The
+     * files are checked and indexed by the parallel indexing pipeline. The
+     * manifest is kept next to the index.
+     * @param indexDir The filesystem directory to write the index to.
+     * @param corpus The files the index should contain.
+     * @return The number of documents that were added, updated or deleted.
+     * @throws IOException
+     */
+    public int updateIndex(Directory indexDir, CorpusSource corpus) throws IOException {
+        return updateIndex(indexDir, manifestPathFor(indexDir), corpus);
+    }
+
+    /**
+     * This method brings an index up to date with the files, as
+     * updateIndex() does, comparing them against the manifest at the
+     * given path.
+     * @param indexDir The directory to write the index to.
+     * @param manifestPath The manifest of the index.
+     * @param corpus The files the index should contain.
+     * @return The number of documents that were added, updated or deleted.
+     * @throws IOException
+     */
+    public int updateIndex(Directory indexDir, Path manifestPath, CorpusSource corpus) throws IOException {
+        IndexManifest manifest = IndexManifest.load(manifestPath);
+        if (manifest.isEmpty() || !DirectoryReader.indexExists(indexDir)) {
+            return buildIndex(indexDir, manifestPath, corpus);
+        }
+
+        IndexWriter writer = createIndexWriter(indexDir, IndexWriterConfig.OpenMode.APPEND);
+        Set<String> currentFiles = ConcurrentHashMap.newKeySet();
+        AtomicBoolean manifestChanged = new AtomicBoolean();
+        boolean committed = false;
+        try {
+            IndexingStats stats = indexCorpus(corpus, file -> {
+                currentFiles.add(file.toString());
+                return updateFile(writer, manifest, file, manifestChanged);
+            });
+
+            int changes = (int) stats.getDocuments();
+            for (String path : new HashSet<>(manifest.getFiles())) {
+                if (!currentFiles.contains(path)) {
+                    writer.deleteDocuments(new Term(FILEPATH_FIELD, path));
+                    manifest.remove(path);
+                    manifestChanged.set(true);
+                    changes++;
+                }
+            }
+            writer.close();
+            committed = true;
+
+            // Only record the new state once the index changes are committed
+            if (manifestChanged.get()) {
+                manifest.save();
+            }
+            LOGGER.log(Level.INFO, "Incremental index update changed " + changes + " of " + currentFiles.size() + " files.");
+            return changes;
+        } finally {
+            rollbackUnlessCommitted(writer, committed);
+        }
+    }
+
+    /**
+     * This method brings only the given files up to date in an index,
+     * without walking the rest of the corpus: a file that exists is
+     * (re)indexed if it is new or changed since the manifest recorded it,
+     * and a file that no longer exists is deleted from the index and the
+     * manifest. An index that does not exist yet is created.
+     * @param indexDir The directory to write the index to.
+     * @param manifestPath The manifest of the index.
+     * @param files The files that may have been created, modified or
+     *              deleted.
+     * @return The number of documents that were added, updated or deleted.
+     * @throws IOException
+     */
+    public int updateFiles(Directory indexDir, Path manifestPath, Collection<File> files) throws IOException {
+        IndexManifest manifest = IndexManifest.load(manifestPath);
+        List<File> existing = new ArrayList<>();
+        List<String> deleted = new ArrayList<>();
+        for (File file : files) {
+            if (file.isFile()) {
+                existing.add(file);
+            } else if (manifest.get(file.toString()) != null) {
+                deleted.add(file.toString());
+            }
+        }
+
+        IndexWriter writer = createIndexWriter(indexDir, IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        AtomicBoolean manifestChanged = new AtomicBoolean();
+        boolean committed = false;
+        try {
+            IndexingStats stats = indexCorpus(existing::stream,
+                    file -> updateFile(writer, manifest, file, manifestChanged));
+            for (String path : deleted) {
+                writer.deleteDocuments(new Term(FILEPATH_FIELD, path));
+                manifest.remove(path);
+                manifestChanged.set(true);
+            }
+            writer.close();
+            committed = true;
+
+            if (manifestChanged.get()) {
+                manifest.save();
+            }
+            return (int) stats.getDocuments() + deleted.size();
+        } finally {
+            rollbackUnlessCommitted(writer, committed);
+        }
+    }
+
+    /**
+     * Returns the lastIndexingStats.
+     * @return The throughput of the last run of the indexing pipeline, or
+     *         null if nothing has been indexed yet.
+     */
+    public IndexingStats getLastIndexingStats() {
+        return lastIndexingStats;
+    }
+
+    /**
+     * Helper Method
+     * Compares one file against the manifest and reindexes it if it is new
+     * or its contents changed. A file whose modification time changed but
+     * whose contents did not only has its manifest entry updated.
+     * @param writer The IndexWriter that adds documents to the index.
+     * @param manifest The manifest of the index, updated in place.
+     * @param file The file to be checked.
+     * @param manifestChanged Set when the manifest is changed.
+     * @return The number of bytes indexed, or SKIPPED.
+     * @throws IOException
+     */
+    private long updateFile(IndexWriter writer, IndexManifest manifest, File file,
+                            AtomicBoolean manifestChanged) throws IOException {
+        String path = file.toString();
+        IndexManifest.FileState indexed;
+        synchronized (manifest) {
+            indexed = manifest.get(path);
+        }
+        if (indexed != null && indexed.matchesMetadata(file)) {
+            return SKIPPED;
+        }
+
+        IndexManifest.FileState current = indexed == null ? null : IndexManifest.FileState.read(file);
+        boolean changed = current == null || indexed.getChecksum() != current.getChecksum()
+                || indexed.getSize() != current.getSize();
+        if (changed) {
+            current = indexDocument(writer, file, true);
+        }
+        synchronized (manifest) {
+            manifest.put(path, current);
+        }
+        manifestChanged.set(true);
+        return changed ? current.getSize() : SKIPPED;
+    }
+
+    /**
+     * Helper Method
+     * Runs the indexing pipeline over a corpus. The calling thread walks the
+     * corpus and hands the files through a bounded queue to the indexing
+     * threads, which read each file, build its document and add it to the
+     * shared IndexWriter concurrently (the IndexWriter analyzes a document
+     * on the thread that adds it). The first failure stops the walk and is
+     * rethrown once every indexing thread has finished.
+     * @param corpus The files to be indexed.
+     * @param task The work to do for each file.
+     * @return The throughput of the run.
+     * @throws IOException
+     */
+    private IndexingStats indexCorpus(CorpusSource corpus, FileTask task) throws IOException {
+        long startTime = System.nanoTime();
+        BlockingQueue<File> queue = new ArrayBlockingQueue<>(indexThreads * QUEUE_CAPACITY_PER_THREAD);
+        AtomicLong documents = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ExecutorService workers = Executors.newFixedThreadPool(indexThreads);
+        for (int i = 0; i < indexThreads; i++) {
+            workers.execute(() -> {
+                try {
+                    for (File file = queue.take(); file != END_OF_CORPUS; file = queue.take()) {
+                        // Keep draining after a failure so the walk is never blocked
+                        if (failure.get() != null) {
+                            continue;
+                        }
+                        try {
+                            long indexed = task.index(file);
+                            if (indexed != SKIPPED) {
+                                documents.incrementAndGet();
+                                bytes.addAndGet(indexed);
+                            }
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        try (Stream<File> files = corpus.files()) {
+            Iterator<File> it = files.iterator();
+            while (it.hasNext() && failure.get() == null) {
+                queue.put(it.next());
+            }
+        } catch (IOException | RuntimeException e) {
+            failure.compareAndSet(null, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, new InterruptedIOException("Indexing was interrupted."));
+        } finally {
+            stopWorkers(queue, workers);
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t != null) {
+            throw (Error) t;
+        }
+
+        lastIndexingStats = new IndexingStats(documents.get(), bytes.get(), System.nanoTime() - startTime, indexThreads);
+        LOGGER.log(Level.INFO, "Indexed " + lastIndexingStats);
+        return lastIndexingStats;
+    }
 
     /**
-     * This method configures Apache Lucene to index and search documents
-     * by performing the following steps:
-     *      1. Creating the index (data store) in the local filesystem.
-     *      2. Creating a IndexWriter to build the documents.
-     *      3. Indexing the documents to be searched.
-     * @param fileList The list of files to be added to the index.
-     * @return The directory with indexed documents to be searched.
+     * Helper Method
+     * Tells every indexing thread that the corpus has ended and waits for
+     * them to finish.
+     * @param queue The queue the indexing threads take files from.
+     * @param workers The indexing threads.
      */
-    public Directory configureLucene(List<File> fileList) {
-        Directory indexDir = null;
+    private void stopWorkers(BlockingQueue<File> queue, ExecutorService workers) {
+        boolean interrupted = false;
+        for (int i = 0; i < indexThreads; i++) {
+            while (true) {
+                try {
+                    queue.put(END_OF_CORPUS);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        workers.shutdown();
+        while (true) {
+            try {
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Helper Method
+     * Discards the uncommitted changes of an IndexWriter that failed, so a
+     * half-finished update never reaches the index or the manifest.
+     * @param writer The IndexWriter.
+     * @param committed Whether the changes were committed.
+     */
+    private void rollbackUnlessCommitted(IndexWriter writer, boolean committed) {
+        if (committed || !writer.isOpen()) {
+            return;
+        }
         try {
-            indexDir = FSDirectory.open(Paths.get(INDEXED_FILES_PATH));
-            IndexWriter writer = createIndexWriter(indexDir);
-            indexDocuments(writer, fileList);
+            writer.rollback();
         } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "Error using Lucene index operations: ", e);
+            LOGGER.log(Level.WARNING, "Error rolling back Lucene index: ", e);
         }
-        return indexDir;
     }
 
     /**
@@ -60,37 +553,225 @@ public class IndexUtil {
      * This method creates the IndexWriter object to be used to create
      * the index (data store) and add documents to the index.
      * @param dir The local directory that IndexWriter will write to.
+     * @param openMode Whether to append to or replace an existing index.
      * @return An IndexWriter.
      * @throws IOException
      */
-    private IndexWriter createIndexWriter(Directory dir) throws IOException {
+    private IndexWriter createIndexWriter(Directory dir, IndexWriterConfig.OpenMode openMode) throws IOException {
         // NOTE: StandardAnalyzer removes common words by default.
         // Initialize Analyzer with EMPTY_SET to prevent words from being filtered out
-        Analyzer analyzer = new StandardAnalyzer(CharArraySet.EMPTY_SET);
+        Map<String, Analyzer> fieldAnalyzers = Collections.singletonMap(TOKENS_FIELD, TOKENS_ANALYZER);
+        Analyzer analyzer = new PerFieldAnalyzerWrapper(new StandardAnalyzer(CharArraySet.EMPTY_SET), fieldAnalyzers);
         IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
-        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        iwc.setOpenMode(openMode);
+        iwc.setRAMBufferSizeMB(ramBufferSizeMB);
+        iwc.setMergePolicy(mergePolicy);
         IndexWriter writer = new IndexWriter(dir, iwc);
         return writer;
     }
 
     /**
      * Helper Method
-     * This method acquires content from the file resources to build
-     * documents to be added to the index.
+     * This method builds the document for one file and adds it to the
+     * index. When the index may already hold a document for the file it is
+     * replaced; a new index skips that lookup and only adds. Unless the
+     * contents are stored, the file is streamed through the analyzers, once
+     * per field, so no more than a read buffer of it is ever on the heap;
+     * its checksum is computed on the way.
+     * Safe to call from several threads at once.
      * @param writer The IndexWriter that adds documents to the index.
-     * @param files The list of files to build into document objects.
+     * @param file The file to build into a document object.
+     * @param replace Whether a document indexed before for the file is replaced.
+     * @return The state of the file that was indexed, for the manifest.
      * @throws IOException
      */
-    private void indexDocuments(IndexWriter writer, List<File> files) throws IOException {
-        for (File file : files) {
-            // map file contents into Document objects
-            Document doc = new Document();
-            doc.add(new StringField("filepath", file.toString(), Field.Store.YES));
-            doc.add(new TextField("contents", new String(Files.readAllBytes(file.toPath())), Field.Store.YES));
+    private IndexManifest.FileState indexDocument(IndexWriter writer, File file, boolean replace) throws IOException {
+        // Read the modification time first so a file changed while it is
+        // indexed is picked up again by the next update
+        long lastModified = file.lastModified();
+        long size = file.length();
+        Term id = new Term(FILEPATH_FIELD, file.toString());
+        Document doc = new Document();
+        doc.add(new StringField(FILEPATH_FIELD, file.toString(), Field.Store.YES));
+
+        if (storeContents) {
+            byte[] bytes = Files.readAllBytes(file.toPath());
+            String contents = new String(bytes, charset);
+            doc.add(new TextField(CONTENTS_FIELD, contents, Field.Store.YES));
+            doc.add(new TextField(TOKENS_FIELD, contents, Field.Store.NO));
+            writeDocument(writer, id, doc, replace);
+            return IndexManifest.FileState.of(lastModified, bytes);
+        }
 
-            // Writer adds each document to the "index"
-            writer.updateDocument(new Term("filepath", file.toString()), doc);
+        // NOTE: InputStreamReader replaces malformed input instead of failing
+        // the way Files.newBufferedReader does
+        CRC32 crc = new CRC32();
+        try (Reader contents = new InputStreamReader(
+                     new CheckedInputStream(Files.newInputStream(file.toPath()), crc), charset);
+             Reader tokens = new InputStreamReader(Files.newInputStream(file.toPath()), charset)) {
+            doc.add(new TextField(CONTENTS_FIELD, contents));
+            doc.add(new TextField(TOKENS_FIELD, tokens));
+            // The analyzers read both Readers to the end while the document is added
+            writeDocument(writer, id, doc, replace);
+        }
+        return new IndexManifest.FileState(size, lastModified, crc.getValue());
+    }
+
+    /**
+     * Helper Method
+     * Adds a document, or replaces the document with the same id.
+     * @param writer The IndexWriter that adds documents to the index.
+     * @param id The term that identifies the file's document.
+     * @param doc The document to be written.
+     * @param replace Whether a document with the same id is replaced.
+     * @throws IOException
+     */
+    private static void writeDocument(IndexWriter writer, Term id, Document doc, boolean replace) throws IOException {
+        if (replace) {
+            writer.updateDocument(id, doc);
+        } else {
+            writer.addDocument(doc);
+        }
+    }
+
+    /**
+     * This method counts the exact number of times the search term occurs in
+     * every document by reading the postings of TOKENS_FIELD. A single word
+     * uses the term frequency and a phrase is counted by checking that each
+     * word appears at the position right after the previous one.
+     * @param reader The reader over the indexed documents.
+     * @param searchTerm The word or phrase to be counted.
+     * @return The number of matches, indexed by document id.
+     * @throws IOException
+     */
+    public int[] countMatches(IndexReader reader, String searchTerm) throws IOException {
+        return countMatches(reader, analyzeTokens(searchTerm));
+    }
+
+    /**
+     * This method counts the exact number of times the tokens occur in order
+     * in every document.
+     * @param reader The reader over the indexed documents.
+     * @param tokens The tokens returned by analyzeTokens().
+     * @return The number of matches, indexed by document id.
+     * @throws IOException
+     */
+    public int[] countMatches(IndexReader reader, List<String> tokens) throws IOException {
+        return countMatches(reader, tokens, new int[reader.maxDoc()]);
+    }
+
+    /**
+     * This method counts the exact number of times the tokens occur in order
+     * in every document, into an array the caller provides.
+     * @param reader The reader over the indexed documents.
+     * @param tokens The tokens returned by analyzeTokens().
+     * @param counts The zeroed array the counts are written to, at least
+     *               reader.maxDoc() long.
+     * @return The counts array, with the number of matches indexed by
+     *         document id.
+     * @throws IOException
+     */
+    public int[] countMatches(IndexReader reader, List<String> tokens, int[] counts) throws IOException {
+        if (tokens.isEmpty()) {
+            return counts;
+        }
+
+        for (LeafReaderContext leaf : reader.leaves()) {
+            PostingsEnum[] postings = new PostingsEnum[tokens.size()];
+            boolean allTermsPresent = true;
+            for (int i = 0; i < postings.length && allTermsPresent; i++) {
+                postings[i] = leaf.reader().postings(new Term(TOKENS_FIELD, tokens.get(i)), PostingsEnum.POSITIONS);
+                allTermsPresent = postings[i] != null;
+            }
+            if (!allTermsPresent) {
+                continue;
+            }
+
+            // Leap-frog the postings so only documents with every word are visited
+            int doc = postings[0].nextDoc();
+            while (doc != DocIdSetIterator.NO_MORE_DOCS) {
+                int target = doc;
+                for (PostingsEnum p : postings) {
+                    if (p.docID() < target) {
+                        p.advance(target);
+                    }
+                    target = Math.max(target, p.docID());
+                }
+                if (target == DocIdSetIterator.NO_MORE_DOCS) {
+                    break;
+                }
+                if (target != doc) {
+                    doc = postings[0].advance(target);
+                    continue;
+                }
+
+                int count = postings.length == 1 ? postings[0].freq() : countPhrase(postings);
+                if (leaf.reader().getLiveDocs() == null || leaf.reader().getLiveDocs().get(doc)) {
+                    counts[leaf.docBase + doc] = count;
+                }
+                doc = postings[0].nextDoc();
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Helper Method
+     * Counts the non-overlapping occurrences of a phrase in the document
+     * every PostingsEnum is positioned on.
+     * @param postings One PostingsEnum per word of the phrase, in order.
+     * @return The number of times the phrase occurs.
+     * @throws IOException
+     */
+    private int countPhrase(PostingsEnum[] postings) throws IOException {
+        int[][] positions = new int[postings.length][];
+        for (int i = 0; i < postings.length; i++) {
+            positions[i] = new int[postings[i].freq()];
+            for (int j = 0; j < positions[i].length; j++) {
+                positions[i][j] = postings[i].nextPosition();
+            }
+        }
+
+        int count = 0;
+        int nextStart = 0;
+        int[] cursor = new int[postings.length];
+        for (int start : positions[0]) {
+            if (start < nextStart) {
+                continue;
+            }
+            boolean matched = true;
+            for (int i = 1; i < positions.length && matched; i++) {
+                int[] wordPositions = positions[i];
+                while (cursor[i] < wordPositions.length && wordPositions[cursor[i]] < start + i) {
+                    cursor[i]++;
+                }
+                matched = cursor[i] < wordPositions.length && wordPositions[cursor[i]] == start + i;
+            }
+            if (matched) {
+                count++;
+                nextStart = start + positions.length;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * This method splits the search term into the same tokens that were
+     * indexed into TOKENS_FIELD.
+     * @param searchTerm The word or phrase to be tokenized.
+     * @return The list of lower-cased tokens.
+     * @throws IOException
+     */
+    public List<String> analyzeTokens(String searchTerm) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        try (TokenStream stream = TOKENS_ANALYZER.tokenStream(TOKENS_FIELD, searchTerm)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                tokens.add(term.toString());
+            }
+            stream.end();
         }
-        writer.close();
+        return tokens;
     }
 }
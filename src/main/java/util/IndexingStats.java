@@ -0,0 +1,98 @@
+package util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The IndexingStats holds the throughput of one run of the indexing
+ * pipeline: how many documents and bytes were indexed, by how many
+ * threads, and how long it took.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class IndexingStats {
+    private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private final long documents;
+    private final long bytes;
+    private final long elapsedNanos;
+    private final int threads;
+
+    /**
+     * Creates a new IndexingStats.
+     * @param documents The number of documents indexed.
+     * @param bytes The number of bytes read from the indexed documents.
+     * @param elapsedNanos The duration of the run in nanoseconds.
+     * @param threads The number of indexing threads.
+     */
+    public IndexingStats(long documents, long bytes, long elapsedNanos, int threads) {
+        this.documents = documents;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+        this.threads = threads;
+    }
+
+    /**
+     * Returns documents.
+     * @return The number of documents indexed.
+     */
+    public long getDocuments() {
+        return documents;
+    }
+
+    /**
+     * Returns bytes.
+     * @return The number of bytes read from the indexed documents.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Returns elapsedNanos.
+     * @return The duration of the run in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the elapsed time.
+     * @return The duration of the run in milliseconds.
+     */
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * Returns threads.
+     * @return The number of indexing threads.
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns the document throughput.
+     * @return The number of documents indexed per second.
+     */
+    public double getDocumentsPerSecond() {
+        return elapsedNanos == 0 ? 0 : documents * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Returns the byte throughput.
+     * @return The number of megabytes indexed per second.
+     */
+    public double getMegabytesPerSecond() {
+        return elapsedNanos == 0 ? 0 : bytes / BYTES_PER_MEGABYTE * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d documents (%.1f MB) in %d ms with %d threads: %.0f docs/sec, %.1f MB/sec",
+                documents, bytes / BYTES_PER_MEGABYTE, getElapsedMillis(), threads,
+                getDocumentsPerSecond(), getMegabytesPerSecond());
+    }
+}
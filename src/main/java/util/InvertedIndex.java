@@ -0,0 +1,545 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * The InvertedIndex is a purpose-built, in-memory positional index used by
+ * the memory index search. Terms are interned into a dictionary of term ids,
+ * and each term keeps its postings in primitive int arrays: the documents it
+ * appears in and, for each document, the positions it appears at. Phrases
+ * are matched by intersecting the documents and then the positions.
+ *
+ * Documents are tokenized with the rules of ByteTokenizer, which the string
+ * match scans with: they are split on ASCII whitespace only and only ASCII
+ * letters are case-folded, so a no-break space or an accented capital is
+ * part of a token in both, and both searches return the same counts.
+ *
+ * An InvertedIndex never changes once it is built. update() returns a new
+ * index that shares the postings of the unchanged documents: the changed
+ * files are read into a new segment and their old documents are marked
+ * deleted, so an update costs about as much as the files that changed.
+ * Once there are too many segments or deleted documents, the segments are
+ * merged from their postings without reading any file again.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class InvertedIndex {
+    private static final int INITIAL_CAPACITY = 4;
+    private static final int MAX_SEGMENTS = 8;
+
+    private final Segment[] segments;
+    // Document id of the first document of every segment, then the total
+    private final int[] bases;
+    private final BitSet deleted;
+    private final int deletedCount;
+
+    /**
+     * Creates a new InvertedIndex over the given files.
+     * @param fileList The list of files to be indexed.
+     * @throws IOException
+     */
+    public InvertedIndex(List<File> fileList) throws IOException {
+        this(fileList::stream);
+    }
+
+    /**
+     * Creates a new InvertedIndex over the documents of a corpus, reading
+     * one file at a time as the corpus is streamed.
+     * @param corpus The corpus to be indexed.
+     * @throws IOException
+     */
+    public InvertedIndex(CorpusSource corpus) throws IOException {
+        this(new Segment[] {Segment.read(corpus)}, new BitSet(), 0);
+    }
+
+    private InvertedIndex(Segment[] segments, BitSet deleted, int deletedCount) {
+        this.segments = segments;
+        this.bases = new int[segments.length + 1];
+        for (int i = 0; i < segments.length; i++) {
+            bases[i + 1] = bases[i] + segments[i].paths.length;
+        }
+        this.deleted = deleted;
+        this.deletedCount = deletedCount;
+    }
+
+    /**
+     * This method returns an index in which the given files are brought up
+     * to date: files that still exist are read again, and the documents of
+     * files that no longer exist are removed. This index is left unchanged,
+     * so searches can keep using it until the new one replaces it.
+     * @param files The files that were added, changed or deleted.
+     * @return The updated InvertedIndex.
+     * @throws IOException If a file could not be read; nothing is updated.
+     */
+    public InvertedIndex update(Collection<File> files) throws IOException {
+        BitSet updatedDeleted = (BitSet) deleted.clone();
+        int updatedDeletedCount = deletedCount;
+        Map<String, File> existing = new LinkedHashMap<>();
+        for (File file : files) {
+            int docId = findDocument(file.toString());
+            if (docId >= 0 && !updatedDeleted.get(docId)) {
+                updatedDeleted.set(docId);
+                updatedDeletedCount++;
+            }
+            if (file.isFile()) {
+                existing.put(file.toString(), file);
+            }
+        }
+
+        Segment[] updated = segments;
+        if (!existing.isEmpty()) {
+            Segment added = Segment.read(existing.values()::stream);
+            updated = Arrays.copyOf(segments, segments.length + 1);
+            updated[segments.length] = added;
+        }
+        int documents = 0;
+        for (Segment segment : updated) {
+            documents += segment.paths.length;
+        }
+        if (updated.length > MAX_SEGMENTS || updatedDeletedCount * 2 > documents) {
+            return new InvertedIndex(new Segment[] {Segment.merge(updated, updatedDeleted)}, new BitSet(), 0);
+        }
+        return new InvertedIndex(updated, updatedDeleted, updatedDeletedCount);
+    }
+
+    /**
+     * Returns the number of document ids, including deleted documents.
+     * @return The number of documents, and the length of the counts of a search.
+     */
+    public int getDocumentCount() {
+        return bases[segments.length];
+    }
+
+    /**
+     * Returns whether a document was deleted or replaced by an update.
+     * @param docId The id of the document.
+     * @return True if the document is no longer in the index.
+     */
+    public boolean isDeleted(int docId) {
+        return deleted.get(docId);
+    }
+
+    /**
+     * Returns the file path of a document.
+     * @param docId The id of the document.
+     * @return The filepath of the document.
+     */
+    public String getFilePath(int docId) {
+        int segment = segmentOf(docId);
+        return segments[segment].paths[docId - bases[segment]];
+    }
+
+    /**
+     * This method counts the non-overlapping occurrences of the word or
+     * phrase in every document.
+     * @param searchTerm The word or phrase to be counted.
+     * @return The number of matches, indexed by document id.
+     */
+    public int[] countMatches(String searchTerm) {
+        return countMatches(searchTerm, new int[getDocumentCount()]);
+    }
+
+    /**
+     * This method counts the non-overlapping occurrences of the word or
+     * phrase in every document, into an array the caller provides. Deleted
+     * documents are left at 0.
+     * @param searchTerm The word or phrase to be counted.
+     * @param counts The zeroed array the counts are written to, at least
+     *               getDocumentCount() long.
+     * @return The counts array, with the number of matches indexed by
+     *         document id.
+     */
+    public int[] countMatches(String searchTerm, int[] counts) {
+        String[] tokens = searchTerm.split(" ");
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = fold(tokens[i]);
+        }
+        for (int i = 0; i < segments.length; i++) {
+            segments[i].countMatches(tokens, bases[i], counts);
+        }
+        for (int docId = deleted.nextSetBit(0); docId >= 0; docId = deleted.nextSetBit(docId + 1)) {
+            counts[docId] = 0;
+        }
+        return counts;
+    }
+
+    /**
+     * Helper Method
+     * Returns the id of the live document of a file.
+     * @param path The filepath of the document.
+     * @return The document id, or -1 if the file is not in the index.
+     */
+    private int findDocument(String path) {
+        for (int i = 0; i < segments.length; i++) {
+            Integer localId = segments[i].localIds.get(path);
+            if (localId != null && !deleted.get(bases[i] + localId)) {
+                return bases[i] + localId;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Helper Method
+     * Returns the segment that holds a document.
+     */
+    private int segmentOf(int docId) {
+        int segment = 0;
+        while (bases[segment + 1] <= docId) {
+            segment++;
+        }
+        return segment;
+    }
+
+    /**
+     * The Segment holds the postings of a group of documents that were
+     * indexed together, with document ids local to the segment.
+     */
+    private static final class Segment {
+        private String[] paths;
+        private final Map<String, Integer> localIds = new HashMap<>();
+        private final Map<String, Integer> termIds = new HashMap<>();
+
+        // Postings per term id: docs[t][i] is the i-th document of term t, and its
+        // positions are positions[t][offsets[t][i]] up to positions[t][offsets[t][i + 1]]
+        private int[][] docs;
+        private int[][] offsets;
+        private int[][] positions;
+
+        /**
+         * Helper Method
+         * Sets the paths of the documents once their postings are built.
+         */
+        private void setPaths(List<String> documentPaths) {
+            paths = documentPaths.toArray(new String[0]);
+            for (int i = 0; i < paths.length; i++) {
+                localIds.put(paths[i], i);
+            }
+        }
+
+        /**
+         * Helper Method
+         * Reads and indexes the documents of a corpus, one file at a time.
+         */
+        static Segment read(CorpusSource corpus) throws IOException {
+            Segment segment = new Segment();
+            PostingsBuilder builder = segment.new PostingsBuilder();
+            List<String> paths = new ArrayList<>();
+            try (Stream<File> files = corpus.files()) {
+                Iterator<File> it = files.iterator();
+                while (it.hasNext()) {
+                    File file = it.next();
+                    int docId = paths.size();
+                    paths.add(file.toString());
+                    String contents = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+                    segment.indexContents(builder, docId, contents);
+                }
+            }
+            builder.compact();
+            segment.setPaths(paths);
+            return segment;
+        }
+
+        /**
+         * Helper Method
+         * Merges the live documents of several segments into one, copying
+         * their postings in document order.
+         */
+        static Segment merge(Segment[] segments, BitSet deleted) {
+            List<String> paths = new ArrayList<>();
+            int[][] remap = new int[segments.length][];
+            int base = 0;
+            for (int i = 0; i < segments.length; i++) {
+                Segment segment = segments[i];
+                remap[i] = new int[segment.paths.length];
+                for (int local = 0; local < segment.paths.length; local++) {
+                    if (deleted.get(base + local)) {
+                        remap[i][local] = -1;
+                    } else {
+                        remap[i][local] = paths.size();
+                        paths.add(segment.paths[local]);
+                    }
+                }
+                base += segment.paths.length;
+            }
+
+            Segment merged = new Segment();
+            PostingsBuilder builder = merged.new PostingsBuilder();
+            for (int i = 0; i < segments.length; i++) {
+                Segment segment = segments[i];
+                for (Map.Entry<String, Integer> term : segment.termIds.entrySet()) {
+                    // A term is only interned once it has a live document
+                    int termId = -1;
+                    int[] termDocs = segment.docs[term.getValue()];
+                    int[] termOffsets = segment.offsets[term.getValue()];
+                    int[] termPositions = segment.positions[term.getValue()];
+                    for (int d = 0; d < termDocs.length; d++) {
+                        int docId = remap[i][termDocs[d]];
+                        if (docId < 0) {
+                            continue;
+                        }
+                        if (termId < 0) {
+                            termId = merged.internTerm(term.getKey());
+                        }
+                        for (int p = termOffsets[d]; p < termOffsets[d + 1]; p++) {
+                            builder.add(termId, docId, termPositions[p]);
+                        }
+                    }
+                }
+            }
+            builder.compact();
+            merged.setPaths(paths);
+            return merged;
+        }
+
+        /**
+         * Helper Method
+         * Counts the lower-cased tokens of a word or phrase in every
+         * document of the segment.
+         * @param tokens The lower-cased tokens of the search term.
+         * @param base The document id of the first document of the segment.
+         * @param counts The counts to be updated, indexed by document id.
+         */
+        void countMatches(String[] tokens, int base, int[] counts) {
+            int[] phrase = new int[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                Integer termId = termIds.get(tokens[i]);
+                if (termId == null) {
+                    return;
+                }
+                phrase[i] = termId;
+            }
+
+            if (phrase.length == 1) {
+                int[] termDocs = docs[phrase[0]];
+                int[] termOffsets = offsets[phrase[0]];
+                for (int i = 0; i < termDocs.length; i++) {
+                    counts[base + termDocs[i]] = termOffsets[i + 1] - termOffsets[i];
+                }
+            } else {
+                countPhrase(phrase, base, counts);
+            }
+        }
+
+        /**
+         * Helper Method
+         * Intersects the document lists of every word in the phrase and counts
+         * the phrase in each document they all share.
+         * @param phrase The term ids of the phrase, in order.
+         * @param base The document id of the first document of the segment.
+         * @param counts The counts to be updated, indexed by document id.
+         */
+        private void countPhrase(int[] phrase, int base, int[] counts) {
+            int[] cursor = new int[phrase.length];
+            int[] firstDocs = docs[phrase[0]];
+            for (cursor[0] = 0; cursor[0] < firstDocs.length; cursor[0]++) {
+                int doc = firstDocs[cursor[0]];
+                boolean inAll = true;
+                for (int i = 1; i < phrase.length && inAll; i++) {
+                    int[] termDocs = docs[phrase[i]];
+                    while (cursor[i] < termDocs.length && termDocs[cursor[i]] < doc) {
+                        cursor[i]++;
+                    }
+                    if (cursor[i] == termDocs.length) {
+                        return;
+                    }
+                    inAll = termDocs[cursor[i]] == doc;
+                }
+                if (inAll) {
+                    counts[base + doc] = countPhraseInDocument(phrase, cursor);
+                }
+            }
+        }
+
+        /**
+         * Helper Method
+         * Counts the non-overlapping occurrences of a phrase in one document by
+         * checking that each word appears right after the previous one.
+         * @param phrase The term ids of the phrase, in order.
+         * @param cursor The index of the shared document in each term's postings.
+         * @return The number of times the phrase occurs in the document.
+         */
+        private int countPhraseInDocument(int[] phrase, int[] cursor) {
+            int[] scan = new int[phrase.length];
+            int[] end = new int[phrase.length];
+            for (int i = 0; i < phrase.length; i++) {
+                scan[i] = offsets[phrase[i]][cursor[i]];
+                end[i] = offsets[phrase[i]][cursor[i] + 1];
+            }
+
+            int count = 0;
+            int nextStart = 0;
+            int[] firstPositions = positions[phrase[0]];
+            for (; scan[0] < end[0]; scan[0]++) {
+                int start = firstPositions[scan[0]];
+                if (start < nextStart) {
+                    continue;
+                }
+                boolean matched = true;
+                for (int i = 1; i < phrase.length && matched; i++) {
+                    int[] wordPositions = positions[phrase[i]];
+                    while (scan[i] < end[i] && wordPositions[scan[i]] < start + i) {
+                        scan[i]++;
+                    }
+                    matched = scan[i] < end[i] && wordPositions[scan[i]] == start + i;
+                }
+                if (matched) {
+                    count++;
+                    nextStart = start + phrase.length;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Helper Method
+         * Splits the contents on ASCII whitespace and adds a posting for
+         * every folded token.
+         * @param builder The builder collecting the postings.
+         * @param docId The id of the document being indexed.
+         * @param contents The text of the document.
+         */
+        private void indexContents(PostingsBuilder builder, int docId, String contents) {
+            int position = 0;
+            int start = -1;
+            for (int i = 0; i <= contents.length(); i++) {
+                boolean boundary = i == contents.length() || isWhitespace(contents.charAt(i));
+                if (boundary && start >= 0) {
+                    String token = fold(contents.substring(start, i));
+                    builder.add(internTerm(token), docId, position++);
+                    start = -1;
+                } else if (!boundary && start < 0) {
+                    start = i;
+                }
+            }
+        }
+
+        /**
+         * Helper Method
+         * Returns the id of a term, assigning the next id the first time the
+         * term is seen.
+         * @param term The folded term.
+         * @return The id of the term.
+         */
+        private int internTerm(String term) {
+            Integer termId = termIds.get(term);
+            if (termId == null) {
+                termId = termIds.size();
+                termIds.put(term, termId);
+            }
+            return termId;
+        }
+
+        /**
+         * The PostingsBuilder grows the postings arrays while documents are
+         * indexed in order, then trims them to size.
+         */
+        private class PostingsBuilder {
+            private int[][] docBuffer = new int[INITIAL_CAPACITY][];
+            private int[][] offsetBuffer = new int[INITIAL_CAPACITY][];
+            private int[][] positionBuffer = new int[INITIAL_CAPACITY][];
+            private int[] docCount = new int[INITIAL_CAPACITY];
+            private int[] positionCount = new int[INITIAL_CAPACITY];
+
+            /**
+             * Records that a term occurs in a document at a position. Documents
+             * must be added in increasing id order.
+             * @param termId The id of the term.
+             * @param docId The id of the document.
+             * @param position The position of the token in the document.
+             */
+            void add(int termId, int docId, int position) {
+                if (termId >= docCount.length) {
+                    int capacity = Math.max(termId + 1, docCount.length * 2);
+                    docBuffer = Arrays.copyOf(docBuffer, capacity);
+                    offsetBuffer = Arrays.copyOf(offsetBuffer, capacity);
+                    positionBuffer = Arrays.copyOf(positionBuffer, capacity);
+                    docCount = Arrays.copyOf(docCount, capacity);
+                    positionCount = Arrays.copyOf(positionCount, capacity);
+                }
+                if (docBuffer[termId] == null) {
+                    docBuffer[termId] = new int[INITIAL_CAPACITY];
+                    offsetBuffer[termId] = new int[INITIAL_CAPACITY + 1];
+                    positionBuffer[termId] = new int[INITIAL_CAPACITY];
+                }
+
+                int n = docCount[termId];
+                if (n == 0 || docBuffer[termId][n - 1] != docId) {
+                    if (n == docBuffer[termId].length) {
+                        docBuffer[termId] = Arrays.copyOf(docBuffer[termId], n * 2);
+                        offsetBuffer[termId] = Arrays.copyOf(offsetBuffer[termId], n * 2 + 1);
+                    }
+                    docBuffer[termId][n] = docId;
+                    offsetBuffer[termId][n] = positionCount[termId];
+                    docCount[termId] = n + 1;
+                }
+
+                int p = positionCount[termId];
+                if (p == positionBuffer[termId].length) {
+                    positionBuffer[termId] = Arrays.copyOf(positionBuffer[termId], p * 2);
+                }
+                positionBuffer[termId][p] = position;
+                positionCount[termId] = p + 1;
+            }
+
+            /**
+             * Trims every postings array to its final size and publishes them
+             * to the index.
+             */
+            void compact() {
+                int terms = termIds.size();
+                docs = new int[terms][];
+                offsets = new int[terms][];
+                positions = new int[terms][];
+                for (int t = 0; t < terms; t++) {
+                    int n = docCount[t];
+                    docs[t] = Arrays.copyOf(docBuffer[t], n);
+                    offsets[t] = Arrays.copyOf(offsetBuffer[t], n + 1);
+                    offsets[t][n] = positionCount[t];
+                    positions[t] = Arrays.copyOf(positionBuffer[t], positionCount[t]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper Method
+     * Whether a char splits tokens, like ByteTokenizer.isWhitespace().
+     */
+    private static boolean isWhitespace(char c) {
+        return c < 0x80 && ByteTokenizer.isWhitespace((byte) c);
+    }
+
+    /**
+     * Helper Method
+     * Lower-cases the ASCII letters of a token, like ByteTokenizer.fold().
+     */
+    private static String fold(String token) {
+        char[] chars = null;
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                if (chars == null) {
+                    chars = token.toCharArray();
+                }
+                chars[i] = (char) (c | 0x20);
+            }
+        }
+        return chars == null ? token : new String(chars);
+    }
+}
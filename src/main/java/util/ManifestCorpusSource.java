@@ -0,0 +1,38 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * The ManifestCorpusSource reads the documents from a manifest file that
+ * lists one file path per line. Blank lines and lines starting with '#' are
+ * skipped, and relative paths are resolved against the directory of the
+ * manifest. The manifest is read line by line as the stream is consumed.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class ManifestCorpusSource implements CorpusSource {
+    private final Path manifest;
+
+    /**
+     * Creates a new ManifestCorpusSource.
+     * @param manifest The file that lists the documents.
+     */
+    public ManifestCorpusSource(Path manifest) {
+        this.manifest = manifest;
+    }
+
+    public Stream<File> files() throws IOException {
+        Path baseDir = manifest.toAbsolutePath().getParent();
+        return Files.lines(manifest, StandardCharsets.UTF_8)
+                .map(String::trim)
+                .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                .map(line -> baseDir.resolve(line).toFile());
+    }
+}
@@ -0,0 +1,344 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The MappedFile holds a read-only memory mapping of a document so the
+ * string and regex searches can scan it repeatedly without opening or
+ * reading the file again. The buffers are only read with absolute gets, so
+ * one MappedFile can be scanned by several searches at the same time.
+ *
+ * Large files are mapped as several line-aligned regions so they can be
+ * scanned in parallel (and so files over 2 GB can be mapped at all). A line
+ * longer than a region is cut at other whitespace instead, and a region is
+ * only cut inside a token if the token is too long to map as one. Each
+ * region is mapped with a small tail past its end, which lets a match that
+ * starts in the region run across the cut into the next one.
+ *
+ * Every mapping takes one of the limited number of memory areas a process
+ * may have (vm.max_map_count on Linux, 65530 by default), so files smaller
+ * than MIN_MAPPED_SIZE are read into the heap once instead, where a copy
+ * costs less than a mapping, and the caller can ask for any other file to
+ * be read into the heap once its budget of mappings is spent. The regions
+ * of a file read into the heap behave exactly like mapped ones.
+ *
+ * Regular expressions see a region as characters. A region that is pure
+ * ASCII is viewed in place, one byte per character; a region with any byte
+ * of 0x80 or above is decoded as UTF-8 on every request instead, so a
+ * multi-byte character is one character to the pattern.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class MappedFile {
+    public static final int DEFAULT_REGION_SIZE = 16 * 1024 * 1024;
+    public static final int MIN_MAPPED_SIZE = 64 * 1024;
+    private static final int PHRASE_OVERLAP = 4096;
+    // The largest file that fits in one heap array
+    private static final long MAX_HEAP_SIZE = Integer.MAX_VALUE - 8;
+
+    private final String path;
+    private final long size;
+    // The whole file when it was read into the heap, or null if it is mapped
+    private final ByteBuffer heapBytes;
+    private final ByteBuffer[] regions;
+    private final int[] regionEnds;
+    private final ByteCharSequence[] chars;
+    private final AtomicLongArray charInfo;
+
+    /**
+     * Creates a new MappedFile using the default region size.
+     * @param file The file to be mapped.
+     * @throws IOException
+     */
+    public MappedFile(File file) throws IOException {
+        this(file, DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * Creates a new MappedFile by mapping the file into line-aligned regions
+     * of at most regionSize bytes.
+     * @param file The file to be mapped.
+     * @param regionSize The largest number of bytes in one region.
+     * @throws IOException
+     */
+    public MappedFile(File file, int regionSize) throws IOException {
+        this(file, regionSize, true);
+    }
+
+    /**
+     * Creates a new MappedFile split into line-aligned regions of at most
+     * regionSize bytes, either mapped or read into the heap.
+     * @param file The file to be mapped.
+     * @param regionSize The largest number of bytes in one region.
+     * @param map Whether the file may be mapped. Files smaller than
+     *            MIN_MAPPED_SIZE are read into the heap either way, and a
+     *            file too large for one heap array is mapped either way.
+     * @throws IOException
+     */
+    public MappedFile(File file, int regionSize, boolean map) throws IOException {
+        if (regionSize <= 0 || regionSize > Integer.MAX_VALUE - PHRASE_OVERLAP) {
+            throw new IllegalArgumentException("Region size is out of range: " + regionSize);
+        }
+        this.path = file.toString();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            boolean inHeap = (!map || size < MIN_MAPPED_SIZE) && size <= MAX_HEAP_SIZE;
+            this.heapBytes = inHeap ? readFully(channel, (int) size) : null;
+            if (inHeap) {
+                size = heapBytes.limit();
+            }
+            this.size = size;
+            int regionCount = (int) Math.max(1, (size + regionSize - 1) / regionSize);
+            ByteBuffer[] mapped = new ByteBuffer[regionCount];
+            int[] ends = new int[regionCount];
+
+            int n = 0;
+            long start = 0;
+            do {
+                if (n == mapped.length) {
+                    // Cutting at line breaks can leave a few more regions than estimated
+                    mapped = Arrays.copyOf(mapped, n * 2);
+                    ends = Arrays.copyOf(ends, n * 2);
+                }
+                long mapLength = Math.min(size - start, (long) regionSize + PHRASE_OVERLAP);
+                ByteBuffer region = map(channel, start, mapLength);
+                int end = (int) Math.min(mapLength, regionSize);
+                if (start + end < size) {
+                    int cut = findBreak(region, end);
+                    while (cut < 0 && start + mapLength < size && mapLength < Integer.MAX_VALUE) {
+                        // No whitespace in the region or its tail, so map
+                        // further until the token ends
+                        mapLength = Math.min(size - start, Math.min(2 * mapLength, Integer.MAX_VALUE));
+                        region = map(channel, start, mapLength);
+                        cut = findBreak(region, end);
+                    }
+                    if (cut < 0) {
+                        // The token runs to the end of the file, or is too
+                        // long to map as one region and has to be cut
+                        cut = start + mapLength == size ? (int) mapLength : Integer.MAX_VALUE - PHRASE_OVERLAP;
+                    }
+                    end = cut;
+                    long tailed = Math.min(size - start, (long) end + PHRASE_OVERLAP);
+                    if (tailed > mapLength) {
+                        mapLength = tailed;
+                        region = map(channel, start, mapLength);
+                    }
+                }
+                mapped[n] = region;
+                ends[n] = end;
+                n++;
+                start += end;
+            } while (start < size);
+
+            this.regions = Arrays.copyOf(mapped, n);
+            this.regionEnds = Arrays.copyOf(ends, n);
+        }
+
+        this.chars = new ByteCharSequence[regions.length];
+        for (int i = 0; i < regions.length; i++) {
+            chars[i] = new ByteCharSequence(regions[i], 0, regions[i].limit());
+        }
+        this.charInfo = new AtomicLongArray(regions.length);
+        for (int i = 0; i < regions.length; i++) {
+            charInfo.set(i, -1);
+        }
+    }
+
+    /**
+     * Helper Method
+     * Maps part of the file, or views that part of the heap copy.
+     * @param channel The open file.
+     * @param start The offset of the first byte.
+     * @param length The number of bytes.
+     * @return The bytes, from position 0 to the limit.
+     * @throws IOException
+     */
+    private ByteBuffer map(FileChannel channel, long start, long length) throws IOException {
+        if (heapBytes == null) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+        ByteBuffer view = heapBytes.duplicate();
+        view.position((int) start);
+        view.limit((int) (start + length));
+        return view.slice();
+    }
+
+    /**
+     * Helper Method
+     * Reads a whole file into a read-only heap buffer.
+     * @param channel The open file.
+     * @param size The size of the file.
+     * @return The bytes of the file.
+     * @throws IOException
+     */
+    private static ByteBuffer readFully(FileChannel channel, int size) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(size);
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, bytes.position()) < 0) {
+                // The file shrank since its size was read
+                break;
+            }
+        }
+        bytes.flip();
+        return bytes.asReadOnlyBuffer();
+    }
+
+    /**
+     * Helper Method
+     * Moves a region's end back to just after the last line break before
+     * it. If the region has no line break it is cut after the last
+     * whitespace, and if it has none either, after the first whitespace
+     * past it, so a token is never split between two regions.
+     * @param region The mapped bytes of the region.
+     * @param end The largest end of the region within its size.
+     * @return The end of the region, or -1 if the mapped bytes have no
+     *         whitespace at all.
+     */
+    private static int findBreak(ByteBuffer region, int end) {
+        int lastSpace = -1;
+        for (int i = end - 1; i >= 0; i--) {
+            byte b = region.get(i);
+            if (b == '\n') {
+                return i + 1;
+            }
+            if (lastSpace < 0 && ByteTokenizer.isWhitespace(b)) {
+                lastSpace = i;
+            }
+        }
+        if (lastSpace >= 0) {
+            return lastSpace + 1;
+        }
+        for (int i = end; i < region.limit(); i++) {
+            if (ByteTokenizer.isWhitespace(region.get(i))) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the path.
+     * @return The filepath of the document.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the size.
+     * @return The number of bytes in the file when it was mapped.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns whether the file is memory mapped.
+     * @return True if its regions are mappings, false if they are views of
+     *         a copy of the file in the heap.
+     */
+    public boolean isMapped() {
+        return heapBytes == null;
+    }
+
+    /**
+     * Returns the number of regions the file was mapped as.
+     * @return The number of regions.
+     */
+    public int getRegionCount() {
+        return regions.length;
+    }
+
+    /**
+     * Returns the mapped bytes of a region, including the tail that runs
+     * past the region's end.
+     * @param region The index of the region.
+     * @return The mapped bytes of the region.
+     */
+    public ByteBuffer getRegion(int region) {
+        return regions[region];
+    }
+
+    /**
+     * Returns the end of a region. Matches must start before this offset.
+     * @param region The index of the region.
+     * @return The number of bytes that belong to the region.
+     */
+    public int getRegionEnd(int region) {
+        return regionEnds[region];
+    }
+
+    /**
+     * Returns the characters of a region. Like getRegion(), they include the
+     * tail, so only matches that start before getCharsEnd() belong to the
+     * region. A region with non-ASCII bytes is decoded as UTF-8 on every call.
+     * @param region The index of the region.
+     * @return The characters of the region and its tail.
+     */
+    public CharSequence getChars(int region) {
+        if (isAscii(region)) {
+            return chars[region];
+        }
+        return StandardCharsets.UTF_8.decode(regions[region].duplicate());
+    }
+
+    /**
+     * Returns the end of a region in the characters returned by getChars().
+     * @param region The index of the region.
+     * @return The number of characters that belong to the region.
+     */
+    public int getCharsEnd(int region) {
+        return (int) charInfo(region);
+    }
+
+    /**
+     * Returns whether a region and its tail are pure ASCII, in which case
+     * its bytes and characters line up one to one.
+     * @param region The index of the region.
+     * @return True if no byte of the region is 0x80 or above.
+     */
+    public boolean isAscii(int region) {
+        return charInfo(region) >>> 32 != 0;
+    }
+
+    /**
+     * Helper Method
+     * Works out the character end of a region and whether it is ASCII the
+     * first time either is asked for. The character end is the length of
+     * the region's bytes as getChars() decodes them, so malformed UTF-8
+     * counts as the replacement characters it becomes. Racing threads
+     * compute the same value, so it is cached without a lock.
+     * @param region The index of the region.
+     * @return The character end, with bit 32 set if the region is ASCII.
+     */
+    private long charInfo(int region) {
+        long info = charInfo.get(region);
+        if (info >= 0) {
+            return info;
+        }
+        ByteBuffer bytes = regions[region];
+        boolean ascii = true;
+        for (int i = 0; i < bytes.limit() && ascii; i++) {
+            ascii = bytes.get(i) >= 0;
+        }
+        int chars = regionEnds[region];
+        if (!ascii) {
+            ByteBuffer owned = bytes.duplicate();
+            owned.limit(regionEnds[region]);
+            chars = StandardCharsets.UTF_8.decode(owned).remaining();
+        }
+        info = (ascii ? 1L << 32 : 0) | chars;
+        charInfo.set(region, info);
+        return info;
+    }
+}
@@ -0,0 +1,348 @@
+package util;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The ParallelScanner runs a count over every region of every mapped file
+ * and adds up the counts per file. With one thread the regions are scanned
+ * in order on the calling thread; with more threads they are fanned out on
+ * a ForkJoinPool so a query uses every core and its latency is bounded by
+ * the largest region instead of the sum of all files.
+ *
+ * The matches of a term do not overlap, so a phrase that runs across a
+ * region's end hides the matches that start under it in the next region.
+ * A counter reports how far its last match ran past the region's end (the
+ * overrun), and the next region is counted from there. The regions of a
+ * file are counted in parallel as if nothing ran into them, and the rare
+ * region whose predecessor did overrun is counted again afterwards.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class ParallelScanner implements Closeable {
+    private static final int TASKS_PER_THREAD = 8;
+
+    private final ForkJoinPool pool;
+    private volatile RegionNumbering lastNumbering;
+
+    /**
+     * The RegionCounter counts the matches that start in one region at or
+     * after from, and returns the count with the overrun of its last match,
+     * packed by ParallelScanner.counted().
+     */
+    public interface RegionCounter {
+        long count(MappedFile file, int region, int from);
+    }
+
+    /**
+     * The BatchRegionCounter counts the matches of several terms that start
+     * in one region, each at or after its own from offset. It adds them to
+     * counts and sets the overrun of the last match of every term.
+     */
+    public interface BatchRegionCounter {
+        void count(MappedFile file, int region, int[] from, int[] counts, int[] overruns);
+    }
+
+    /**
+     * Creates a new ParallelScanner.
+     * @param threads The number of threads to scan with, 1 to scan sequentially.
+     */
+    public ParallelScanner(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of scan threads must be at least 1: " + threads);
+        }
+        pool = threads == 1 ? null : new ForkJoinPool(threads);
+    }
+
+    /**
+     * Packs the result of a RegionCounter.
+     * @param count The number of matches in the region.
+     * @param overrun How far the last match ran past the region's end, in
+     *                the units of the region's offsets; 0 or less if it
+     *                ended within the region.
+     * @return The packed result.
+     */
+    public static long counted(int count, int overrun) {
+        return ((long) Math.max(0, overrun) << 32) | count;
+    }
+
+    /**
+     * This method counts the matches in every file.
+     * @param files The mapped files to be scanned.
+     * @param counter The count to run on each region.
+     * @return The number of matches, in the same order as files.
+     */
+    public int[] scan(List<MappedFile> files, RegionCounter counter) {
+        return scan(files, counter, new int[files.size()]);
+    }
+
+    /**
+     * This method counts the matches in every file into an array the caller
+     * provides, so a scan of files that all fit in one region allocates
+     * nothing that grows with the corpus once the region numbering of the
+     * files is cached.
+     * @param files The mapped files to be scanned.
+     * @param counter The count to run on each region.
+     * @param counts The zeroed array the counts are written to, at least as
+     *               long as files.
+     * @return The counts array, with the number of matches in the same
+     *         order as files.
+     */
+    public int[] scan(List<MappedFile> files, RegionCounter counter, int[] counts) {
+        if (pool == null) {
+            for (int i = 0; i < files.size(); i++) {
+                MappedFile file = files.get(i);
+                int from = 0;
+                for (int region = 0; region < file.getRegionCount(); region++) {
+                    long result = counter.count(file, region, from);
+                    counts[i] += (int) result;
+                    from = (int) (result >>> 32);
+                }
+            }
+            return counts;
+        }
+
+        // A file with a single region is only counted by one task; the
+        // results of the regions of a larger file are kept until every task
+        // is done, then chained in order
+        RegionNumbering numbering = numbering(files);
+        int[] firstRegion = numbering.firstRegion;
+        long[] results = numbering.spanningFiles.length == 0 ? null : new long[firstRegion[files.size()]];
+        pool.invoke(new ScanTask(files, (index, file, region) -> {
+            long result = counter.count(file, region, 0);
+            if (file.getRegionCount() == 1) {
+                counts[index] = (int) result;
+            } else {
+                results[firstRegion[index] + region] = result;
+            }
+        }, firstRegion, grain(firstRegion[files.size()]), 0, firstRegion[files.size()]));
+
+        for (int index : numbering.spanningFiles) {
+            MappedFile file = files.get(index);
+            int from = 0;
+            for (int region = 0; region < file.getRegionCount(); region++) {
+                long result = from == 0 ? results[firstRegion[index] + region] : counter.count(file, region, from);
+                counts[index] += (int) result;
+                from = (int) (result >>> 32);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * This method counts the matches of several terms in every file, so a
+     * batch of terms costs one pass over each region rather than one per term.
+     * @param files The mapped files to be scanned.
+     * @param terms The number of terms counted.
+     * @param counter The count to run on each region.
+     * @return The number of matches per file and term, in the same order as files.
+     */
+    public int[][] scanBatch(List<MappedFile> files, int terms, BatchRegionCounter counter) {
+        int[][] counts = new int[files.size()][terms];
+        int[] none = new int[terms];
+        if (pool == null) {
+            for (int i = 0; i < counts.length; i++) {
+                MappedFile file = files.get(i);
+                int[] from = none;
+                for (int region = 0; region < file.getRegionCount(); region++) {
+                    int[] overruns = new int[terms];
+                    counter.count(file, region, from, counts[i], overruns);
+                    from = overruns;
+                }
+            }
+            return counts;
+        }
+
+        // A single region counts straight into its file's row; the counts
+        // and overruns of the regions of a larger file are kept until every
+        // task is done, then chained in order
+        RegionNumbering numbering = numbering(files);
+        int[] firstRegion = numbering.firstRegion;
+        int[][] regionCounts = numbering.spanningFiles.length == 0 ? null : new int[firstRegion[files.size()]][];
+        int[][] regionOverruns = regionCounts == null ? null : new int[regionCounts.length][];
+        pool.invoke(new ScanTask(files, (index, file, region) -> {
+            if (file.getRegionCount() == 1) {
+                counter.count(file, region, none, counts[index], new int[terms]);
+                return;
+            }
+            int[] own = new int[terms];
+            int[] overruns = new int[terms];
+            counter.count(file, region, none, own, overruns);
+            regionCounts[firstRegion[index] + region] = own;
+            regionOverruns[firstRegion[index] + region] = overruns;
+        }, firstRegion, grain(firstRegion[files.size()]), 0, firstRegion[files.size()]));
+
+        for (int index : numbering.spanningFiles) {
+            MappedFile file = files.get(index);
+            int[] row = counts[index];
+            int[] from = none;
+            for (int region = 0; region < file.getRegionCount(); region++) {
+                int[] own = regionCounts[firstRegion[index] + region];
+                int[] overruns = regionOverruns[firstRegion[index] + region];
+                if (!isZero(from)) {
+                    own = new int[terms];
+                    overruns = new int[terms];
+                    counter.count(file, region, from, own, overruns);
+                }
+                for (int term = 0; term < terms; term++) {
+                    row[term] += own[term];
+                }
+                from = overruns;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Shuts down the threads of the scanner. Scans that are running finish,
+     * and the scanner must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Helper Method
+     * Picks how many regions a task scans without splitting further, so
+     * every thread still gets several tasks to balance the load with.
+     * @param regions The total number of regions.
+     * @return The number of regions per task.
+     */
+    private int grain(int regions) {
+        return Math.max(1, regions / (pool.getParallelism() * TASKS_PER_THREAD));
+    }
+
+    /**
+     * Helper Method
+     * Numbers every region so the work can be split evenly across files.
+     * The numbering of the last list of files scanned is kept, since the
+     * same list is scanned until the files are mapped again.
+     * @param files The mapped files to be scanned.
+     * @return The RegionNumbering of the files.
+     */
+    private RegionNumbering numbering(List<MappedFile> files) {
+        RegionNumbering numbering = lastNumbering;
+        if (numbering != null && numbering.files == files) {
+            return numbering;
+        }
+        int[] firstRegion = new int[files.size() + 1];
+        int spanning = 0;
+        for (int i = 0; i < files.size(); i++) {
+            int regions = files.get(i).getRegionCount();
+            firstRegion[i + 1] = firstRegion[i] + regions;
+            if (regions > 1) {
+                spanning++;
+            }
+        }
+        int[] spanningFiles = new int[spanning];
+        for (int i = 0, n = 0; i < files.size(); i++) {
+            if (files.get(i).getRegionCount() > 1) {
+                spanningFiles[n++] = i;
+            }
+        }
+        numbering = new RegionNumbering(files, firstRegion, spanningFiles);
+        lastNumbering = numbering;
+        return numbering;
+    }
+
+    /**
+     * Helper Method
+     * Returns whether no term ran past the end of the previous region.
+     */
+    private static boolean isZero(int[] overruns) {
+        for (int overrun : overruns) {
+            if (overrun != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The RegionNumbering pairs a list of files with its region numbers and
+     * the indexes of the files that span more than one region.
+     */
+    private static final class RegionNumbering {
+        private final List<MappedFile> files;
+        private final int[] firstRegion;
+        private final int[] spanningFiles;
+
+        RegionNumbering(List<MappedFile> files, int[] firstRegion, int[] spanningFiles) {
+            this.files = files;
+            this.firstRegion = firstRegion;
+            this.spanningFiles = spanningFiles;
+        }
+    }
+
+    /**
+     * The RegionVisitor scans one region of the file at the given index.
+     */
+    private interface RegionVisitor {
+        void visit(int index, MappedFile file, int region);
+    }
+
+    /**
+     * The ScanTask splits a range of regions in half until at most grain
+     * regions are left, then hands each of them to the visitor with the
+     * index of its file. Splitting into runs rather than single regions
+     * keeps the number of tasks a scan creates proportional to the number
+     * of threads instead of the number of regions.
+     */
+    private static class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<MappedFile> files;
+        private final RegionVisitor visitor;
+        private final int[] firstRegion;
+        private final int grain;
+        private final int from;
+        private final int to;
+
+        ScanTask(List<MappedFile> files, RegionVisitor visitor, int[] firstRegion, int grain, int from, int to) {
+            this.files = files;
+            this.visitor = visitor;
+            this.firstRegion = firstRegion;
+            this.grain = grain;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > grain) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ScanTask(files, visitor, firstRegion, grain, from, mid),
+                        new ScanTask(files, visitor, firstRegion, grain, mid, to));
+                return;
+            }
+            if (to == from) {
+                return;
+            }
+
+            // Find the file that owns the first region of the run
+            int lo = 0;
+            int hi = files.size() - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (firstRegion[mid] <= from) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            for (int region = from; region < to; region++) {
+                while (firstRegion[lo + 1] <= region) {
+                    lo++;
+                }
+                visitor.visit(lo, files.get(lo), region - firstRegion[lo]);
+            }
+        }
+    }
+}
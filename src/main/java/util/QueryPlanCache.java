@@ -0,0 +1,174 @@
+package util;
+
+import enums.SearchType;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The QueryPlanCache is a bounded, least-recently-used cache of compiled
+ * query plans (split tokens, regex Patterns, parsed Lucene Queries) keyed by
+ * the search type and the normalized search term, so repeated searches for
+ * the same term skip recompiling them. Regex and indexed terms are keyed
+ * exactly, since the case of an escape such as \s or \S, or of a query
+ * operator such as AND or NOT, changes what the term means. Hits,
+ * misses and evictions are counted so the cache can be sized.
+ *
+ * @param <V> The type of the cached query plan.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class QueryPlanCache<V> {
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private final Map<Key, V> plans;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Creates a new QueryPlanCache.
+     * @param maxEntries The largest number of plans kept before the least
+     *                   recently used one is evicted.
+     */
+    public QueryPlanCache(final int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Query plan cache must hold at least 1 entry: " + maxEntries);
+        }
+        plans = new LinkedHashMap<Key, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, V> eldest) {
+                if (size() > maxEntries) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached plan for a search, and counts it as a hit or miss.
+     * @param type The search type the plan was compiled for.
+     * @param searchTerm The search term.
+     * @return The cached plan, or null if it has to be compiled.
+     */
+    public V get(SearchType type, String searchTerm) {
+        V plan;
+        synchronized (plans) {
+            plan = plans.get(new Key(type, searchTerm));
+        }
+        if (plan == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return plan;
+    }
+
+    /**
+     * Adds a compiled plan to the cache.
+     * @param type The search type the plan was compiled for.
+     * @param searchTerm The search term.
+     * @param plan The compiled plan.
+     */
+    public void put(SearchType type, String searchTerm, V plan) {
+        synchronized (plans) {
+            plans.put(new Key(type, searchTerm), plan);
+        }
+    }
+
+    /**
+     * Returns the number of cached plans.
+     * @return The number of plans.
+     */
+    public int size() {
+        synchronized (plans) {
+            return plans.size();
+        }
+    }
+
+    /**
+     * Returns hitCount.
+     * @return The number of lookups that found a cached plan.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Returns missCount.
+     * @return The number of lookups that had to compile a plan.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Returns evictionCount.
+     * @return The number of plans evicted to stay within the size bound.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Helper Method
+     * Every search mode compares ASCII letters case-insensitively, so terms
+     * that only differ in ASCII case share one plan. Other characters are
+     * kept as they are because the searches compare them exactly. Regex
+     * terms are not normalized, because a regex term is part of a pattern
+     * and \s and \S, \w and \W or \b and \B are different escapes. Nor are
+     * indexed terms, because the query parser reads AND, OR and NOT as
+     * operators only in upper case.
+     * @param type The search type.
+     * @param searchTerm The search term.
+     * @return The normalized search term.
+     */
+    private static String normalize(SearchType type, String searchTerm) {
+        if (type == SearchType.REGEX || type == SearchType.INDEXED) {
+            return searchTerm;
+        }
+        char[] chars = null;
+        for (int i = 0; i < searchTerm.length(); i++) {
+            char c = searchTerm.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                if (chars == null) {
+                    chars = searchTerm.toCharArray();
+                }
+                chars[i] = (char) (c | 0x20);
+            }
+        }
+        return chars == null ? searchTerm : new String(chars);
+    }
+
+    /**
+     * The Key pairs the search type with the normalized search term.
+     */
+    private static final class Key {
+        private final SearchType type;
+        private final String term;
+
+        Key(SearchType type, String searchTerm) {
+            this.type = type;
+            this.term = normalize(type, searchTerm);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return type == other.type && term.equals(other.term);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + term.hashCode();
+        }
+    }
+}
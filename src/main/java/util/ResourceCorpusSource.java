@@ -0,0 +1,61 @@
+package util;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The ResourceCorpusSource supplies files that are bundled as classpath
+ * resources, by default the sample files shipped in resources.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class ResourceCorpusSource implements CorpusSource {
+    // Provided sample files located in resources
+    static final List<String> FILES = Collections.unmodifiableList(Arrays.asList(
+            "french_armed_forces.txt",
+            "hitchhikers.txt",
+            "warp_drive.txt"
+    ));
+
+    private final List<String> resourceNames;
+
+    /**
+     * Creates a new ResourceCorpusSource over the sample files.
+     */
+    public ResourceCorpusSource() {
+        this(FILES);
+    }
+
+    /**
+     * Creates a new ResourceCorpusSource.
+     * @param resourceNames The names of the resources to supply.
+     */
+    public ResourceCorpusSource(List<String> resourceNames) {
+        this.resourceNames = Collections.unmodifiableList(new ArrayList<>(resourceNames));
+    }
+
+    public Stream<File> files() {
+        return resourceNames.stream().map(this::toFile);
+    }
+
+    /**
+     * Helper Method
+     * Finds a resource on the classpath.
+     * @param resourceName The name of the resource.
+     * @return The file of the resource.
+     */
+    private File toFile(String resourceName) {
+        URL resource = getClass().getClassLoader().getResource(resourceName);
+        if (resource == null) {
+            throw new IllegalArgumentException("File is not found: " + resourceName);
+        }
+        return new File(resource.getFile());
+    }
+}
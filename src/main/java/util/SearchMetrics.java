@@ -0,0 +1,255 @@
+package util;
+
+import enums.SearchType;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The SearchMetrics counts where the time of a search service goes: a
+ * nanosecond LatencyHistogram per SearchType, the files and bytes the
+ * string and regex searches scanned, the hits and misses of the result
+ * cache, and the documents, bytes and time of every index build or
+ * refresh.
+ *
+ * Every record method is lock-free, so the metrics can be updated on the
+ * hot path of concurrent searches. They are read through the getters,
+ * through JMX once registerMBean() was called, or as text with getText(),
+ * which the SearchServer serves at /metrics.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class SearchMetrics implements SearchMetricsMBean {
+    public static final String DEFAULT_MBEAN_DOMAIN = "DocumentSearch";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final Map<SearchType, LatencyHistogram> latencies = new EnumMap<>(SearchType.class);
+    private final LongAdder bytesScanned = new LongAdder();
+    private final LongAdder filesScanned = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder documentsIndexed = new LongAdder();
+    private final LongAdder bytesIndexed = new LongAdder();
+    private final LatencyHistogram indexRefreshes = new LatencyHistogram();
+
+    /**
+     * Creates a new SearchMetrics with a histogram for every SearchType.
+     */
+    public SearchMetrics() {
+        for (SearchType type : SearchType.values()) {
+            latencies.put(type, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * This method records the latency of one search.
+     * @param type The search type.
+     * @param nanos The duration of the search in nanoseconds.
+     */
+    public void recordSearch(SearchType type, long nanos) {
+        latencies.get(type).record(nanos);
+    }
+
+    /**
+     * This method records one scan over the mapped files.
+     * @param files The number of files scanned.
+     * @param bytes The number of bytes scanned.
+     */
+    public void recordScan(long files, long bytes) {
+        filesScanned.add(files);
+        bytesScanned.add(bytes);
+    }
+
+    /**
+     * This method records results answered from the cache.
+     * @param hits The number of results found in the cache.
+     */
+    public void recordCacheHits(long hits) {
+        cacheHits.add(hits);
+    }
+
+    /**
+     * This method records results that were not in the cache.
+     * @param misses The number of results computed by the searched service.
+     */
+    public void recordCacheMisses(long misses) {
+        cacheMisses.add(misses);
+    }
+
+    /**
+     * This method records one build or refresh of the indexes.
+     * @param nanos The duration of the build or refresh in nanoseconds.
+     * @param stats The throughput of the Lucene indexing, or null if the
+     *              index is not available.
+     */
+    public void recordIndexRefresh(long nanos, IndexingStats stats) {
+        indexRefreshes.record(nanos);
+        if (stats != null) {
+            documentsIndexed.add(stats.getDocuments());
+            bytesIndexed.add(stats.getBytes());
+        }
+    }
+
+    /**
+     * Returns the latency histogram of a search type.
+     * @param type The search type.
+     * @return The LatencyHistogram of the searches of that type.
+     */
+    public LatencyHistogram getLatencies(SearchType type) {
+        return latencies.get(type);
+    }
+
+    /**
+     * Returns the histogram of the index build and refresh times.
+     * @return The LatencyHistogram of the refreshes.
+     */
+    public LatencyHistogram getIndexRefreshes() {
+        return indexRefreshes;
+    }
+
+    @Override
+    public long getSearchCount() {
+        long count = 0;
+        for (LatencyHistogram histogram : latencies.values()) {
+            count += histogram.getCount();
+        }
+        return count;
+    }
+
+    @Override
+    public long getBytesScanned() {
+        return bytesScanned.sum();
+    }
+
+    @Override
+    public long getFilesScanned() {
+        return filesScanned.sum();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public long getDocumentsIndexed() {
+        return documentsIndexed.sum();
+    }
+
+    @Override
+    public long getBytesIndexed() {
+        return bytesIndexed.sum();
+    }
+
+    @Override
+    public long getIndexRefreshCount() {
+        return indexRefreshes.getCount();
+    }
+
+    @Override
+    public long getIndexRefreshNanos() {
+        return indexRefreshes.getSum();
+    }
+
+    @Override
+    public long getLatencyNanos(String searchType, double percentile) {
+        return latencies.get(SearchType.valueOf(searchType.toUpperCase(Locale.ROOT))).getValueAtPercentile(percentile);
+    }
+
+    /**
+     * This method registers the metrics with the platform MBean server.
+     * @param name The name that tells this service apart from others in
+     *             the same JVM.
+     * @return The ObjectName the metrics are registered under.
+     * @throws JMException If the name is taken or invalid.
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName(DEFAULT_MBEAN_DOMAIN + ":type=SearchMetrics,name="
+                + ObjectName.quote(name));
+        server.registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * This method writes the metrics in the Prometheus text format, with
+     * the latencies as summaries in seconds. A summary may only hold its
+     * quantiles, sum and count, so the longest latency of each is a gauge
+     * family of its own named after it with a _max suffix.
+     * @return The text exposition of the metrics.
+     */
+    @Override
+    public String getText() {
+        StringBuilder text = new StringBuilder(2048);
+        text.append("# HELP documentsearch_search_latency_seconds Latency of each search by type.\n");
+        text.append("# TYPE documentsearch_search_latency_seconds summary\n");
+        for (Map.Entry<SearchType, LatencyHistogram> entry : latencies.entrySet()) {
+            appendSummary(text, "documentsearch_search_latency_seconds", typeLabel(entry.getKey()), entry.getValue());
+        }
+        text.append("# HELP documentsearch_search_latency_seconds_max Longest search by type.\n");
+        text.append("# TYPE documentsearch_search_latency_seconds_max gauge\n");
+        for (Map.Entry<SearchType, LatencyHistogram> entry : latencies.entrySet()) {
+            appendMax(text, "documentsearch_search_latency_seconds_max", typeLabel(entry.getKey()), entry.getValue());
+        }
+        text.append("# HELP documentsearch_index_refresh_seconds Duration of each index build or refresh.\n");
+        text.append("# TYPE documentsearch_index_refresh_seconds summary\n");
+        appendSummary(text, "documentsearch_index_refresh_seconds", null, indexRefreshes);
+        text.append("# HELP documentsearch_index_refresh_seconds_max Longest index build or refresh.\n");
+        text.append("# TYPE documentsearch_index_refresh_seconds_max gauge\n");
+        appendMax(text, "documentsearch_index_refresh_seconds_max", null, indexRefreshes);
+        appendCounter(text, "documentsearch_bytes_scanned_total", "Bytes scanned by string and regex searches.",
+                getBytesScanned());
+        appendCounter(text, "documentsearch_files_scanned_total", "Files scanned by string and regex searches.",
+                getFilesScanned());
+        appendCounter(text, "documentsearch_cache_hits_total", "Results answered from the result cache.",
+                getCacheHits());
+        appendCounter(text, "documentsearch_cache_misses_total", "Results not found in the result cache.",
+                getCacheMisses());
+        appendCounter(text, "documentsearch_documents_indexed_total", "Documents added to the Lucene index.",
+                getDocumentsIndexed());
+        appendCounter(text, "documentsearch_bytes_indexed_total", "Bytes added to the Lucene index.",
+                getBytesIndexed());
+        return text.toString();
+    }
+
+    private static void appendSummary(StringBuilder text, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels == null ? "" : labels + ",";
+        for (double quantile : QUANTILES) {
+            text.append(name).append('{').append(prefix).append("quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.getValueAtPercentile(quantile * 100) / NANOS_PER_SECOND).append('\n');
+        }
+        String suffix = labels == null ? "" : "{" + labels + "}";
+        text.append(name).append("_sum").append(suffix).append(' ')
+                .append(histogram.getSum() / NANOS_PER_SECOND).append('\n');
+        text.append(name).append("_count").append(suffix).append(' ').append(histogram.getCount()).append('\n');
+    }
+
+    private static void appendMax(StringBuilder text, String name, String labels, LatencyHistogram histogram) {
+        String suffix = labels == null ? "" : "{" + labels + "}";
+        text.append(name).append(suffix).append(' ').append(histogram.getMax() / NANOS_PER_SECOND).append('\n');
+    }
+
+    private static String typeLabel(SearchType type) {
+        return "type=\"" + type.name().toLowerCase(Locale.ROOT) + "\"";
+    }
+
+    private static void appendCounter(StringBuilder text, String name, String help, long value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" counter\n");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+}
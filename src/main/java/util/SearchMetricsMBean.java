@@ -0,0 +1,41 @@
+package util;
+
+/**
+ * The SearchMetricsMBean is the JMX view of the SearchMetrics: the
+ * counters as attributes, the latency percentiles of each search type as
+ * an operation, and the whole text exposition as one attribute.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public interface SearchMetricsMBean {
+
+    long getSearchCount();
+
+    long getBytesScanned();
+
+    long getFilesScanned();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getDocumentsIndexed();
+
+    long getBytesIndexed();
+
+    long getIndexRefreshCount();
+
+    long getIndexRefreshNanos();
+
+    /**
+     * Returns a latency percentile of one search type.
+     * @param searchType The name of the SearchType, such as STRING.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The latency in nanoseconds.
+     */
+    long getLatencyNanos(String searchType, double percentile);
+
+    String getText();
+}
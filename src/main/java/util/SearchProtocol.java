@@ -0,0 +1,242 @@
+package util;
+
+import enums.SearchType;
+import models.FileResult;
+import models.SearchRequest;
+import models.SearchResult;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The SearchProtocol is the binary format the search coordinator and its
+ * shard workers exchange over a socket. A connection carries any number of
+ * request/response pairs, one after the other:
+ *
+ *      request:  byte search type, string search term, or the single
+ *                byte GENERATION for a generation request
+ *      response: byte status, then for STATUS_OK
+ *                    long generation, long elapsed time, int number of
+ *                    results, and per result string file, int count,
+ *                    float score
+ *                and for STATUS_ERROR a string message; a generation
+ *                request is answered like a search without results
+ *
+ * Strings are written as an int byte length followed by UTF-8 bytes.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public final class SearchProtocol {
+    private static final byte STATUS_OK = 0;
+    private static final byte STATUS_ERROR = 1;
+    private static final int GENERATION = 0xFF;
+    // Read in place of a SearchRequest when a generation request arrives
+    public static final SearchRequest GENERATION_REQUEST = new SearchRequest();
+    // Guards against reading a corrupt length as a huge allocation
+    private static final int MAX_STRING_BYTES = 1 << 20;
+    private static final int MAX_RESULTS = 1 << 24;
+
+    private SearchProtocol() {
+    }
+
+    /**
+     * This method writes a search request.
+     * @param out The stream to write to.
+     * @param request The search type and term.
+     * @throws IOException
+     */
+    public static void writeRequest(DataOutputStream out, SearchRequest request) throws IOException {
+        out.writeByte(request.getSearchType().ordinal());
+        writeString(out, request.getSearchTerm());
+        out.flush();
+    }
+
+    /**
+     * This method writes a request for the generation of a shard worker's
+     * content.
+     * @param out The stream to write to.
+     * @throws IOException
+     */
+    public static void writeGenerationRequest(DataOutputStream out) throws IOException {
+        out.writeByte(GENERATION);
+        out.flush();
+    }
+
+    /**
+     * This method reads a search request.
+     * @param in The stream to read from.
+     * @return The SearchRequest, GENERATION_REQUEST for a generation
+     *         request, or null if the other side closed the connection
+     *         between requests.
+     * @throws IOException
+     */
+    public static SearchRequest readRequest(DataInputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0) {
+            return null;
+        }
+        if (type == GENERATION) {
+            return GENERATION_REQUEST;
+        }
+        if (type >= SearchType.values().length) {
+            throw new IOException("Unknown search type: " + type);
+        }
+        SearchRequest request = new SearchRequest();
+        request.setSearchType(SearchType.values()[type]);
+        request.setSearchTerm(readString(in));
+        return request;
+    }
+
+    /**
+     * This method writes the result of a search.
+     * @param out The stream to write to.
+     * @param result The result of the search.
+     * @param generation The generation the result was computed under.
+     * @throws IOException
+     */
+    public static void writeResult(DataOutputStream out, SearchResult result, long generation) throws IOException {
+        out.writeByte(STATUS_OK);
+        out.writeLong(generation);
+        out.writeLong(result.getElapsedTime());
+        out.writeInt(result.size());
+        for (int rank = 0; rank < result.size(); rank++) {
+            writeString(out, result.getFile(rank));
+            out.writeInt(result.getCount(rank));
+            out.writeFloat(result.getScore(rank));
+        }
+        out.flush();
+    }
+
+    /**
+     * This method writes the answer to a generation request.
+     * @param out The stream to write to.
+     * @param generation The generation of the content.
+     * @throws IOException
+     */
+    public static void writeGeneration(DataOutputStream out, long generation) throws IOException {
+        out.writeByte(STATUS_OK);
+        out.writeLong(generation);
+        out.writeLong(0);
+        out.writeInt(0);
+        out.flush();
+    }
+
+    /**
+     * This method writes an error in place of a result.
+     * @param out The stream to write to.
+     * @param message The reason the search failed.
+     * @throws IOException
+     */
+    public static void writeError(DataOutputStream out, String message) throws IOException {
+        out.writeByte(STATUS_ERROR);
+        writeString(out, message == null ? "" : message);
+        out.flush();
+    }
+
+    /**
+     * This method reads the response to a search request.
+     * @param in The stream to read from.
+     * @return The Response with the result and its generation.
+     * @throws IOException If the connection failed or the search failed on
+     *                     the other side.
+     */
+    public static Response readResponse(DataInputStream in) throws IOException {
+        byte status = in.readByte();
+        if (status == STATUS_ERROR) {
+            throw new IOException("Search failed on shard worker: " + readString(in));
+        } else if (status != STATUS_OK) {
+            throw new IOException("Unknown response status: " + status);
+        }
+
+        long generation = in.readLong();
+        long elapsedTime = in.readLong();
+        int size = in.readInt();
+        if (size < 0 || size > MAX_RESULTS) {
+            throw new IOException("Invalid number of results: " + size);
+        }
+        List<FileResult> results = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String file = readString(in);
+            int count = in.readInt();
+            float score = in.readFloat();
+            results.add(new FileResult(file, count, score));
+        }
+        return new Response(results, elapsedTime, generation);
+    }
+
+    /**
+     * Helper Method
+     * Writes a length-prefixed UTF-8 string.
+     * @param out The stream to write to.
+     * @param value The string.
+     * @throws IOException
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Helper Method
+     * Reads a length-prefixed UTF-8 string.
+     * @param in The stream to read from.
+     * @return The string.
+     * @throws IOException
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The Response holds the results one shard worker returned, with the
+     * generation they were computed under.
+     */
+    public static final class Response {
+        private final List<FileResult> results;
+        private final long elapsedTime;
+        private final long generation;
+
+        Response(List<FileResult> results, long elapsedTime, long generation) {
+            this.results = results;
+            this.elapsedTime = elapsedTime;
+            this.generation = generation;
+        }
+
+        /**
+         * Returns results.
+         * @return The result of every document on the shard.
+         */
+        public List<FileResult> getResults() {
+            return results;
+        }
+
+        /**
+         * Returns elapsedTime.
+         * @return The duration of the search on the shard worker.
+         */
+        public long getElapsedTime() {
+            return elapsedTime;
+        }
+
+        /**
+         * Returns generation.
+         * @return The generation of the shard worker's content.
+         */
+        public long getGeneration() {
+            return generation;
+        }
+    }
+}
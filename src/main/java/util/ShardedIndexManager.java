@@ -0,0 +1,465 @@
+package util;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermContext;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermStatistics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * The ShardedIndexManager splits the Lucene index into shards, each its
+ * own index with its own IndexManager, so a corpus larger than one index
+ * comfortably holds can be indexed and searched. A file always goes to the
+ * shard picked by the hash of its path, so incremental updates find it in
+ * the same shard again.
+ *
+ * The corpus is walked once per build or refresh and its files are routed
+ * to the shards. The shards are built and refreshed in parallel, and a
+ * search fans out to every shard at once on a ForkJoinPool, with the
+ * calling thread searching the first shard itself. Every shard scores with
+ * the statistics of the whole index, so the scores of the shards can be
+ * merged as if the index had not been split. With a single shard the index
+ * is kept at the usual indexedFiles path (unless another is given) and
+ * searched on the calling thread only.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class ShardedIndexManager implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(ShardedIndexManager.class.getName());
+    public static final String INDEXED_SHARDS_PATH = "indexedShards";
+
+    private final IndexManager[] shards;
+    private final ForkJoinPool pool;
+    private volatile long generation;
+
+    /**
+     * The ShardSearch is the part of a search that runs on one shard.
+     * @param <T> The type of the result of one shard.
+     */
+    public interface ShardSearch<T> {
+        T search(IndexSearcher searcher) throws IOException;
+    }
+
+    /**
+     * The ShardSearcher searches one shard, but scores with the term and
+     * collection statistics of every shard added up. A document then gets
+     * the same score whichever shard it is in, so the scores of different
+     * shards can be compared when their results are merged.
+     */
+    private static final class ShardSearcher extends IndexSearcher {
+        private final IndexReader[] shardReaders;
+
+        private ShardSearcher(IndexReader reader, IndexReader[] shardReaders) {
+            super(reader);
+            this.shardReaders = shardReaders;
+        }
+
+        @Override
+        public TermStatistics termStatistics(Term term, TermContext context) throws IOException {
+            long docFreq = 0;
+            long totalTermFreq = 0;
+            for (IndexReader reader : shardReaders) {
+                docFreq += reader.docFreq(term);
+                totalTermFreq = addStatistic(totalTermFreq, reader.totalTermFreq(term));
+            }
+            return new TermStatistics(term.bytes(), docFreq, totalTermFreq);
+        }
+
+        @Override
+        public CollectionStatistics collectionStatistics(String field) throws IOException {
+            long maxDoc = 0;
+            long docCount = 0;
+            long sumTotalTermFreq = 0;
+            long sumDocFreq = 0;
+            for (IndexReader reader : shardReaders) {
+                maxDoc += reader.maxDoc();
+                docCount = addStatistic(docCount, reader.getDocCount(field));
+                sumTotalTermFreq = addStatistic(sumTotalTermFreq, reader.getSumTotalTermFreq(field));
+                sumDocFreq = addStatistic(sumDocFreq, reader.getSumDocFreq(field));
+            }
+            return new CollectionStatistics(field, maxDoc, docCount, sumTotalTermFreq, sumDocFreq);
+        }
+
+        /**
+         * Helper Method
+         * Adds up a statistic that is -1 when a shard does not record it.
+         */
+        private static long addStatistic(long total, long value) {
+            return total < 0 || value < 0 ? -1 : total + value;
+        }
+    }
+
+    /**
+     * Creates a new ShardedIndexManager and brings every shard up to date
+     * with its part of the corpus, building the shards in parallel.
+     * @param corpus The files to be added to the index.
+     * @param shardCount The number of shards to split the index into.
+     * @param indexThreads The number of indexing threads shared by the shards.
+     * @throws IOException
+     */
+    public ShardedIndexManager(CorpusSource corpus, int shardCount, int indexThreads) throws IOException {
+        this(corpus, shardCount, indexThreads, defaultIndexPath(shardCount));
+    }
+
+    /**
+     * Creates a new ShardedIndexManager that keeps its index at the given
+     * path: a single shard is the index at that path, and several shards
+     * are kept in one directory each below it.
+     * @param corpus The files to be added to the index.
+     * @param shardCount The number of shards to split the index into.
+     * @param indexThreads The number of indexing threads shared by the shards.
+     * @param indexPath The directory of the index.
+     * @throws IOException
+     */
+    public ShardedIndexManager(CorpusSource corpus, int shardCount, int indexThreads, Path indexPath) throws IOException {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Number of shards must be at least 1: " + shardCount);
+        }
+        shards = new IndexManager[shardCount];
+        if (shardCount == 1) {
+            pool = null;
+            shards[0] = new IndexManager(corpus, new IndexUtil(indexThreads,
+                    IndexUtil.DEFAULT_RAM_BUFFER_MB, new TieredMergePolicy()), indexPath);
+            return;
+        }
+
+        List<CorpusSource> shardCorpora = routeCorpus(corpus);
+        pool = new ForkJoinPool(shardCount);
+        int threadsPerShard = Math.max(1, indexThreads / shardCount);
+        double ramBufferPerShard = IndexUtil.DEFAULT_RAM_BUFFER_MB / shardCount;
+        List<Callable<IndexManager>> builds = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            final CorpusSource shardCorpus = shardCorpora.get(i);
+            final Path shardPath = indexPath.resolve("shard-" + i + "-of-" + shardCount);
+            builds.add(() -> new IndexManager(shardCorpus,
+                    new IndexUtil(threadsPerShard, ramBufferPerShard, new TieredMergePolicy()), shardPath));
+        }
+
+        List<Future<IndexManager>> futures = pool.invokeAll(builds);
+        try {
+            for (int i = 0; i < shardCount; i++) {
+                shards[i] = getResult(futures.get(i));
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            for (Future<IndexManager> future : futures) {
+                closeQuietly(future);
+            }
+            pool.shutdown();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the path an index is kept at unless another is given.
+     * @param shardCount The number of shards of the index.
+     * @return indexedFiles for a single shard, indexedShards otherwise.
+     */
+    public static Path defaultIndexPath(int shardCount) {
+        return Paths.get(shardCount == 1 ? IndexUtil.INDEXED_FILES_PATH : INDEXED_SHARDS_PATH);
+    }
+
+    /**
+     * Returns the number of shards.
+     * @return The number of shards the index is split into.
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Returns the generation.
+     * @return A number that increases every time a refresh changes any shard.
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns the throughput of the last time the shards were built or
+     * refreshed. The shards are indexed in parallel, so their documents,
+     * bytes and threads add up while the elapsed time is the longest of
+     * any shard.
+     * @return The combined IndexingStats of the shards.
+     */
+    public IndexingStats getIndexingStats() {
+        long documents = 0;
+        long bytes = 0;
+        long elapsedNanos = 0;
+        int threads = 0;
+        for (IndexManager shard : shards) {
+            IndexingStats stats = shard.getIndexingStats();
+            if (stats != null) {
+                documents += stats.getDocuments();
+                bytes += stats.getBytes();
+                elapsedNanos = Math.max(elapsedNanos, stats.getElapsedNanos());
+                threads += stats.getThreads();
+            }
+        }
+        return new IndexingStats(documents, bytes, elapsedNanos, threads);
+    }
+
+    /**
+     * This method runs a search on every shard in parallel. The searchers of
+     * all shards are acquired before the search starts, so every shard
+     * scores with the statistics of the same state of the index, and are
+     * released once it is done. If any shard fails, the shards that have
+     * not started are skipped and the others are waited for before the
+     * failure is thrown.
+     * @param search The search to run on each shard.
+     * @param <T> The type of the result of one shard.
+     * @return The result of every shard, in shard order.
+     * @throws IOException
+     */
+    public <T> List<T> search(ShardSearch<T> search) throws IOException {
+        if (pool == null) {
+            IndexSearcher searcher = shards[0].acquire();
+            try {
+                return Collections.singletonList(search.search(searcher));
+            } finally {
+                shards[0].release(searcher);
+            }
+        }
+
+        IndexSearcher[] searchers = new IndexSearcher[shards.length];
+        AtomicBoolean abandoned = new AtomicBoolean();
+        List<Future<T>> futures = new ArrayList<>(shards.length - 1);
+        try {
+            IndexReader[] readers = new IndexReader[shards.length];
+            for (int i = 0; i < shards.length; i++) {
+                searchers[i] = shards[i].acquire();
+                readers[i] = searchers[i].getIndexReader();
+            }
+            for (int i = 1; i < shards.length; i++) {
+                final IndexSearcher searcher = new ShardSearcher(readers[i], readers);
+                futures.add(pool.submit(() -> abandoned.get() ? null : search.search(searcher)));
+            }
+            List<T> results = new ArrayList<>(shards.length);
+            results.add(search.search(new ShardSearcher(readers[0], readers)));
+            for (Future<T> future : futures) {
+                results.add(getResult(future));
+            }
+            return results;
+        } catch (IOException | RuntimeException | Error e) {
+            // The searchers are released below, so no shard may still be
+            // searching with them. Shards that have not started skip the search
+            abandoned.set(true);
+            awaitQuietly(futures);
+            throw e;
+        } finally {
+            for (int i = 0; i < shards.length; i++) {
+                if (searchers[i] != null) {
+                    shards[i].release(searchers[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Brings every shard up to date with its part of the corpus, refreshing
+     * the shards in parallel.
+     * @param corpus The files the index should contain.
+     * @return The number of documents that were added, updated or deleted.
+     * @throws IOException
+     */
+    public synchronized int refresh(CorpusSource corpus) throws IOException {
+        int changes = 0;
+        if (pool == null) {
+            changes = shards[0].refresh(corpus);
+        } else {
+            List<CorpusSource> shardCorpora = routeCorpus(corpus);
+            List<Callable<Integer>> refreshes = new ArrayList<>(shards.length);
+            for (int i = 0; i < shards.length; i++) {
+                final IndexManager shard = shards[i];
+                final CorpusSource shardCorpus = shardCorpora.get(i);
+                refreshes.add(() -> shard.refresh(shardCorpus));
+            }
+            for (Future<Integer> future : pool.invokeAll(refreshes)) {
+                changes += getResult(future);
+            }
+        }
+        if (changes > 0) {
+            generation++;
+        }
+        return changes;
+    }
+
+    /**
+     * Brings only the given files up to date, each in its own shard, as
+     * refresh() does for the whole corpus.
+     * @param files The files that may have been created, modified or
+     *              deleted.
+     * @return The number of documents that were added, updated or deleted.
+     * @throws IOException
+     */
+    public synchronized int refresh(Collection<File> files) throws IOException {
+        List<List<File>> shardFiles = route(files);
+
+        int changes = 0;
+        for (int i = 0; i < shards.length; i++) {
+            if (!shardFiles.get(i).isEmpty()) {
+                changes += shards[i].refresh(shardFiles.get(i));
+            }
+        }
+        if (changes > 0) {
+            generation++;
+        }
+        return changes;
+    }
+
+    /**
+     * Closes every shard and stops the fan-out threads.
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        for (IndexManager shard : shards) {
+            shard.close();
+        }
+    }
+
+    /**
+     * Helper Method
+     * Walks the corpus once and splits its files between the shards.
+     * @param corpus The files of every shard.
+     * @return The CorpusSource of every shard, in shard order.
+     * @throws IOException
+     */
+    private List<CorpusSource> routeCorpus(CorpusSource corpus) throws IOException {
+        List<List<File>> shardFiles;
+        try (Stream<File> files = corpus.files()) {
+            shardFiles = route(files::iterator);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        List<CorpusSource> shardCorpora = new ArrayList<>(shards.length);
+        for (List<File> files : shardFiles) {
+            shardCorpora.add(new SnapshotCorpusSource(files));
+        }
+        return shardCorpora;
+    }
+
+    /**
+     * Helper Method
+     * Splits files between the shards.
+     * @param files The files of every shard.
+     * @return The files of every shard, in shard order.
+     */
+    private List<List<File>> route(Iterable<File> files) {
+        List<List<File>> shardFiles = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            shardFiles.add(new ArrayList<>());
+        }
+        for (File file : files) {
+            shardFiles.get(shardOf(file)).add(file);
+        }
+        return shardFiles;
+    }
+
+    /**
+     * Helper Method
+     * Picks the shard of a file from the hash of its path.
+     * @param file The file.
+     * @return The shard the file is indexed in.
+     */
+    private int shardOf(File file) {
+        return Math.floorMod(file.toString().hashCode(), shards.length);
+    }
+
+    /**
+     * Helper Method
+     * Waits for the work on one shard and rethrows its failure as it was
+     * thrown.
+     * @param future The work on the shard.
+     * @param <T> The type of the result.
+     * @return The result of the shard.
+     * @throws IOException
+     */
+    private static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a shard.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Helper Method
+     * Waits for the work on every shard to finish, whether it succeeded or
+     * failed. An interrupt does not cut the wait short, it is kept for the
+     * caller.
+     * @param futures The work on the shards.
+     */
+    private static void awaitQuietly(List<? extends Future<?>> futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (!future.isDone()) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException | CancellationException e) {
+                    // Only the failure that stopped the search is thrown
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Helper Method
+     * Closes a shard that was built before another shard failed.
+     * @param future The build of the shard.
+     */
+    private static void closeQuietly(Future<IndexManager> future) {
+        try {
+            if (future.isDone()) {
+                future.get().close();
+            }
+        } catch (ExecutionException e) {
+            // The shard failed to build, so there is nothing to close
+        } catch (InterruptedException | IOException e) {
+            LOGGER.log(Level.WARNING, "Error closing shard: ", e);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The SnapshotCorpusSource lists the files of another corpus once and
+ * supplies that same list on every call, so the passes that build one
+ * generation of the searchable content (the mapped files, the Lucene index
+ * and the in-memory index) all see the same files even while files are
+ * added or deleted on disk. Only the paths are held, never the contents.
+ *
+ * The snapshot trades the lazy walk for that consistency: while a
+ * generation is built, the list costs one File per document, next to the
+ * one MappedFile per document its mapped files keep in any case. Feeding
+ * the three passes from a single walk instead would tie them to one
+ * order and one thread.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public class SnapshotCorpusSource implements CorpusSource {
+    private final List<File> files;
+
+    /**
+     * Creates a new SnapshotCorpusSource of the files of a corpus as they
+     * are listed now.
+     * @param corpus The corpus to list.
+     * @throws IOException
+     */
+    public SnapshotCorpusSource(CorpusSource corpus) throws IOException {
+        try (Stream<File> files = corpus.files()) {
+            this.files = Collections.unmodifiableList(files.collect(Collectors.toList()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Creates a new SnapshotCorpusSource of the given files.
+     * @param files The files of the corpus.
+     */
+    public SnapshotCorpusSource(List<File> files) {
+        this.files = Collections.unmodifiableList(new ArrayList<>(files));
+    }
+
+    /**
+     * Returns the files.
+     * @return The files of the corpus when the snapshot was taken.
+     */
+    public List<File> getFiles() {
+        return files;
+    }
+
+    public Stream<File> files() {
+        return files.stream();
+    }
+}
@@ -0,0 +1,375 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The TokenAutomaton counts the matches of many words and phrases in one
+ * pass over the bytes of a file. It is an Aho-Corasick automaton whose
+ * alphabet is whole tokens rather than characters: every distinct token of
+ * the search terms gets an id, each token read from the file is looked up
+ * in that vocabulary once, and the automaton steps on the id, so the cost
+ * of a pass barely depends on the number of terms.
+ *
+ * Tokens are split and case-folded exactly like ByteTokenizer, and every
+ * term is counted the way ByteTokenizer.countMatches() counts it on its
+ * own: a phrase starts within the scanned range and the matches of one
+ * term do not overlap.
+ *
+ * @author Tanya Wanwatanakool
+ * @since 2020-06-25
+ */
+
+public final class TokenAutomaton {
+    private static final int ROOT = 0;
+    private static final int[] NO_OUTPUTS = new int[0];
+
+    private final int termCount;
+    private final int[] termLength;
+    // Index of the term in the phrase state of a scan, -1 for a single word
+    private final int[] phraseSlot;
+    private final int phraseCount;
+    private final int maxLength;
+
+    // Vocabulary of folded tokens, looked up by open addressing on the hash
+    private final byte[][] vocabulary;
+    private final int[] vocabularyHashes;
+    private final int[] vocabularyTable;
+
+    // Trie edges keyed by (state, token id), looked up by open addressing
+    private final long[] edgeKeys;
+    private final int[] edgeTargets;
+    private final int[] failure;
+    private final int[] depth;
+    private final int[][] outputs;
+
+    /**
+     * Creates a new TokenAutomaton.
+     * @param terms The folded tokens of every term, as returned by
+     *              ByteTokenizer.foldTokens(). A term with an empty token
+     *              never matches, like in ByteTokenizer.
+     */
+    public TokenAutomaton(List<byte[][]> terms) {
+        this.termCount = terms.size();
+        this.termLength = new int[termCount];
+        this.phraseSlot = new int[termCount];
+
+        Map<String, Integer> tokenIds = new HashMap<>();
+        List<byte[]> tokens = new ArrayList<>();
+        List<Map<Integer, Integer>> children = new ArrayList<>();
+        List<List<Integer>> ownOutputs = new ArrayList<>();
+        children.add(new HashMap<>());
+        ownOutputs.add(new ArrayList<>());
+
+        int phrases = 0;
+        int longest = 1;
+        for (int term = 0; term < termCount; term++) {
+            byte[][] termTokens = terms.get(term);
+            termLength[term] = termTokens.length;
+            phraseSlot[term] = termTokens.length > 1 ? phrases++ : -1;
+            if (!isMatchable(termTokens)) {
+                continue;
+            }
+            longest = Math.max(longest, termTokens.length);
+            int state = ROOT;
+            for (byte[] token : termTokens) {
+                // ISO-8859-1 maps every byte to one char, so the key is exact
+                String key = new String(token, StandardCharsets.ISO_8859_1);
+                Integer id = tokenIds.get(key);
+                if (id == null) {
+                    id = tokens.size();
+                    tokenIds.put(key, id);
+                    tokens.add(token);
+                }
+                Integer child = children.get(state).get(id);
+                if (child == null) {
+                    child = children.size();
+                    children.get(state).put(id, child);
+                    children.add(new HashMap<>());
+                    ownOutputs.add(new ArrayList<>());
+                }
+                state = child;
+            }
+            ownOutputs.get(state).add(term);
+        }
+        this.phraseCount = phrases;
+        this.maxLength = longest;
+
+        this.vocabulary = tokens.toArray(new byte[0][]);
+        this.vocabularyHashes = new int[vocabulary.length];
+        this.vocabularyTable = new int[tableSize(vocabulary.length)];
+        for (int id = 0; id < vocabulary.length; id++) {
+            vocabularyHashes[id] = hash(vocabulary[id]);
+            int mask = vocabularyTable.length - 1;
+            int slot = vocabularyHashes[id] & mask;
+            while (vocabularyTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            vocabularyTable[slot] = id + 1;
+        }
+
+        int states = children.size();
+        this.edgeKeys = new long[tableSize(states)];
+        this.edgeTargets = new int[edgeKeys.length];
+        Arrays.fill(edgeKeys, -1);
+        for (int state = 0; state < states; state++) {
+            for (Map.Entry<Integer, Integer> edge : children.get(state).entrySet()) {
+                putEdge(state, edge.getKey(), edge.getValue());
+            }
+        }
+
+        this.failure = new int[states];
+        this.depth = new int[states];
+        this.outputs = new int[states][];
+        outputs[ROOT] = NO_OUTPUTS;
+        buildFailureLinks(children, ownOutputs);
+    }
+
+    /**
+     * Returns the number of terms.
+     * @return The number of terms, and the length of the counts of a scan.
+     */
+    public int getTermCount() {
+        return termCount;
+    }
+
+    /**
+     * This method adds the matches of every term whose first word starts
+     * between start (inclusive) and end (exclusive) to counts. A phrase
+     * that starts in the range may run past end up to the buffer's limit.
+     * @param buffer The bytes of the file.
+     * @param start The offset of the first byte to scan.
+     * @param end The offset after the last byte a match may start at.
+     * @param counts The number of matches of every term, added to.
+     */
+    public void countMatches(ByteBuffer buffer, int start, int end, int[] counts) {
+        countMatches(buffer, start, end, null, counts, null);
+    }
+
+    /**
+     * This method adds the matches of every term to counts like
+     * countMatches(), except that a term only counts the matches that start
+     * at or after its own from offset. It sets how far the last match of
+     * every term ran past end, for the terms that have one.
+     * @param buffer The bytes of the file.
+     * @param start The offset of the first byte to scan.
+     * @param end The offset after the last byte a match may start at.
+     * @param from The offset before which no match of a term is counted,
+     *             per term, or null to count from start.
+     * @param counts The number of matches of every term, added to.
+     * @param overruns The overrun of the last match of every term, set when
+     *                 it is positive; may be null.
+     */
+    public void countMatches(ByteBuffer buffer, int start, int end, int[] from, int[] counts, int[] overruns) {
+        int limit = buffer.limit();
+        // Start offsets of the last maxLength tokens, by token number
+        int[] tokenStarts = new int[maxLength];
+        // Token number after the last counted match of every phrase
+        int[] phraseEnd = phraseCount == 0 ? null : new int[phraseCount];
+
+        int state = ROOT;
+        int tokenNumber = 0;
+        int pos = ByteTokenizer.skipWhitespace(buffer, start, limit);
+        while (pos < limit) {
+            // Past end, only a phrase that started before end can still match
+            if (pos >= end && (state == ROOT
+                    || tokenStarts[(tokenNumber - depth[state]) % maxLength] >= end)) {
+                break;
+            }
+            int tokenEnd = ByteTokenizer.findTokenEnd(buffer, pos, limit);
+            tokenStarts[tokenNumber % maxLength] = pos;
+            int id = lookup(buffer, pos, tokenEnd);
+            state = id < 0 ? ROOT : step(state, id);
+
+            for (int term : outputs[state]) {
+                int firstToken = tokenNumber - termLength[term] + 1;
+                int firstStart = tokenStarts[firstToken % maxLength];
+                if (firstStart >= end || (from != null && firstStart < from[term])) {
+                    continue;
+                }
+                int slot = phraseSlot[term];
+                if (slot >= 0) {
+                    if (firstToken < phraseEnd[slot]) {
+                        continue;
+                    }
+                    phraseEnd[slot] = tokenNumber + 1;
+                }
+                counts[term]++;
+                if (overruns != null && tokenEnd > end) {
+                    overruns[term] = tokenEnd - end;
+                }
+            }
+            tokenNumber++;
+            pos = ByteTokenizer.skipWhitespace(buffer, tokenEnd, limit);
+        }
+    }
+
+    /**
+     * Helper Method
+     * Computes the failure link and the outputs of every state in breadth
+     * first order, so the links of the shallower states are known first.
+     */
+    private void buildFailureLinks(List<Map<Integer, Integer>> children, List<List<Integer>> ownOutputs) {
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(ROOT);
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (Map.Entry<Integer, Integer> edge : children.get(state).entrySet()) {
+                int token = edge.getKey();
+                int child = edge.getValue();
+                depth[child] = depth[state] + 1;
+                failure[child] = state == ROOT ? ROOT : step(failure[state], token);
+
+                List<Integer> own = ownOutputs.get(child);
+                int[] inherited = outputs[failure[child]];
+                int[] all = new int[own.size() + inherited.length];
+                for (int i = 0; i < own.size(); i++) {
+                    all[i] = own.get(i);
+                }
+                System.arraycopy(inherited, 0, all, own.size(), inherited.length);
+                outputs[child] = all.length == 0 ? NO_OUTPUTS : all;
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Helper Method
+     * Follows the failure links from a state until one has an edge for the
+     * token, and returns the state the edge leads to.
+     */
+    private int step(int state, int token) {
+        while (true) {
+            int target = getEdge(state, token);
+            if (target >= 0) {
+                return target;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = failure[state];
+        }
+    }
+
+    /**
+     * Helper Method
+     * Returns the id of the token between start and end, or -1 if no term
+     * contains it.
+     */
+    private int lookup(ByteBuffer buffer, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + ByteTokenizer.fold(buffer.get(i));
+        }
+        hash = mix(hash);
+        int mask = vocabularyTable.length - 1;
+        for (int slot = hash & mask; vocabularyTable[slot] != 0; slot = (slot + 1) & mask) {
+            int id = vocabularyTable[slot] - 1;
+            if (vocabularyHashes[id] == hash && tokenEquals(buffer, start, end, vocabulary[id])) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Helper Method
+     * Compares the bytes between start and end with a folded token.
+     */
+    private static boolean tokenEquals(ByteBuffer buffer, int start, int end, byte[] token) {
+        if (end - start != token.length) {
+            return false;
+        }
+        for (int i = 0; i < token.length; i++) {
+            if (ByteTokenizer.fold(buffer.get(start + i)) != token[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Helper Method
+     * Returns the target of the edge from state on token, or -1.
+     */
+    private int getEdge(int state, int token) {
+        long key = edgeKey(state, token);
+        int mask = edgeKeys.length - 1;
+        for (int slot = mix(Long.hashCode(key)) & mask; edgeKeys[slot] != -1; slot = (slot + 1) & mask) {
+            if (edgeKeys[slot] == key) {
+                return edgeTargets[slot];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Helper Method
+     * Adds an edge to the open addressing edge table.
+     */
+    private void putEdge(int state, int token, int target) {
+        long key = edgeKey(state, token);
+        int mask = edgeKeys.length - 1;
+        int slot = mix(Long.hashCode(key)) & mask;
+        while (edgeKeys[slot] != -1) {
+            slot = (slot + 1) & mask;
+        }
+        edgeKeys[slot] = key;
+        edgeTargets[slot] = target;
+    }
+
+    private static long edgeKey(int state, int token) {
+        return ((long) state << 32) | token;
+    }
+
+    /**
+     * Helper Method
+     * Hashes a folded token the same way lookup() hashes the file bytes.
+     */
+    private static int hash(byte[] token) {
+        int hash = 0;
+        for (byte b : token) {
+            hash = 31 * hash + b;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Helper Method
+     * Spreads the bits of a hash so the low bits index the table well.
+     */
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Helper Method
+     * Returns a power of two table size that stays at most half full.
+     */
+    private static int tableSize(int entries) {
+        return Integer.highestOneBit(Math.max(2, entries) * 4 - 1);
+    }
+
+    /**
+     * Helper Method
+     * A term can only match if it has tokens and none of them is empty.
+     */
+    private static boolean isMatchable(byte[][] tokens) {
+        if (tokens.length == 0) {
+            return false;
+        }
+        for (byte[] token : tokens) {
+            if (token.length == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,60 @@
+package models;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+class QueryTraceTest {
+
+    @Test
+    void testStagesInOrderAndSummed() {
+        QueryTrace trace = new QueryTrace();
+        trace.mark("plan");
+        QueryTrace shards = new QueryTrace();
+        shards.add("postings", 100);
+        shards.add("stored_fields", 20);
+        shards.add("postings", 50);
+        trace.mark("shards");
+        trace.addAll("shards.", shards);
+
+        assertEquals(4, trace.size());
+        assertEquals("plan", trace.getStage(0));
+        assertEquals("shards", trace.getStage(1));
+        assertEquals("shards.postings", trace.getStage(2));
+        assertEquals(150, trace.getNanos("shards.postings"));
+        assertEquals(20, trace.getNanos(3));
+        assertEquals(-1, trace.getNanos("rank"));
+        assertEquals(trace.getNanos(0) + trace.getNanos(1), trace.getTotalNanos());
+        assertTrue(trace.toString().startsWith("total="));
+        assertTrue(trace.toString().contains(" shards.postings=0.000ms"));
+    }
+
+    @Test
+    void testDisabledRecordsNothing() throws InterruptedException {
+        QueryTrace.DISABLED.mark("plan");
+        QueryTrace.DISABLED.add("scan", 10);
+        assertFalse(QueryTrace.DISABLED.isEnabled());
+        assertEquals(0, QueryTrace.DISABLED.size());
+
+        // Untraced searches never wait for the shared instance's lock
+        Thread untraced = new Thread(() -> {
+            QueryTrace.DISABLED.mark("plan");
+            QueryTrace.DISABLED.add("scan", 10);
+        });
+        synchronized (QueryTrace.DISABLED) {
+            untraced.start();
+            untraced.join(5000);
+            assertFalse(untraced.isAlive());
+        }
+
+        SearchResult result = new SearchResult(Collections.singletonList(new FileResult("a.txt", 1)), 3);
+        assertNull(result.getTrace());
+        QueryTrace trace = new QueryTrace();
+        SearchResult traced = result.withTrace(trace);
+        assertSame(trace, traced.getTrace());
+        assertEquals("a.txt", traced.getFile(0));
+        assertEquals(3, traced.getElapsedTime());
+    }
+}
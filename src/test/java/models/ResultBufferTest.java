@@ -0,0 +1,125 @@
+package models;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+class ResultBufferTest {
+
+    @Test
+    void testInternsEachPathOnce() {
+        FileTable table = new FileTable();
+        int a = table.intern("a.txt");
+        int b = table.intern("b.txt");
+        assertNotEquals(a, b);
+        assertEquals(a, table.intern("a.txt"));
+        assertEquals("b.txt", table.getPath(b));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    void testRanksBufferedResults() {
+        FileTable table = new FileTable();
+        ResultBuffer buffer = ResultBuffer.forCurrentThread();
+        int[] counts = {3, 0, 7, 1, 0, 5};
+        for (int i = 0; i < counts.length; i++) {
+            buffer.add(table.intern("file" + i), counts[i], 0);
+        }
+
+        SearchResult result = buffer.toSearchResult(table, 4, 3, false);
+        assertEquals(4, result.getTotalCount());
+        assertEquals(3, result.size());
+        assertEquals("file2", result.getFile(0));
+        assertEquals(5, result.getCount(1));
+        assertEquals("file0", result.getSearchResultsList().get(2).getFile());
+        assertEquals(4, result.getElapsedTime());
+
+        // The thread's buffer is emptied for the next search
+        assertEquals(0, ResultBuffer.forCurrentThread().size());
+    }
+
+    @Test
+    void testScratchCountsAreZeroed() {
+        int[] counts = ResultBuffer.scratchCounts(4);
+        Arrays.fill(counts, 9);
+        assertTrue(Arrays.stream(ResultBuffer.scratchCounts(3), 0, 3).allMatch(count -> count == 0));
+    }
+
+    @Test
+    void testHeapAndRadixRankLikeTheComparator() {
+        Random random = new Random(42);
+        List<FileResult> results = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            // Few distinct counts and scores, so most results tie on both
+            float score = random.nextInt(4) == 0 ? 0 : random.nextInt(3) / 2f;
+            results.add(new FileResult("file" + random.nextInt(100000), random.nextInt(5), score));
+        }
+        Collections.shuffle(results, random);
+        List<FileResult> expected = new ArrayList<>(results);
+        expected.sort(RelevancyComparator.INSTANCE);
+
+        assertEquals(expected, new SearchResult(results, 0).getSearchResultsList());
+        assertEquals(expected.subList(0, 10), new SearchResult(results, 0, 10, true).getSearchResultsList());
+        assertEquals(expected.subList(0, 2000), new SearchResult(results, 0, 2000, true).getSearchResultsList());
+    }
+
+    @Test
+    void testLimitedBuffersRankLikeUnlimitedOnes() {
+        Random random = new Random(7);
+        FileTable table = new FileTable();
+        List<FileResult> results = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            float score = random.nextInt(3) / 2f;
+            results.add(new FileResult("file" + random.nextInt(500), random.nextInt(4), score));
+        }
+
+        for (boolean includeZeroCounts : new boolean[] {false, true}) {
+            SearchResult unlimited = fill(new ResultBuffer(), table, results, 0, results.size())
+                    .toSearchResult(table, 0, 25, includeZeroCounts);
+            ResultBuffer limited = fill(ResultBuffer.forCurrentThread(table, 25, includeZeroCounts),
+                    table, results, 0, results.size());
+            assertTrue(limited.size() <= 64);
+            SearchResult result = limited.toSearchResult(table, 0, 25, includeZeroCounts);
+            assertEquals(unlimited.getSearchResultsList(), result.getSearchResultsList());
+            assertEquals(unlimited.getTotalCount(), result.getTotalCount());
+
+            // The results the shard buffers dropped still count once merged
+            ResultBuffer[] shards = ResultBuffer.forShards(3, table, 25, includeZeroCounts);
+            for (int shard = 0; shard < shards.length; shard++) {
+                fill(shards[shard], table, results, shard * 1000, (shard + 1) * 1000);
+            }
+            ResultBuffer merged = ResultBuffer.forCurrentThread(table, 25, includeZeroCounts);
+            for (ResultBuffer shard : shards) {
+                merged.addAll(shard);
+            }
+            result = merged.toSearchResult(table, 0, 25, includeZeroCounts);
+            assertEquals(unlimited.getSearchResultsList(), result.getSearchResultsList());
+            assertEquals(unlimited.getTotalCount(), result.getTotalCount());
+        }
+    }
+
+    private static ResultBuffer fill(ResultBuffer buffer, FileTable table, List<FileResult> results, int from, int to) {
+        for (FileResult result : results.subList(from, to)) {
+            buffer.add(table.intern(result.getFile()), result.getCount(), result.getScore());
+        }
+        return buffer;
+    }
+
+    @Test
+    void testComparatorOrdersTies() {
+        List<FileResult> results = new ArrayList<>(Arrays.asList(
+                new FileResult("b.txt", 2, 0.5f), new FileResult("a.txt", 2, 0.5f),
+                new FileResult("c.txt", 2, 0.9f), new FileResult("d.txt", 3)));
+        results.sort(RelevancyComparator.INSTANCE);
+        List<String> files = new ArrayList<>();
+        results.forEach(result -> files.add(result.getFile()));
+        assertEquals(Arrays.asList("d.txt", "c.txt", "a.txt", "b.txt"), files);
+        assertEquals(0, RelevancyComparator.INSTANCE.compare(results.get(0), new FileResult("d.txt", 3)));
+    }
+}
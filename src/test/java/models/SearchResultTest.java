@@ -0,0 +1,47 @@
+package models;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+class SearchResultTest {
+    private final List<FileResult> results = Arrays.asList(
+            new FileResult("a.txt", 3), new FileResult("b.txt", 0), new FileResult("c.txt", 7),
+            new FileResult("d.txt", 1), new FileResult("e.txt", 0), new FileResult("f.txt", 5));
+
+    @Test
+    void testKeepsMostRelevantResults() {
+        SearchResult result = new SearchResult(results, 0, 2, false);
+        assertEquals(Arrays.asList("c.txt", "f.txt"), files(result.getSearchResultsList()));
+        assertEquals(4, result.getTotalCount());
+
+        SearchResult unlimited = new SearchResult(results, 0, SearchResult.UNLIMITED, false);
+        assertEquals(Arrays.asList("c.txt", "f.txt", "a.txt", "d.txt"), files(unlimited.getSearchResultsList()));
+        assertEquals(6, new SearchResult(results, 0).getSearchResultsList().size());
+        assertTrue(new SearchResult(results, 0, 0, true).getSearchResultsList().isEmpty());
+    }
+
+    @Test
+    void testPages() {
+        SearchResult result = new SearchResult(results, 0, SearchResult.UNLIMITED, false);
+        assertEquals(Arrays.asList("a.txt", "d.txt"), files(result.getPage(2, 10)));
+        assertEquals(Arrays.asList("f.txt"), files(result.getPage(1, 1)));
+        assertTrue(result.getPage(10, 10).isEmpty());
+
+        List<FileResult> iterated = new ArrayList<>();
+        result.forEach(iterated::add);
+        assertEquals(result.getSearchResultsList(), iterated);
+    }
+
+    private static List<String> files(List<FileResult> results) {
+        List<String> files = new ArrayList<>();
+        for (FileResult result : results) {
+            files.add(result.getFile());
+        }
+        return files;
+    }
+}
@@ -0,0 +1,69 @@
+package service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import enums.SearchType;
+import models.SearchResult;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+class CachingSearchServiceTest {
+    private final StubSearchService stub = new StubSearchService();
+
+    @Test
+    void testHitsAndGenerationInvalidation() {
+        CachingSearchService cache = new CachingSearchService(stub);
+
+        SearchResult first = cache.performStringMatch("the");
+        assertSame(first, cache.performStringMatch("the"));
+        assertNotSame(first, cache.performRegexMatch("the"));
+        assertEquals(2, stub.searches.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        stub.generation.incrementAndGet();
+        assertNotSame(first, cache.performStringMatch("the"));
+        assertEquals(3, stub.searches.get());
+        assertEquals(1, cache.getInvalidationCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed() {
+        CachingSearchService cache = new CachingSearchService(stub, 2, Long.MAX_VALUE);
+        cache.performStringMatch("a");
+        cache.performStringMatch("b");
+        cache.performStringMatch("a");
+        cache.performStringMatch("c");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        cache.performStringMatch("a");
+        assertEquals(3, stub.searches.get());
+        cache.performStringMatch("b");
+        assertEquals(4, stub.searches.get());
+    }
+
+    @Test
+    void testBatchAnswersCachedTermsAndSearchesTheRest() {
+        CachingSearchService cache = new CachingSearchService(stub);
+        SearchResult cached = cache.performStringMatch("b");
+
+        List<SearchResult> batch = cache.performBatchMatch(SearchType.STRING, Arrays.asList("a", "b", "c"));
+        assertEquals(3, batch.size());
+        assertEquals("a.txt", batch.get(0).getSearchResultsList().get(0).getFile());
+        assertSame(cached, batch.get(1));
+        assertEquals("c.txt", batch.get(2).getSearchResultsList().get(0).getFile());
+        assertEquals(3, stub.searches.get());
+        assertEquals(1, cache.getHitCount());
+
+        // The terms the batch searched are cached like single searches
+        assertSame(batch.get(0), cache.performStringMatch("a"));
+        assertSame(batch.get(2), cache.performStringMatch("c"));
+        assertNotSame(batch.get(0), cache.performRegexMatch("a"));
+        assertEquals(4, stub.searches.get());
+    }
+}
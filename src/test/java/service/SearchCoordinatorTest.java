@@ -0,0 +1,219 @@
+package service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import enums.SearchType;
+import models.FileResult;
+import models.SearchResult;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+class SearchCoordinatorTest {
+    private final List<ShardWorker> workers = new ArrayList<>();
+
+    @TempDir
+    Path tempDir;
+
+    @AfterEach
+    void closeWorkers() throws IOException {
+        for (ShardWorker worker : workers) {
+            worker.close();
+        }
+    }
+
+    @Test
+    void testMergesShards() throws IOException {
+        InetSocketAddress first = startWorker(new StubSearchService("first", 0));
+        InetSocketAddress second = startWorker(new StubSearchService("second", 0));
+
+        try (SearchCoordinator coordinator = new SearchCoordinator(Arrays.asList(
+                Collections.singletonList(first), Collections.singletonList(second)), 1000)) {
+            List<FileResult> results = coordinator.performStringMatch("the").getSearchResultsList();
+            assertEquals(2, results.size());
+            assertTrue(results.stream().anyMatch(result -> result.getFile().equals("first/the.txt")));
+            assertTrue(results.stream().anyMatch(result -> result.getFile().equals("second/the.txt")));
+            assertEquals(3, results.get(1).getCount());
+        }
+    }
+
+    @Test
+    void testRanksIndexedResultsOfShardsByCount() throws IOException {
+        InetSocketAddress first = startWorker(new StubSearchService("first", 0, 2));
+        InetSocketAddress second = startWorker(new StubSearchService("second", 0, 5, 2));
+
+        try (SearchCoordinator coordinator = new SearchCoordinator(Arrays.asList(
+                Collections.singletonList(first), Collections.singletonList(second)), 1000)) {
+            List<FileResult> results = coordinator.performIndexedMatch("the").getSearchResultsList();
+            assertEquals(3, results.size());
+            assertEquals("second/the.txt", results.get(0).getFile());
+            assertEquals("first/the.txt", results.get(1).getFile());
+            assertEquals("second/the-1.txt", results.get(2).getFile());
+            for (FileResult result : results) {
+                assertEquals(0, result.getScore());
+            }
+        }
+        try (SearchCoordinator coordinator = new SearchCoordinator(Collections.singletonList(
+                Collections.singletonList(first)), 1000)) {
+            assertEquals(0.5f, coordinator.performIndexedMatch("the").getSearchResultsList().get(0).getScore());
+        }
+    }
+
+    @Test
+    void testFailsOverToNextReplica() throws IOException {
+        StubSearchService stub = new StubSearchService("replica", 0);
+        InetSocketAddress closed = startWorker(stub);
+        InetSocketAddress slow = startWorker(new StubSearchService("slow", 2000));
+        InetSocketAddress live = startWorker(stub);
+        workers.get(0).close();
+
+        try (SearchCoordinator coordinator = new SearchCoordinator(Collections.singletonList(
+                Arrays.asList(closed, slow, live)), 200)) {
+            for (int i = 0; i < 3; i++) {
+                List<FileResult> results = coordinator.performIndexedMatch("the").getSearchResultsList();
+                assertEquals(1, results.size());
+                assertEquals("replica/the.txt", results.get(0).getFile());
+            }
+        }
+    }
+
+    @Test
+    void testReturnsPartialResultsWhenShardIsDown() throws IOException {
+        InetSocketAddress live = startWorker(new StubSearchService("live", 0));
+        InetSocketAddress down = startWorker(new StubSearchService("down", 0));
+        workers.get(1).close();
+
+        try (SearchCoordinator coordinator = new SearchCoordinator(Arrays.asList(
+                Collections.singletonList(live), Collections.singletonList(down)), 200)) {
+            List<FileResult> results = coordinator.performRegexMatch("the").getSearchResultsList();
+            assertEquals(1, results.size());
+            assertEquals("live/the.txt", results.get(0).getFile());
+        }
+    }
+
+    @Test
+    void testAppliesLimitAfterMerging() throws IOException {
+        InetSocketAddress first = startWorker(new StubSearchService("first", 0, 5, 0, 1));
+        InetSocketAddress second = startWorker(new StubSearchService("second", 0, 4, 2));
+
+        try (SearchCoordinator coordinator = new SearchCoordinator(Arrays.asList(
+                Collections.singletonList(first), Collections.singletonList(second)), 1000)) {
+            SearchResult result = coordinator.performStringMatch("the");
+            assertEquals(4, result.size());
+
+            coordinator.setResultLimit(2);
+            result = coordinator.performStringMatch("the");
+            assertEquals(2, result.size());
+            assertEquals(4, result.getTotalCount());
+            assertEquals("first/the.txt", result.getFile(0));
+            assertEquals("second/the.txt", result.getFile(1));
+
+            coordinator.setIncludeZeroCounts(true);
+            coordinator.setResultLimit(SearchResult.UNLIMITED);
+            assertEquals(5, coordinator.performStringMatch("the").size());
+        }
+    }
+
+    @Test
+    void testPollsGenerationsWithoutSearches() throws IOException, InterruptedException {
+        StubSearchService stub = new StubSearchService("first", 0);
+        InetSocketAddress address = startWorker(stub);
+
+        try (SearchCoordinator coordinator = new SearchCoordinator(Collections.singletonList(
+                Collections.singletonList(address)), 1000, 20)) {
+            long generation = coordinator.getGeneration();
+            // Let the first poll record the starting generation
+            Thread.sleep(100);
+            stub.generation.incrementAndGet();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (coordinator.getGeneration() == generation && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertNotEquals(generation, coordinator.getGeneration());
+        }
+    }
+
+    @Test
+    void testSearchesForkedWorkers() throws IOException, InterruptedException {
+        List<Process> processes = new ArrayList<>();
+        try {
+            List<List<InetSocketAddress>> shards = new ArrayList<>();
+            for (String shard : new String[] {"first", "second"}) {
+                Path corpus = Files.createDirectories(tempDir.resolve(shard).resolve("corpus"));
+                String text = "in the " + shard + " in the end";
+                Files.write(corpus.resolve(shard + ".txt"), text.getBytes(StandardCharsets.UTF_8));
+                Process process = forkWorker(tempDir.resolve(shard), corpus);
+                processes.add(process);
+                shards.add(Collections.singletonList(new InetSocketAddress("localhost", readPort(process))));
+            }
+
+            try (SearchCoordinator coordinator = new SearchCoordinator(shards, 5000)) {
+                for (SearchType type : SearchType.values()) {
+                    List<FileResult> results = coordinator.performMatch(type, "in the").getSearchResultsList();
+                    assertEquals(2, results.size(), type.toString());
+                    for (FileResult result : results) {
+                        assertEquals(2, result.getCount(), result.getFile());
+                    }
+                }
+
+                processes.get(1).destroy();
+                processes.get(1).waitFor();
+                List<FileResult> results = coordinator.performStringMatch("in the").getSearchResultsList();
+                assertEquals(1, results.size());
+                assertTrue(results.get(0).getFile().endsWith("first.txt"));
+            }
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+                process.waitFor();
+            }
+        }
+    }
+
+    @Test
+    void testParseShards() {
+        List<List<InetSocketAddress>> shards = SearchCoordinator.parseShards("localhost:9001|localhost:9002,localhost:9003");
+        assertEquals(2, shards.size());
+        assertEquals(2, shards.get(0).size());
+        assertEquals(9002, shards.get(0).get(1).getPort());
+        assertEquals(9003, shards.get(1).get(0).getPort());
+    }
+
+    private static Process forkWorker(Path workingDir, Path corpus) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ShardWorker.class.getName(), "0", corpus.toString());
+        builder.directory(workingDir.toFile());
+        builder.redirectError(workingDir.resolve("worker.log").toFile());
+        return builder.start();
+    }
+
+    private static int readPort(Process process) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line = reader.readLine();
+        assertNotNull(line, "Shard worker exited before listening");
+        return Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+    }
+
+    private InetSocketAddress startWorker(SearchServiceInterface searchService) throws IOException {
+        ShardWorker worker = new ShardWorker(searchService, 0, ShardWorker.DEFAULT_MAX_CONNECTIONS);
+        worker.start();
+        workers.add(worker);
+        return new InetSocketAddress("localhost", worker.getPort());
+    }
+}
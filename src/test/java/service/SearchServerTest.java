@@ -0,0 +1,108 @@
+package service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+class SearchServerTest {
+    private final StubSearchService stub = StubSearchService.blocking();
+    private SearchServer server;
+
+    @AfterEach
+    void closeServer() {
+        stub.release.countDown();
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    void testReturnsResultAsJson() throws IOException {
+        stub.release.countDown();
+        server = startServer(2, 4);
+
+        HttpURLConnection connection = open("/search?type=memory_index&term=the%20%22end%22");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("{\"elapsedTime\":7,\"total\":1,\"results\":[{\"file\":\"the \\\"end\\\".txt\",\"count\":3,\"score\":0.5}]}",
+                read(connection.getInputStream()));
+        assertEquals("{\"elapsedTime\":7,\"total\":1,\"results\":[]}",
+                read(open("/search?type=string&term=a&offset=1&limit=5").getInputStream()));
+    }
+
+    @Test
+    void testServesMetricsAsText() throws IOException {
+        server = startServer(2, 4);
+        stub.metrics.recordScan(3, 4096);
+
+        HttpURLConnection connection = open("/metrics");
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("text/plain"));
+        assertTrue(read(connection.getInputStream()).contains("documentsearch_bytes_scanned_total 4096\n"));
+    }
+
+    @Test
+    void testRejectsInvalidRequests() throws IOException {
+        server = startServer(2, 4);
+        assertEquals(400, open("/search?type=fuzzy&term=the").getResponseCode());
+        assertEquals(400, open("/search?type=string").getResponseCode());
+        assertEquals(400, open("/search?type=string&term=a&limit=-1").getResponseCode());
+        assertEquals(400, open("/search?type=string&term=%zz").getResponseCode());
+        assertEquals(404, open("/other").getResponseCode());
+    }
+
+    @Test
+    void testTurnsAwayRequestsWhenSaturated() throws Exception {
+        server = startServer(1, 0);
+        ExecutorService client = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> first = client.submit(() -> open("/search?type=string&term=a").getResponseCode());
+            assertTrue(stub.started.await(5, TimeUnit.SECONDS));
+
+            HttpURLConnection second = open("/search?type=string&term=b");
+            assertEquals(429, second.getResponseCode());
+            assertEquals("1", second.getHeaderField("Retry-After"));
+            assertEquals(1, server.getRejectedCount());
+
+            stub.release.countDown();
+            assertEquals(200, (int) first.get(5, TimeUnit.SECONDS));
+        } finally {
+            client.shutdownNow();
+        }
+    }
+
+    private SearchServer startServer(int workerThreads, int queueCapacity) throws IOException {
+        SearchServer server = new SearchServer(stub, 0, workerThreads, queueCapacity);
+        server.start();
+        return server;
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http",
+                InetAddress.getLoopbackAddress().getHostAddress(), server.getPort(), path).openConnection();
+        connection.setReadTimeout(5000);
+        return connection;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
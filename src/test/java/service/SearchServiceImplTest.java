@@ -2,16 +2,37 @@ package service;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import enums.SearchType;
 import models.FileResult;
+import models.QueryTrace;
 import models.SearchResult;
 
 import org.junit.jupiter.api.Test;
-
+import org.junit.jupiter.api.io.TempDir;
+import util.DirectoryCorpusSource;
+import util.DirectoryWatcher;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 class SearchServiceImplTest {
     private SearchServiceInterface searchService = new SearchServiceImpl();
 
+    @TempDir
+    Path tempDir;
+
     private static final String FRENCH_FILE = "/Users/twanwatanakool/IdeaProjects/DocumentSearch/target/classes/french_armed_forces.txt";
     private static final String HITCH_FILE = "/Users/twanwatanakool/IdeaProjects/DocumentSearch/target/classes/hitchhikers.txt";
     private static final String WARP_FILE = "/Users/twanwatanakool/IdeaProjects/DocumentSearch/target/classes/warp_drive.txt";
@@ -41,6 +62,161 @@ class SearchServiceImplTest {
         assertIsResults(resultData);
     }
 
+    @Test
+    void testTracedSearches() {
+        assertNull(searchService.performStringMatch(IN_THE_STR).getTrace());
+
+        QueryTrace trace = searchService.performTracedMatch(SearchType.STRING, IN_THE_STR).getTrace();
+        assertEquals("plan", trace.getStage(0));
+        assertEquals("scan", trace.getStage(1));
+        assertEquals("rank", trace.getStage(2));
+
+        SearchResult indexed = searchService.performTracedMatch(SearchType.INDEXED, IS_STR);
+        assertEquals(3, indexed.size());
+        trace = indexed.getTrace();
+        for (String stage : new String[] {"plan", "shards", "shards.postings", "shards.scoring",
+                "shards.stored_fields", "merge", "rank"}) {
+            assertTrue(trace.getNanos(stage) >= 0, stage);
+        }
+    }
+
+    @Test
+    void testConcurrentSearches() throws Exception {
+        SearchResult expected = searchService.performStringMatch(IN_THE_STR);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<SearchResult>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                futures.add(executor.submit(() -> searchService.performStringMatch(IN_THE_STR)));
+                futures.add(executor.submit(() -> searchService.performIndexedMatch(IS_STR)));
+            }
+            for (int i = 0; i < futures.size(); i += 2) {
+                List<FileResult> actual = futures.get(i).get().getSearchResultsList();
+                for (int j = 0; j < actual.size(); j++) {
+                    assertEquals(expected.getSearchResultsList().get(j).getFile(), actual.get(j).getFile());
+                    assertEquals(expected.getSearchResultsList().get(j).getCount(), actual.get(j).getCount());
+                }
+                assertEquals(3, futures.get(i + 1).get().getSearchResultsList().size());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThrows(UnsupportedOperationException.class, () -> expected.getSearchResultsList().clear());
+    }
+
+    @Test
+    void testWatchedChangesAreSearchable() throws IOException, InterruptedException {
+        Path corpusDir = Files.createDirectory(tempDir.resolve("corpus"));
+        Path kept = writeFile(corpusDir.resolve("kept.txt"), "in the end");
+        Path changed = writeFile(corpusDir.resolve("changed.txt"), "in the beginning and in the middle and in the end");
+        List<Path> directories = Collections.singletonList(corpusDir);
+        try (SearchServiceImpl service = new SearchServiceImpl(new DirectoryCorpusSource(directories), 2, 16, 1,
+                     tempDir.resolve("index"));
+             DirectoryWatcher watcher = service.watchDirectories(directories, 50)) {
+            Map<String, Integer> expected = new HashMap<>();
+            expected.put(kept.toString(), 1);
+            expected.put(changed.toString(), 3);
+            assertTrue(awaitCounts(service, expected));
+
+            // Shrink a file and add one in a new directory
+            writeFile(changed, "in the end");
+            Path nested = Files.createDirectory(corpusDir.resolve("nested"));
+            Path added = writeFile(nested.resolve("added.txt"), "in the in the in the");
+            expected.put(changed.toString(), 1);
+            expected.put(added.toString(), 3);
+            assertTrue(awaitCounts(service, expected));
+            assertTrue(watcher.getBatchCount() > 0);
+
+            Files.delete(added);
+            Files.delete(nested);
+            expected.remove(added.toString());
+            assertTrue(awaitCounts(service, expected));
+        }
+    }
+
+    @Test
+    void testBatchMatchesPerTermSearches() throws IOException {
+        Path corpusDir = Files.createDirectory(tempDir.resolve("corpus"));
+        writeFile(corpusDir.resolve("a.txt"), "In the beginning the end was in the middle of the end");
+        writeFile(corpusDir.resolve("b.txt"), "the the the end. THE END and in then in the");
+        writeFile(corpusDir.resolve("c.txt"), "nothing to see here");
+        List<String> terms = Arrays.asList("in the", "the", "the end", "end", "the", "missing", "t[a-z]e");
+        // A small region size puts matches across region boundaries
+        try (SearchServiceImpl service = new SearchServiceImpl(
+                new DirectoryCorpusSource(Collections.singletonList(corpusDir)), 2, 16, 1, tempDir.resolve("index"))) {
+            for (SearchType type : SearchType.values()) {
+                List<SearchResult> batch = service.performBatchMatch(type, terms);
+                assertEquals(terms.size(), batch.size());
+                for (int i = 0; i < terms.size(); i++) {
+                    assertSameResults(service.performMatch(type, terms.get(i)), batch.get(i), type + " " + terms.get(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testIndexCountsMatchStringCountsOnNonAsciiText() throws IOException {
+        Path corpusDir = Files.createDirectory(tempDir.resolve("corpus"));
+        // Accented capitals, a no-break space and a line separator, none of
+        // which the string match folds or splits on
+        writeFile(corpusDir.resolve("a.txt"), "caf\u00e9 CAF\u00c9 Caf\u00e9 na\u00efve\u00a0word word"
+                + " word\u2028next \u00e9t\u00e9 \u00c9T\u00c9 WORD");
+        writeFile(corpusDir.resolve("b.txt"), "\u00c9T\u00c9 word\u00a0word caf\u00e9");
+        List<String> terms = Arrays.asList("caf\u00e9", "CAF\u00c9", "word", "na\u00efve\u00a0word", "\u00e9t\u00e9",
+                "\u00c9T\u00c9", "next");
+        try (SearchServiceImpl service = new SearchServiceImpl(
+                new DirectoryCorpusSource(Collections.singletonList(corpusDir)), 1, 64, 1, tempDir.resolve("index"))) {
+            for (String term : terms) {
+                Map<String, Integer> expected = counts(service.performStringMatch(term));
+                assertEquals(expected, counts(service.performIndexedMatch(term)), "indexed " + term);
+                assertEquals(expected, counts(service.performMemoryIndexMatch(term)), "memory index " + term);
+            }
+        }
+    }
+
+    private static Map<String, Integer> counts(SearchResult result) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (FileResult fileResult : result.getSearchResultsList()) {
+            counts.put(fileResult.getFile(), fileResult.getCount());
+        }
+        return counts;
+    }
+
+    private static void assertSameResults(SearchResult expected, SearchResult actual, String message) {
+        assertEquals(expected.size(), actual.size(), message);
+        for (int i = 0; i < expected.size(); i++) {
+            FileResult expectedResult = expected.getSearchResultsList().get(i);
+            FileResult actualResult = actual.getSearchResultsList().get(i);
+            assertEquals(expectedResult.getFile(), actualResult.getFile(), message);
+            assertEquals(expectedResult.getCount(), actualResult.getCount(), message);
+            assertEquals(expectedResult.getScore(), actualResult.getScore(), message);
+        }
+    }
+
+    private static Path writeFile(Path file, String contents) throws IOException {
+        return Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean awaitCounts(SearchServiceImpl service, Map<String, Integer> expected)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            boolean matched = true;
+            for (SearchType type : SearchType.values()) {
+                Map<String, Integer> counts = new HashMap<>();
+                for (FileResult result : service.performMatch(type, IN_THE_STR).getSearchResultsList()) {
+                    counts.put(result.getFile(), result.getCount());
+                }
+                matched &= expected.equals(counts);
+            }
+            if (matched) {
+                return true;
+            }
+            Thread.sleep(50);
+        }
+        return false;
+    }
+
     private void assertInTheResults(List<FileResult> result) {
         assertEquals(FRENCH_FILE, result.get(0).getFile());
         assertEquals(15, result.get(0).getCount());
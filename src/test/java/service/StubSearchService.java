@@ -0,0 +1,89 @@
+package service;
+
+import models.FileResult;
+import models.SearchResult;
+import util.SearchMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The StubSearchService is the search service the service tests run
+ * against. Every search type returns the same results, named after the
+ * search term and the stub's directory: by default one with a count of 3,
+ * otherwise one per given count, the first named after the term and the
+ * others numbered. A search waits for the delay, and for the stub to be
+ * released if it was created blocking.
+ */
+class StubSearchService implements SearchServiceInterface {
+    static final long ELAPSED_TIME = 7;
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release;
+    final AtomicInteger searches = new AtomicInteger();
+    final AtomicLong generation = new AtomicLong();
+    final SearchMetrics metrics = new SearchMetrics();
+
+    private final String directory;
+    private final long delayMillis;
+    private final int[] counts;
+
+    StubSearchService() {
+        this("", 0);
+    }
+
+    StubSearchService(String directory, long delayMillis) {
+        this(directory, delayMillis, 3);
+    }
+
+    StubSearchService(String directory, long delayMillis, int... counts) {
+        this(directory, delayMillis, new CountDownLatch(0), counts);
+    }
+
+    private StubSearchService(String directory, long delayMillis, CountDownLatch release, int... counts) {
+        this.directory = directory;
+        this.delayMillis = delayMillis;
+        this.release = release;
+        this.counts = counts;
+    }
+
+    /**
+     * Returns a stub whose searches wait until release is counted down.
+     */
+    static StubSearchService blocking() {
+        return new StubSearchService("", 0, new CountDownLatch(1), 3);
+    }
+
+    private SearchResult result(String searchTerm) {
+        searches.incrementAndGet();
+        started.countDown();
+        try {
+            Thread.sleep(delayMillis);
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<FileResult> results = new ArrayList<>();
+        for (int i = 0; i < counts.length; i++) {
+            String name = i == 0 ? searchTerm : searchTerm + "-" + i;
+            String file = directory.isEmpty() ? name + ".txt" : directory + "/" + name + ".txt";
+            results.add(new FileResult(file, counts[i], 0.5f));
+        }
+        return new SearchResult(results, ELAPSED_TIME);
+    }
+
+    public SearchResult performStringMatch(String searchTerm) { return result(searchTerm); }
+
+    public SearchResult performRegexMatch(String searchTerm) { return result(searchTerm); }
+
+    public SearchResult performIndexedMatch(String searchTerm) { return result(searchTerm); }
+
+    public SearchResult performMemoryIndexMatch(String searchTerm) { return result(searchTerm); }
+
+    public long getGeneration() { return generation.get(); }
+
+    public SearchMetrics getMetrics() { return metrics; }
+}
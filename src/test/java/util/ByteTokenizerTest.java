@@ -0,0 +1,69 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+class ByteTokenizerTest {
+
+    @Test
+    void testFoldTokensOnlyFoldsAscii() {
+        byte[][] tokens = ByteTokenizer.foldTokens(new String[] {"The", "CAF\u00C9"});
+
+        assertArrayEquals("the".getBytes(StandardCharsets.UTF_8), tokens[0]);
+        assertArrayEquals("caf\u00C9".getBytes(StandardCharsets.UTF_8), tokens[1]);
+    }
+
+    @Test
+    void testCountMatches() {
+        ByteBuffer buffer = bytes("The cat\tsat in THE hat.\nthe\r\nend the");
+
+        assertEquals(4, count(buffer, "the"));
+        assertEquals(0, count(buffer, "hat"));
+        assertEquals(1, count(buffer, "hat."));
+        assertEquals(1, count(buffer, "in the hat."));
+        assertEquals(1, count(buffer, "the end"));
+    }
+
+    @Test
+    void testPhrasesDoNotOverlap() {
+        ByteBuffer buffer = bytes("the the the the the");
+
+        assertEquals(2, count(buffer, "the the"));
+        assertEquals(1, count(buffer, "the the the"));
+    }
+
+    @Test
+    void testNonAsciiTokens() {
+        ByteBuffer buffer = bytes("un caf\u00E9, un CAF\u00C9, un caf\u00C9 et un caf\u00E9");
+
+        assertEquals(1, count(buffer, "caf\u00E9"));
+        assertEquals(1, count(buffer, "caf\u00E9,"));
+        assertEquals(1, count(buffer, "CAF\u00C9,"));
+        assertEquals(1, count(buffer, "CAF\u00C9"));
+        assertEquals(4, count(buffer, "un"));
+    }
+
+    @Test
+    void testMatchesStartBeforeEnd() {
+        ByteBuffer buffer = bytes("the cat the cat the");
+        byte[][] tokens = ByteTokenizer.foldTokens("the cat".split(" "));
+
+        // The second match starts at 8, so it belongs to the range that
+        // contains 8 even though it runs past the end of that range
+        assertEquals(2, ByteTokenizer.countMatches(buffer, 0, 9, tokens));
+        assertEquals(1, ByteTokenizer.countMatches(buffer, 0, 8, tokens));
+        assertEquals(1, ByteTokenizer.countMatches(buffer, 8, buffer.limit(), tokens));
+    }
+
+    private static int count(ByteBuffer buffer, String term) {
+        return ByteTokenizer.countMatches(buffer, 0, buffer.limit(), ByteTokenizer.foldTokens(term.split(" ")));
+    }
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
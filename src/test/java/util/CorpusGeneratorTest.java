@@ -0,0 +1,76 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+class CorpusGeneratorTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testSameSeedWritesSameCorpus() throws IOException {
+        List<String> phrases = Collections.singletonList("quick brown");
+        long first = new CorpusGenerator(7).generate(tempDir.resolve("first"), 3, 4096, phrases, 0.5);
+        long second = new CorpusGenerator(7).generate(tempDir.resolve("second"), 3, 4096, phrases, 0.5);
+
+        assertEquals(first, second);
+        assertTrue(first >= 3 * 4096);
+        for (int i = 0; i < 3; i++) {
+            String name = String.format("doc-%06d.txt", i);
+            assertArrayEquals(Files.readAllBytes(tempDir.resolve("first").resolve(name)),
+                    Files.readAllBytes(tempDir.resolve("second").resolve(name)));
+        }
+    }
+
+    @Test
+    void testSeedsDrawDifferentDocuments() throws IOException {
+        // With a document seed of seed * 31 + document, document 31 of seed
+        // 0 drew the same words as document 0 of seed 1
+        CorpusGenerator first = new CorpusGenerator(0, 1000, 1.0);
+        CorpusGenerator second = new CorpusGenerator(1, 1000, 1.0);
+        first.generate(tempDir.resolve("first"), 32, 1024);
+        second.generate(tempDir.resolve("second"), 1, 1024);
+        assertNotEquals(firstLineRanks(first, tempDir.resolve("first").resolve("doc-000031.txt")),
+                firstLineRanks(second, tempDir.resolve("second").resolve("doc-000000.txt")));
+    }
+
+    private static List<Integer> firstLineRanks(CorpusGenerator generator, Path file) throws IOException {
+        List<String> vocabulary = new ArrayList<>();
+        for (int rank = 0; rank < generator.getVocabularySize(); rank++) {
+            vocabulary.add(generator.getWord(rank));
+        }
+        List<Integer> ranks = new ArrayList<>();
+        for (String word : Files.readAllLines(file).get(0).split(" ")) {
+            ranks.add(vocabulary.indexOf(word));
+        }
+        return ranks;
+    }
+
+    @Test
+    void testWordsFollowZipfAndPhrasesAreEmbedded() throws IOException {
+        CorpusGenerator generator = new CorpusGenerator(7, 1000, 1.0);
+        generator.generate(tempDir, 1, 64 * 1024, Collections.singletonList("quick brown"), 0.1);
+        InvertedIndex index = new InvertedIndex(Arrays.asList(tempDir.toFile().listFiles(File::isFile)));
+
+        int mostFrequent = index.countMatches(generator.getWord(0))[0];
+        int tenth = index.countMatches(generator.getWord(9))[0];
+        int hundredth = index.countMatches(generator.getWord(99))[0];
+        assertTrue(mostFrequent > tenth && tenth > hundredth, mostFrequent + " " + tenth + " " + hundredth);
+        assertTrue(index.countMatches("quick brown")[0] > 0);
+
+        for (String word : generator.getWords(5, 3)) {
+            assertEquals(5, word.length());
+        }
+    }
+}
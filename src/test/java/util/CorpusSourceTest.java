@@ -0,0 +1,104 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+class CorpusSourceTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testDirectoryCorpusWalksSubdirectories() throws IOException {
+        Path first = writeFile("first.txt");
+        Path second = writeFile("nested/deeper/second.txt");
+
+        CorpusSource corpus = new DirectoryCorpusSource(Collections.singletonList(tempDir));
+        assertEquals(new HashSet<>(Arrays.asList(first.toFile(), second.toFile())), collect(corpus));
+    }
+
+    @Test
+    void testDirectoryCorpusSkipsMissingDirectories() throws IOException {
+        Path first = writeFile("first.txt");
+        Path second = writeFile("nested/second.txt");
+        writeFile("other/third.txt");
+
+        CorpusSource corpus = new DirectoryCorpusSource(Arrays.asList(tempDir.resolve("missing"), tempDir));
+        Set<File> files = new HashSet<>();
+        try (Stream<File> stream = corpus.files()) {
+            Iterator<File> it = stream.iterator();
+            File firstFound = it.next().getAbsoluteFile();
+            files.add(firstFound);
+            // A directory deleted before the walk reaches it is skipped
+            for (Path directory : Arrays.asList(tempDir.resolve("other"), tempDir.resolve("nested"))) {
+                if (!firstFound.toPath().startsWith(directory.toAbsolutePath())) {
+                    deleteTree(directory);
+                }
+            }
+            it.forEachRemaining(file -> files.add(file.getAbsoluteFile()));
+        }
+        assertTrue(files.contains(first.toFile().getAbsoluteFile()) || files.contains(second.toFile().getAbsoluteFile()));
+        for (File file : files) {
+            assertTrue(file.exists(), file.toString());
+        }
+    }
+
+    @Test
+    void testSnapshotCorpusKeepsItsFiles() throws IOException {
+        Path first = writeFile("first.txt");
+        CorpusSource snapshot = new SnapshotCorpusSource(new DirectoryCorpusSource(Collections.singletonList(tempDir)));
+        writeFile("second.txt");
+
+        assertEquals(Collections.singleton(first.toFile().getAbsoluteFile()), collect(snapshot));
+        assertEquals(Collections.singleton(first.toFile().getAbsoluteFile()), collect(snapshot));
+    }
+
+    @Test
+    void testManifestCorpusResolvesRelativePaths() throws IOException {
+        Path first = writeFile("docs/first.txt");
+        Path second = writeFile("second.txt");
+        Path manifest = tempDir.resolve("corpus.txt");
+        String lines = "# documents\n\ndocs/first.txt\n  " + second.toAbsolutePath() + "  \n";
+        Files.write(manifest, lines.getBytes(StandardCharsets.UTF_8));
+
+        CorpusSource corpus = new ManifestCorpusSource(manifest);
+        assertEquals(new HashSet<>(Arrays.asList(first.toFile().getAbsoluteFile(), second.toFile().getAbsoluteFile())),
+                collect(corpus));
+    }
+
+    private Set<File> collect(CorpusSource corpus) throws IOException {
+        try (Stream<File> files = corpus.files()) {
+            return files.map(File::getAbsoluteFile).collect(Collectors.toSet());
+        }
+    }
+
+    private static void deleteTree(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private Path writeFile(String name) throws IOException {
+        Path path = tempDir.resolve(name);
+        Files.createDirectories(path.getParent());
+        Files.write(path, "in the end".getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+}
@@ -0,0 +1,89 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+class DirectoryWatcherTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testPassesOnCreatedAndDeletedFiles() throws IOException, InterruptedException {
+        List<Path> directories = Collections.singletonList(tempDir);
+        CorpusSource corpus = new DirectoryCorpusSource(directories);
+        BlockingQueue<List<File>> batches = new LinkedBlockingQueue<>();
+        try (DirectoryWatcher watcher = new DirectoryWatcher(directories, 50, paths -> batches.add(listFiles(corpus)))) {
+            watcher.start();
+
+            Path nested = Files.createDirectory(tempDir.resolve("nested"));
+            Path file = nested.resolve("new.txt");
+            Files.write(file, "in the end".getBytes(StandardCharsets.UTF_8));
+            assertTrue(awaitFiles(batches, Collections.singletonList(file.toFile())));
+
+            Files.delete(file);
+            assertTrue(awaitFiles(batches, Collections.<File>emptyList()));
+        }
+    }
+
+    @Test
+    void testPassesOnChangedPaths() throws IOException, InterruptedException {
+        Path file = Files.write(tempDir.resolve("existing.txt"), "in the".getBytes(StandardCharsets.UTF_8));
+        BlockingQueue<Set<Path>> batches = new LinkedBlockingQueue<>();
+        try (DirectoryWatcher watcher = new DirectoryWatcher(Collections.singletonList(tempDir), 50, batches::add)) {
+            watcher.start();
+
+            Files.write(file, "in the end".getBytes(StandardCharsets.UTF_8));
+            assertTrue(awaitPath(batches, file));
+
+            Path nested = Files.createDirectory(tempDir.resolve("nested"));
+            assertTrue(awaitPath(batches, nested));
+        }
+    }
+
+    private boolean awaitPath(BlockingQueue<Set<Path>> batches, Path expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            Set<Path> paths = batches.poll(100, TimeUnit.MILLISECONDS);
+            if (paths != null && paths.contains(expected)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<File> listFiles(CorpusSource corpus) {
+        try (Stream<File> files = corpus.files()) {
+            return files.collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean awaitFiles(BlockingQueue<List<File>> batches, List<File> expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            List<File> files = batches.poll(100, TimeUnit.MILLISECONDS);
+            if (expected.equals(files)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
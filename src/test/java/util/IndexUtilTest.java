@@ -0,0 +1,99 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Bits;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+class IndexUtilTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testManifestRoundTrip() throws IOException {
+        Path path = tempDir.resolve("index.manifest");
+        IndexManifest manifest = new IndexManifest(path);
+        manifest.put("/docs/a.txt", new IndexManifest.FileState(10, 1000, 42));
+        manifest.put("/docs/b,c.txt", new IndexManifest.FileState(0, 2000, 0));
+        manifest.save();
+
+        IndexManifest loaded = IndexManifest.load(path);
+        assertEquals(manifest.getFiles(), loaded.getFiles());
+        assertEquals(42, loaded.get("/docs/a.txt").getChecksum());
+        assertEquals(2000, loaded.get("/docs/b,c.txt").getLastModified());
+        assertTrue(IndexManifest.load(tempDir.resolve("missing.manifest")).isEmpty());
+    }
+
+    @Test
+    void testIncrementalUpdate() throws IOException {
+        Path docs = Files.createDirectory(tempDir.resolve("docs"));
+        Path a = write(docs.resolve("a.txt"), "the cat in the hat");
+        Path b = write(docs.resolve("b.txt"), "the dog");
+        CorpusSource corpus = new DirectoryCorpusSource(Collections.singletonList(docs));
+        IndexUtil indexUtil = new IndexUtil();
+        Path indexPath = tempDir.resolve("index");
+
+        try (Directory indexDir = indexUtil.openIndexDirectory(indexPath)) {
+            // The first update builds the index and keeps the manifest next to it
+            assertEquals(2, indexUtil.updateIndex(indexDir, corpus));
+            assertTrue(Files.exists(tempDir.resolve("index.manifest")));
+            assertEquals(2, countThe(indexDir).size());
+
+            // Unchanged files are skipped, even if only their time changed
+            assertEquals(0, indexUtil.updateIndex(indexDir, corpus));
+            assertTrue(a.toFile().setLastModified(a.toFile().lastModified() + 10000));
+            assertEquals(0, indexUtil.updateIndex(indexDir, corpus));
+
+            // A modified file is reindexed in place
+            write(b, "the dog and the the cat");
+            assertEquals(1, indexUtil.updateIndex(indexDir, corpus));
+            assertEquals(Integer.valueOf(3), countThe(indexDir).get(b.toString()));
+
+            // An added file is indexed and a deleted one removed
+            Path c = write(docs.resolve("c.txt"), "the end");
+            Files.delete(a);
+            assertEquals(2, indexUtil.updateIndex(indexDir, corpus));
+            Map<String, Integer> counts = countThe(indexDir);
+            assertEquals(2, counts.size());
+            assertEquals(Integer.valueOf(1), counts.get(c.toString()));
+            assertFalse(counts.containsKey(a.toString()));
+            assertEquals(0, indexUtil.updateIndex(indexDir, corpus));
+        }
+    }
+
+    @Test
+    void testManifestPathNeedsFilesystemIndex() {
+        assertThrows(IllegalArgumentException.class, () -> IndexUtil.manifestPathFor(new RAMDirectory()));
+    }
+
+    private static Map<String, Integer> countThe(Directory indexDir) throws IOException {
+        Map<String, Integer> counts = new HashMap<>();
+        try (DirectoryReader reader = DirectoryReader.open(indexDir)) {
+            int[] perDoc = new IndexUtil().countMatches(reader, "the");
+            Bits liveDocs = MultiFields.getLiveDocs(reader);
+            for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                if (liveDocs == null || liveDocs.get(doc)) {
+                    counts.put(reader.document(doc).get(IndexUtil.FILEPATH_FIELD), perDoc[doc]);
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static Path write(Path path, String text) throws IOException {
+        return Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+    }
+}
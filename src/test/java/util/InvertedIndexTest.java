@@ -0,0 +1,81 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+class InvertedIndexTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testCountMatches() throws IOException {
+        File first = writeFile("first.txt", "The cat sat in the hat.\nIn the end the cat left");
+        File second = writeFile("second.txt", "in in the the the");
+        InvertedIndex index = new InvertedIndex(Arrays.asList(first, second));
+
+        assertArrayEquals(new int[] {2, 0}, index.countMatches("cat"));
+        assertArrayEquals(new int[] {4, 3}, index.countMatches("THE"));
+        assertArrayEquals(new int[] {2, 1}, index.countMatches("in the"));
+        assertArrayEquals(new int[] {0, 0}, index.countMatches("the dog"));
+        assertArrayEquals(new int[] {0, 1}, index.countMatches("the the"));
+    }
+
+    @Test
+    void testUpdateMatchesRebuild() throws IOException {
+        File first = writeFile("first.txt", "the cat in the hat");
+        File second = writeFile("second.txt", "the dog");
+        File third = writeFile("third.txt", "in the end");
+        InvertedIndex index = new InvertedIndex(Arrays.asList(first, second, third));
+
+        for (int round = 0; round < 20; round++) {
+            // Rewrite one file, delete another and bring it back later, so
+            // the index grows segments and deleted documents until it merges
+            writeFile("second.txt", "the the dog " + round + " in the");
+            File added = writeFile("added-" + round + ".txt", "the cat " + round);
+            File removed = round % 3 == 0 ? third : null;
+            if (removed != null) {
+                Files.delete(removed.toPath());
+            } else if (!third.exists()) {
+                writeFile("third.txt", "in the end " + round);
+            }
+            index = index.update(Arrays.asList(second, added, third));
+
+            InvertedIndex rebuilt = new InvertedIndex(new DirectoryCorpusSource(Collections.singletonList(tempDir)));
+            for (String term : new String[] {"the", "cat", "in the", "the the", "dog " + round}) {
+                assertEquals(countsByPath(rebuilt, term), countsByPath(index, term), term);
+            }
+            assertEquals(countsByPath(rebuilt, "nothing").keySet(), countsByPath(index, "nothing").keySet());
+        }
+    }
+
+    private static Map<String, Integer> countsByPath(InvertedIndex index, String term) {
+        int[] counts = index.countMatches(term);
+        Map<String, Integer> byPath = new HashMap<>();
+        for (int docId = 0; docId < index.getDocumentCount(); docId++) {
+            if (!index.isDeleted(docId)) {
+                assertNull(byPath.put(index.getFilePath(docId), counts[docId]));
+            } else {
+                assertEquals(0, counts[docId]);
+            }
+        }
+        return byPath;
+    }
+
+    private File writeFile(String name, String contents) throws IOException {
+        Path path = tempDir.resolve(name);
+        Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+        return path.toFile();
+    }
+}
@@ -0,0 +1,106 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import enums.SearchType;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+class LatencyHistogramTest {
+
+    @Test
+    void testPercentilesWithinOnePercent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100000; value++) {
+            histogram.record(value * 1000);
+        }
+        assertEquals(100000, histogram.getCount());
+        assertEquals(100000000L, histogram.getMax());
+        assertEquals(50000500.0, histogram.getMean(), 1e-6);
+
+        for (double percentile : new double[] {1, 50, 90, 99, 99.9}) {
+            double expected = percentile * 1000 * 1000;
+            long actual = histogram.getValueAtPercentile(percentile);
+            assertTrue(actual >= expected && actual <= expected * 1.01,
+                    percentile + "th percentile " + actual + " is not within 1% of " + expected);
+        }
+        assertEquals(histogram.getMax(), histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void testSmallAndLargeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        histogram.record(-5);
+        histogram.record(17);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.getValueAtPercentile(1));
+        assertEquals(17, histogram.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+
+        // Every value falls in a bucket whose range contains it
+        for (long value : new long[] {0, 255, 256, 257, 1000, 123456789L, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(value <= LatencyHistogram.highestValueOf(bucket));
+            assertTrue(bucket == 0 || value > LatencyHistogram.highestValueOf(bucket - 1));
+        }
+    }
+
+    @Test
+    void testMetricsText() {
+        SearchMetrics metrics = new SearchMetrics();
+        metrics.recordSearch(SearchType.STRING, 2000000);
+        metrics.recordScan(3, 4096);
+        metrics.recordCacheHits(2);
+        metrics.recordCacheMisses(1);
+        metrics.recordIndexRefresh(5000000, new IndexingStats(3, 4096, 4000000, 1));
+
+        assertEquals(1, metrics.getSearchCount());
+        assertEquals(2000000, metrics.getLatencyNanos("string", 99));
+        String text = metrics.getText();
+        assertTrue(text.contains("documentsearch_search_latency_seconds{type=\"string\",quantile=\"0.99\"} 0.002\n"));
+        assertTrue(text.contains("documentsearch_search_latency_seconds_count{type=\"regex\"} 0\n"));
+        assertTrue(text.contains("documentsearch_index_refresh_seconds_count 1\n"));
+        assertTrue(text.contains("documentsearch_bytes_scanned_total 4096\n"));
+        assertTrue(text.contains("documentsearch_files_scanned_total 3\n"));
+        assertTrue(text.contains("documentsearch_cache_hits_total 2\n"));
+        assertTrue(text.contains("documentsearch_documents_indexed_total 3\n"));
+    }
+
+    @Test
+    void testMetricsTextSamplesBelongToTheirFamily() {
+        SearchMetrics metrics = new SearchMetrics();
+        metrics.recordSearch(SearchType.REGEX, 3000000);
+        metrics.recordIndexRefresh(5000000, null);
+        String text = metrics.getText();
+        assertTrue(text.contains("# TYPE documentsearch_search_latency_seconds_max gauge\n"
+                + "documentsearch_search_latency_seconds_max{type=\"string\"} 0.0\n"));
+        assertTrue(text.contains("documentsearch_search_latency_seconds_max{type=\"regex\"} 0.003\n"));
+        assertTrue(text.contains("# TYPE documentsearch_index_refresh_seconds_max gauge\n"
+                + "documentsearch_index_refresh_seconds_max 0.005\n"));
+
+        // A summary family holds its quantiles, _sum and _count only
+        String family = null;
+        String type = null;
+        Set<String> families = new HashSet<>();
+        for (String line : text.split("\n")) {
+            if (line.startsWith("# TYPE ")) {
+                String[] fields = line.split(" ");
+                family = fields[2];
+                type = fields[3];
+                assertTrue(families.add(family), "Family declared twice: " + family);
+                continue;
+            }
+            if (line.startsWith("#")) {
+                continue;
+            }
+            String name = line.split("[{ ]")[0];
+            boolean belongs = name.equals(family) || (type.equals("summary")
+                    && (name.equals(family + "_sum") || name.equals(family + "_count")));
+            assertTrue(belongs, line + " is not a sample of the " + type + " " + family);
+        }
+    }
+}
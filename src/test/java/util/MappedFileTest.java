@@ -0,0 +1,163 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+class MappedFileTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testAsciiRegionIsViewedInPlace() throws IOException {
+        MappedFile file = map("the cat in the hat", 1024);
+
+        assertTrue(file.isAscii(0));
+        assertTrue(file.getChars(0) instanceof ByteCharSequence);
+        assertEquals(file.getRegionEnd(0), file.getCharsEnd(0));
+        assertEquals(2, count(file, "\\bthe\\b"));
+    }
+
+    @Test
+    void testNonAsciiRegionIsDecoded() throws IOException {
+        MappedFile file = map("caf\u00E9 au lait, un caf\u00E9\n", 1024);
+
+        assertFalse(file.isAscii(0));
+        assertEquals("caf\u00E9 au lait, un caf\u00E9\n", file.getChars(0).toString());
+        assertEquals(file.getChars(0).length(), file.getCharsEnd(0));
+        assertEquals(2, count(file, "caf\u00E9"));
+        assertEquals(2, count(file, "\\bcaf\\w*"));
+        assertEquals(2, count(file, "caf.\\s"));
+    }
+
+    @Test
+    void testCharsEndOfNonAsciiRegions() throws IOException {
+        String line = "na\u00EFve \u65E5\u672C \uD83D\uDE00 caf\u00E9\n";
+        MappedFile file = map(line + line + line, line.getBytes(StandardCharsets.UTF_8).length);
+
+        assertEquals(3, file.getRegionCount());
+        int total = 0;
+        for (int region = 0; region < file.getRegionCount(); region++) {
+            assertEquals(line.length(), file.getCharsEnd(region));
+            total += count(file, region, "caf\u00E9|\u65E5\u672C|\uD83D\uDE00");
+        }
+        assertEquals(9, total);
+    }
+
+    @Test
+    void testCharsEndOfLatin1Regions() throws IOException {
+        // Each lone Latin-1 byte decodes to one replacement character
+        String line = "20\u00B0 \u00A9 \u00BD cup\n";
+        byte[] bytes = (line + line + line).getBytes(StandardCharsets.ISO_8859_1);
+        MappedFile file = map(bytes, line.length());
+
+        assertEquals(3, file.getRegionCount());
+        for (int region = 0; region < file.getRegionCount(); region++) {
+            assertFalse(file.isAscii(region));
+            assertEquals(line.length(), file.getCharsEnd(region));
+        }
+        assertEquals(3, count(file, "\\bcup\\b"));
+    }
+
+    @Test
+    void testRegionsEndAtLineBreaks() throws IOException {
+        MappedFile file = map("the cat\nin the hat\nsat\n", 12);
+
+        assertRegions(file, "the cat\n", "in the hat\n", "sat\n");
+    }
+
+    @Test
+    void testLongLinesAreCutAtWhitespace() throws IOException {
+        MappedFile file = map("the cat in\tthe hat", 8);
+
+        assertRegions(file, "the cat ", "in\tthe ", "hat");
+    }
+
+    @Test
+    void testTokensAreNeverCut() throws IOException {
+        StringBuilder longToken = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            longToken.append('x');
+        }
+        MappedFile file = map("abcdefghij klm " + longToken + " end", 4);
+
+        assertRegions(file, "abcdefghij ", "klm ", longToken + " ", "end");
+        // The region of the long token is mapped on to the end of the file
+        assertEquals(longToken.length() + 4, file.getRegion(2).limit());
+    }
+
+    @Test
+    void testTokenRunningToEndOfFile() throws IOException {
+        MappedFile file = map("the catsatinthehat", 8);
+
+        assertRegions(file, "the ", "catsatinthehat");
+    }
+
+    @Test
+    void testHeapRegionsMatchMappedRegions() throws IOException {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < MappedFile.MIN_MAPPED_SIZE + 100) {
+            text.append("the cat sat on the mat\n");
+        }
+        Path path = tempDir.resolve("large.txt");
+        Files.write(path, text.toString().getBytes(StandardCharsets.UTF_8));
+
+        MappedFile mapped = new MappedFile(path.toFile(), 10000, true);
+        MappedFile inHeap = new MappedFile(path.toFile(), 10000, false);
+        assertTrue(mapped.isMapped());
+        assertFalse(inHeap.isMapped());
+        assertFalse(map("the cat", 1024).isMapped());
+
+        assertEquals(mapped.getSize(), inHeap.getSize());
+        assertEquals(mapped.getRegionCount(), inHeap.getRegionCount());
+        for (int region = 0; region < mapped.getRegionCount(); region++) {
+            assertEquals(mapped.getRegionEnd(region), inHeap.getRegionEnd(region));
+            assertEquals(mapped.getRegion(region), inHeap.getRegion(region));
+        }
+        assertEquals(count(mapped, "\\bmat\\b"), count(inHeap, "\\bmat\\b"));
+    }
+
+    private static void assertRegions(MappedFile file, String... expected) {
+        assertEquals(expected.length, file.getRegionCount());
+        for (int region = 0; region < expected.length; region++) {
+            String text = file.getChars(region).toString();
+            assertEquals(expected[region], text.substring(0, file.getRegionEnd(region)));
+        }
+    }
+
+    private MappedFile map(String text, int regionSize) throws IOException {
+        return map(text.getBytes(StandardCharsets.UTF_8), regionSize);
+    }
+
+    private MappedFile map(byte[] bytes, int regionSize) throws IOException {
+        Path path = tempDir.resolve("document.txt");
+        Files.write(path, bytes);
+        return new MappedFile(path.toFile(), regionSize);
+    }
+
+    private static int count(MappedFile file, String regex) {
+        int total = 0;
+        for (int region = 0; region < file.getRegionCount(); region++) {
+            total += count(file, region, regex);
+        }
+        return total;
+    }
+
+    private static int count(MappedFile file, int region, String regex) {
+        Matcher matcher = Pattern.compile(regex).matcher(file.getChars(region));
+        int end = file.getCharsEnd(region);
+        int count = 0;
+        while (matcher.find() && matcher.start() < end) {
+            count++;
+        }
+        return count;
+    }
+}
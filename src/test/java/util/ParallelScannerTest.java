@@ -0,0 +1,128 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+class ParallelScannerTest {
+    private static final String[] WORDS = {"the", "The", "cat", "in", "hat", "caf\u00E9"};
+    private static final List<String> TERMS = Arrays.asList("the", "the the", "the the the", "in the", "cat in the",
+            "caf\u00E9", "hat the");
+
+    @TempDir
+    Path tempDir;
+
+    private final ParallelScanner sequential = new ParallelScanner(1);
+    private final ParallelScanner parallel = new ParallelScanner(4);
+
+    @AfterEach
+    void closeScanners() {
+        sequential.close();
+        parallel.close();
+    }
+
+    @Test
+    void testPhraseAcrossRegionsIsCountedOnce() throws IOException {
+        // Regions "the ", "the " and "the": the first match runs into the
+        // second region and hides the match that starts there
+        List<MappedFile> files = map(Arrays.asList("the the the"), 4);
+        assertEquals(3, files.get(0).getRegionCount());
+
+        for (ParallelScanner scanner : Arrays.asList(sequential, parallel)) {
+            assertArrayEquals(new int[] {1}, scanner.scan(files, stringCounter("the the")));
+            assertArrayEquals(new int[] {1}, scanner.scan(files, regexCounter("the the")));
+            assertArrayEquals(new int[] {3}, scanner.scan(files, stringCounter("the")));
+        }
+    }
+
+    @Test
+    void testRegionsCountLikeWholeFiles() throws IOException {
+        Random random = new Random(7);
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int words = random.nextInt(400); words > 0; words--) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(6) == 0 ? "\n" : " ");
+            }
+            texts.add(text.toString());
+        }
+        List<MappedFile> whole = map(texts, MappedFile.DEFAULT_REGION_SIZE);
+        List<MappedFile> split = map(texts, 16);
+
+        for (String term : TERMS) {
+            int[] expected = sequential.scan(whole, stringCounter(term));
+            assertArrayEquals(expected, sequential.scan(split, stringCounter(term)), term);
+            assertArrayEquals(expected, parallel.scan(split, stringCounter(term)), term);
+
+            int[] expectedRegex = sequential.scan(whole, regexCounter(term));
+            assertArrayEquals(expectedRegex, sequential.scan(split, regexCounter(term)), term);
+            assertArrayEquals(expectedRegex, parallel.scan(split, regexCounter(term)), term);
+        }
+
+        int[][] expected = sequential.scanBatch(whole, TERMS.size(), automatonCounter());
+        assertArrayEquals(expected, sequential.scanBatch(split, TERMS.size(), automatonCounter()));
+        assertArrayEquals(expected, parallel.scanBatch(split, TERMS.size(), automatonCounter()));
+        for (int term = 0; term < TERMS.size(); term++) {
+            int[] single = sequential.scan(whole, stringCounter(TERMS.get(term)));
+            for (int file = 0; file < single.length; file++) {
+                assertEquals(single[file], expected[file][term], TERMS.get(term));
+            }
+        }
+    }
+
+    private static ParallelScanner.RegionCounter stringCounter(String term) {
+        byte[][] tokens = ByteTokenizer.foldTokens(term.split(" "));
+        return (file, region, from) ->
+                ByteTokenizer.countRegionMatches(file.getRegion(region), from, file.getRegionEnd(region), tokens);
+    }
+
+    private static ParallelScanner.RegionCounter regexCounter(String term) {
+        Pattern pattern = Pattern.compile("\\b" + term + "\\b", Pattern.CASE_INSENSITIVE);
+        return (file, region, from) -> {
+            Matcher matcher = pattern.matcher(file.getChars(region));
+            int end = file.getCharsEnd(region);
+            int count = 0;
+            int matchEnd = 0;
+            boolean found = matcher.find(from);
+            while (found && matcher.start() < end) {
+                count++;
+                matchEnd = matcher.end();
+                found = matcher.find();
+            }
+            return ParallelScanner.counted(count, matchEnd - end);
+        };
+    }
+
+    private static ParallelScanner.BatchRegionCounter automatonCounter() {
+        List<byte[][]> terms = new ArrayList<>();
+        for (String term : TERMS) {
+            terms.add(ByteTokenizer.foldTokens(term.split(" ")));
+        }
+        TokenAutomaton automaton = new TokenAutomaton(terms);
+        return (file, region, from, counts, overruns) ->
+                automaton.countMatches(file.getRegion(region), 0, file.getRegionEnd(region), from, counts, overruns);
+    }
+
+    private List<MappedFile> map(List<String> texts, int regionSize) throws IOException {
+        List<MappedFile> files = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            Path path = tempDir.resolve(regionSize + "-" + i + ".txt");
+            Files.write(path, texts.get(i).getBytes(StandardCharsets.UTF_8));
+            files.add(new MappedFile(path.toFile(), regionSize));
+        }
+        return files;
+    }
+}
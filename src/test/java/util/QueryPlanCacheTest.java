@@ -0,0 +1,58 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import enums.SearchType;
+
+import org.junit.jupiter.api.Test;
+
+class QueryPlanCacheTest {
+
+    @Test
+    void testHitsMissesAndEviction() {
+        QueryPlanCache<String> cache = new QueryPlanCache<>(2);
+        assertNull(cache.get(SearchType.STRING, "the"));
+        cache.put(SearchType.STRING, "the", "plan-the");
+        cache.put(SearchType.REGEX, "the", "regex-the");
+
+        // Terms that only differ in ASCII case share a plan, search types do not
+        assertEquals("plan-the", cache.get(SearchType.STRING, "THE"));
+        assertEquals("regex-the", cache.get(SearchType.REGEX, "the"));
+        assertNull(cache.get(SearchType.INDEXED, "the"));
+
+        // STRING "the" was used least recently, so it is evicted first
+        cache.get(SearchType.REGEX, "the");
+        cache.put(SearchType.STRING, "in the", "plan-in-the");
+        assertNull(cache.get(SearchType.STRING, "the"));
+        assertEquals("regex-the", cache.get(SearchType.REGEX, "the"));
+
+        assertEquals(2, cache.size());
+        assertEquals(4, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    void testRegexTermsAreKeyedExactly() {
+        QueryPlanCache<String> cache = new QueryPlanCache<>(8);
+        cache.put(SearchType.REGEX, "\\s", "whitespace");
+        cache.put(SearchType.REGEX, "\\S", "non-whitespace");
+        cache.put(SearchType.REGEX, "\\bthe", "word-boundary");
+
+        assertEquals("whitespace", cache.get(SearchType.REGEX, "\\s"));
+        assertEquals("non-whitespace", cache.get(SearchType.REGEX, "\\S"));
+        assertNull(cache.get(SearchType.REGEX, "\\Bthe"));
+        assertNull(cache.get(SearchType.REGEX, "The"));
+    }
+
+    @Test
+    void testIndexedTermsAreKeyedExactly() {
+        QueryPlanCache<String> cache = new QueryPlanCache<>(8);
+        cache.put(SearchType.INDEXED, "cats AND dogs", "both");
+        cache.put(SearchType.INDEXED, "cats and dogs", "three-terms");
+
+        assertEquals("both", cache.get(SearchType.INDEXED, "cats AND dogs"));
+        assertEquals("three-terms", cache.get(SearchType.INDEXED, "cats and dogs"));
+        assertNull(cache.get(SearchType.INDEXED, "Cats AND dogs"));
+    }
+}
@@ -0,0 +1,142 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class ShardedIndexManagerTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testEveryFileIsInOneShard() throws IOException {
+        Path corpusDir = writeCorpus(12);
+        CorpusSource corpus = new DirectoryCorpusSource(Collections.singletonList(corpusDir));
+        try (ShardedIndexManager manager = new ShardedIndexManager(corpus, 3, 2, tempDir.resolve("index"))) {
+            assertEquals(3, manager.getShardCount());
+            assertEquals(12, search(manager, "cat").size());
+
+            Files.delete(corpusDir.resolve("doc-0.txt"));
+            writeFile(corpusDir.resolve("doc-12.txt"), "the cat");
+            assertEquals(2, manager.refresh(corpus));
+            Map<String, Float> scores = search(manager, "cat");
+            assertEquals(12, scores.size());
+            assertFalse(scores.containsKey(corpusDir.resolve("doc-0.txt").toString()));
+            assertTrue(scores.containsKey(corpusDir.resolve("doc-12.txt").toString()));
+
+            File changed = corpusDir.resolve("doc-1.txt").toFile();
+            writeFile(changed.toPath(), "the dog");
+            assertEquals(1, manager.refresh(Collections.singletonList(changed)));
+            assertFalse(search(manager, "cat").containsKey(changed.toString()));
+        }
+    }
+
+    @Test
+    void testShardsScoreLikeOneIndex() throws IOException {
+        Path corpusDir = writeCorpus(20);
+        CorpusSource corpus = new DirectoryCorpusSource(Collections.singletonList(corpusDir));
+        try (ShardedIndexManager single = new ShardedIndexManager(corpus, 1, 2, tempDir.resolve("single"));
+             ShardedIndexManager sharded = new ShardedIndexManager(corpus, 4, 2, tempDir.resolve("sharded"))) {
+            for (String term : new String[] {"cat", "hat", "the"}) {
+                Map<String, Float> expected = search(single, term);
+                Map<String, Float> actual = search(sharded, term);
+                assertEquals(expected.keySet(), actual.keySet(), term);
+                for (Map.Entry<String, Float> entry : expected.entrySet()) {
+                    assertEquals(entry.getValue(), actual.get(entry.getKey()), 1e-6f, term);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testFailedSearchWaitsForEveryShard() throws IOException {
+        Path corpusDir = writeCorpus(12);
+        CorpusSource corpus = new DirectoryCorpusSource(Collections.singletonList(corpusDir));
+        try (ShardedIndexManager manager = new ShardedIndexManager(corpus, 3, 2, tempDir.resolve("index"))) {
+            Thread caller = Thread.currentThread();
+            CountDownLatch othersStarted = new CountDownLatch(2);
+            AtomicInteger searching = new AtomicInteger();
+            IOException e = assertThrows(IOException.class, () -> manager.search(searcher -> {
+                if (Thread.currentThread() == caller) {
+                    // The first shard fails once the others are searching
+                    assertTrue(await(othersStarted));
+                    throw new IOException("first shard");
+                }
+                searching.incrementAndGet();
+                othersStarted.countDown();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                searching.decrementAndGet();
+                return null;
+            }));
+            assertEquals("first shard", e.getMessage());
+            assertEquals(0, searching.get());
+        }
+    }
+
+    private static boolean await(CountDownLatch latch) throws IOException {
+        try {
+            return latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static Map<String, Float> search(ShardedIndexManager manager, String term) throws IOException {
+        Map<String, Float> scores = new HashMap<>();
+        List<Map<String, Float>> shardScores = manager.search(searcher -> scoreTerm(searcher, term));
+        for (Map<String, Float> shard : shardScores) {
+            for (Map.Entry<String, Float> entry : shard.entrySet()) {
+                assertNull(scores.put(entry.getKey(), entry.getValue()), entry.getKey());
+            }
+        }
+        return scores;
+    }
+
+    private static Map<String, Float> scoreTerm(IndexSearcher searcher, String term) throws IOException {
+        Map<String, Float> scores = new HashMap<>();
+        TermQuery query = new TermQuery(new Term(IndexUtil.CONTENTS_FIELD, term));
+        for (ScoreDoc hit : searcher.search(query, 1000).scoreDocs) {
+            scores.put(searcher.doc(hit.doc).get(IndexUtil.FILEPATH_FIELD), hit.score);
+        }
+        return scores;
+    }
+
+    private Path writeCorpus(int documents) throws IOException {
+        Path corpusDir = Files.createDirectory(tempDir.resolve("corpus"));
+        for (int i = 0; i < documents; i++) {
+            StringBuilder text = new StringBuilder("the cat");
+            for (int j = 0; j < i % 5; j++) {
+                text.append(" in the hat");
+            }
+            writeFile(corpusDir.resolve("doc-" + i + ".txt"), text.toString());
+        }
+        return corpusDir;
+    }
+
+    private static void writeFile(Path path, String contents) throws IOException {
+        Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,71 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+class TokenAutomatonTest {
+    private static final String[] WORDS = {"a", "b", "the", "The", "cat", "hat", "in"};
+
+    @Test
+    void testCountMatches() {
+        ByteBuffer buffer = bytes("The cat sat in the hat.\nthe the the cat in the");
+        List<String> terms = Arrays.asList("the", "cat", "the the", "in the", "hat", "hat.", "the  the", "dog");
+        int[] counts = new int[terms.size()];
+        automaton(terms).countMatches(buffer, 0, buffer.limit(), counts);
+
+        assertArrayEquals(new int[] {6, 2, 1, 2, 0, 1, 0, 0}, counts);
+    }
+
+    @Test
+    void testMatchesByteTokenizerOverRegions() {
+        Random random = new Random(42);
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            StringBuilder term = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+            for (int words = random.nextInt(3); words > 0; words--) {
+                term.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            terms.add(term.toString());
+        }
+        TokenAutomaton automaton = automaton(terms);
+
+        for (int round = 0; round < 20; round++) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 500; i++) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(4) == 0 ? "\n" : " ");
+            }
+            ByteBuffer buffer = bytes(text.toString());
+            int split = random.nextInt(buffer.limit());
+
+            int[] counts = new int[terms.size()];
+            automaton.countMatches(buffer, 0, split, counts);
+            automaton.countMatches(buffer, split, buffer.limit(), counts);
+            for (int term = 0; term < terms.size(); term++) {
+                byte[][] tokens = ByteTokenizer.foldTokens(terms.get(term).split(" "));
+                int expected = ByteTokenizer.countMatches(buffer, 0, split, tokens)
+                        + ByteTokenizer.countMatches(buffer, split, buffer.limit(), tokens);
+                assertEquals(expected, counts[term], terms.get(term));
+            }
+        }
+    }
+
+    private static TokenAutomaton automaton(List<String> terms) {
+        List<byte[][]> folded = new ArrayList<>();
+        for (String term : terms) {
+            folded.add(ByteTokenizer.foldTokens(term.split(" ")));
+        }
+        return new TokenAutomaton(folded);
+    }
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}